@@ -1,6 +1,8 @@
 package com.example.TrackYourExpenses2;
 
+import android.app.AlertDialog;
 import android.app.DatePickerDialog;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.view.*;
@@ -11,25 +13,49 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
 
-import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
 
 // Fragment responsible for adding or editing an expense
 public class AddExpenseFragment extends Fragment {
 
     // UI elements
-    EditText amountInput, dateInput;
-    Spinner categorySpinner;
+    AutoCompleteTextView titleInput, amountInput;
+    EditText dateInput;
+    Spinner categorySpinner, repeatSpinner;
     Button btnUpload, btnSave;
     ImageView imagePreview;
+    ProgressBar imageProgress;
 
     // URI to store selected image from gallery
     Uri selectedImageUri = null;
 
+    // Stored receipt produced from the selected image, once ingestion has finished
+    String ingestedImagePath = null;
+    boolean isIngesting = false;
+
     // Categories for the dropdown (Spinner)
     String[] categories = {"Food", "Transport", "Utilities", "Entertainment", "Other"};
 
+    // Repeat options for new expenses, as a unit and interval; the last one asks for both
+    static final int REPEAT_NONE = 0;
+    static final int REPEAT_CUSTOM = 6;
+    final List<String> repeatLabels = new ArrayList<>(Arrays.asList(
+            "Does not repeat", "Daily", "Weekly", "Every 2 weeks", "Monthly", "Yearly", "Custom…"));
+    final RecurringRule.Unit[] repeatUnits = {null, RecurringRule.Unit.DAY, RecurringRule.Unit.WEEK,
+            RecurringRule.Unit.WEEK, RecurringRule.Unit.MONTH, RecurringRule.Unit.MONTH, RecurringRule.Unit.MONTH};
+    final int[] repeatEvery = {0, 1, 1, 2, 1, 12, 1};
+    ArrayAdapter<String> repeatAdapter;
+
+    // Suggestions shown under the title and amount fields
+    static final int SUGGESTION_COUNT = 5;
+    SuggestionIndex suggestions;
+
     // Flag to distinguish between Add and Edit modes
     boolean isEditMode = false;
 
@@ -43,6 +69,7 @@ public class AddExpenseFragment extends Fragment {
                 if (uri != null) {
                     selectedImageUri = uri;
                     imagePreview.setImageURI(uri); // Preview the selected image
+                    ingestImage(uri);
                 }
             }
     );
@@ -57,12 +84,15 @@ public class AddExpenseFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_add_expense, container, false);
 
         // Initialize UI components
+        titleInput = view.findViewById(R.id.inputTitle);
         amountInput = view.findViewById(R.id.inputAmount);
         dateInput = view.findViewById(R.id.inputDate);
         categorySpinner = view.findViewById(R.id.spinnerCategory);
+        repeatSpinner = view.findViewById(R.id.spinnerRepeat);
         btnUpload = view.findViewById(R.id.btnUpload);
         btnSave = view.findViewById(R.id.btnSave);
         imagePreview = view.findViewById(R.id.imagePreview);
+        imageProgress = view.findViewById(R.id.imageProgress);
 
         // Set up category dropdown
         ArrayAdapter<String> adapter = new ArrayAdapter<>(requireContext(),
@@ -70,6 +100,23 @@ public class AddExpenseFragment extends Fragment {
         adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         categorySpinner.setAdapter(adapter);
 
+        // Set up repeat dropdown; picking "Custom…" asks for the interval
+        repeatAdapter = new ArrayAdapter<>(requireContext(), android.R.layout.simple_spinner_item, repeatLabels);
+        repeatAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        repeatSpinner.setAdapter(repeatAdapter);
+        repeatSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (position == REPEAT_CUSTOM) showCustomRepeatDialog();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        setUpSuggestions();
+
         // Show DatePickerDialog when clicking date input
         dateInput.setOnClickListener(v -> {
             final Calendar c = Calendar.getInstance();
@@ -100,19 +147,37 @@ public class AddExpenseFragment extends Fragment {
                     args.getString("imageUrl")
             );
 
-            // Populate UI with existing data
-            amountInput.setText(String.valueOf(oldExpense.getAmount()));
+            // Populate UI with existing data; a title generated from the category is left blank
+            // so it follows a category change
+            if (!oldExpense.getTitle().equals(defaultTitle(oldExpense.getCategory()))) {
+                titleInput.setText(oldExpense.getTitle(), false);
+            }
+            amountInput.setText(String.valueOf(oldExpense.getAmount()), false);
             dateInput.setText(oldExpense.getDate());
             int index = java.util.Arrays.asList(categories).indexOf(oldExpense.getCategory());
             if (index != -1) categorySpinner.setSelection(index);
 
-            // Load existing image using Glide if available
-            if (oldExpense.getImageUrl() != null && !oldExpense.getImageUrl().isEmpty()) {
-                Glide.with(requireContext()).load(oldExpense.getImageUrl()).into(imagePreview);
+            // Load existing image using Glide if available; an evicted original comes from the cloud,
+            // with the local thumbnail shown until it arrives
+            String imageUrl = oldExpense.getImageUrl();
+            if (imageUrl != null && !imageUrl.isEmpty()) {
+                ReceiptStore.get(requireContext()).openReceipt(imageUrl, model -> {
+                    // A newly picked image replaces the stored one
+                    if (!isAdded() || selectedImageUri != null) return;
+                    RequestBuilder<Drawable> request = Glide.with(this).load(model);
+                    if (ReceiptUploadQueue.isLocalReceipt(imageUrl)) {
+                        request = request.thumbnail(Glide.with(this).load(ReceiptStore.thumbnailFile(requireContext(), imageUrl)));
+                    }
+                    request.into(imagePreview);
+                });
             }
 
-            // Change button text to indicate update mode
+            // Change button text to indicate update mode; an edit changes this expense only
             btnSave.setText("Update");
+            repeatSpinner.setVisibility(View.GONE);
+        } else {
+            // Start a new expense on the category usually spent on today
+            selectCategory(suggestions.suggestCategory(ExpenseDates.today()));
         }
 
         // Save or update expense when button is clicked
@@ -135,30 +200,26 @@ public class AddExpenseFragment extends Fragment {
                 return;
             }
 
-            String title = category + " expense";
-            String localImagePath = null;
+            String title = titleInput.getText().toString().trim();
+            if (title.isEmpty()) title = defaultTitle(category);
 
-            // Handle image saving if selected
-            if (selectedImageUri != null) {
-                try {
-                    String fileName = "expense_" + System.currentTimeMillis() + ".jpg";
-                    File imageFile = new File(requireContext().getFilesDir(), fileName);
-
-                    // Save selected image to internal storage
-                    try (InputStream in = requireContext().getContentResolver().openInputStream(selectedImageUri);
-                         OutputStream out = new FileOutputStream(imageFile)) {
-                        byte[] buffer = new byte[4096];
-                        int read;
-                        while ((read = in.read(buffer)) != -1) {
-                            out.write(buffer, 0, read);
-                        }
-                    }
+            // A repeating expense is saved as a rule; its occurrences are written as they come due
+            int repeat = repeatSpinner.getSelectedItemPosition();
+            if (!isEditMode && repeat != REPEAT_NONE) {
+                saveRecurringExpense(title, amount, date, category, repeat);
+                return;
+            }
 
-                    localImagePath = imageFile.getAbsolutePath();
+            String localImagePath = null;
+            Uri pendingImage = null;
 
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Toast.makeText(getContext(), "Failed to save image locally", Toast.LENGTH_SHORT).show();
+            // Use the stored receipt if an image was selected; one still being processed
+            // is finished by the write queue
+            if (selectedImageUri != null) {
+                if (isIngesting) {
+                    pendingImage = selectedImageUri;
+                } else {
+                    localImagePath = ingestedImagePath;
                 }
             } else if (isEditMode) {
                 localImagePath = oldExpense.getImageUrl(); // retain old image if no new one chosen
@@ -169,39 +230,240 @@ public class AddExpenseFragment extends Fragment {
 
             // Perform update or insert
             if (isEditMode) {
-                updateExpense(oldExpense, newExpense);
+                updateExpense(oldExpense, newExpense, pendingImage);
             } else {
-                saveNewExpense(newExpense);
+                saveNewExpense(newExpense, pendingImage);
             }
         });
 
         return view;
     }
 
-    // Updates an existing expense in both local DB and Firebase
-    private void updateExpense(Expense oldExpense, Expense newExpense) {
-        ExpenseDatabase db = new ExpenseDatabase(requireContext());
-        db.updateExpense(
-                oldExpense.getTitle(), oldExpense.getAmount(), oldExpense.getDate(), oldExpense.getCategory(),
-                newExpense.getTitle(), newExpense.getAmount(), newExpense.getDate(), newExpense.getCategory(), newExpense.getImageUrl()
-        );
+    /**
+     * Fills the title and amount dropdowns from the suggestion index. Picking a past title also picks its
+     * category, and its amount if none is entered yet; amounts are the ones most used in the selected category
+     * and are offered as soon as the empty field is focused.
+     */
+    private void setUpSuggestions() {
+        suggestions = SuggestionIndex.get(requireContext());
+
+        titleInput.setAdapter(new SuggestionAdapter(requireContext(), typed -> {
+            List<String> result = new ArrayList<>();
+            for (SuggestionIndex.TitleSuggestion suggestion : suggestions.suggestTitles(typed, SUGGESTION_COUNT)) {
+                result.add(suggestion.title);
+            }
+            return result;
+        }));
+        titleInput.setOnItemClickListener((parent, view, position, id) -> {
+            String picked = (String) parent.getItemAtPosition(position);
+            for (SuggestionIndex.TitleSuggestion suggestion : suggestions.suggestTitles(picked, SUGGESTION_COUNT)) {
+                if (!suggestion.title.equalsIgnoreCase(picked)) continue;
+                selectCategory(suggestion.category);
+                if (amountInput.getText().toString().trim().isEmpty()) {
+                    amountInput.setText(formatAmount(suggestion.amount), false);
+                }
+                break;
+            }
+        });
+
+        SuggestionAdapter amountAdapter = new SuggestionAdapter(requireContext(), typed -> {
+            List<String> result = new ArrayList<>();
+            for (double amount : suggestions.suggestAmounts(categorySpinner.getSelectedItem().toString(), SUGGESTION_COUNT)) {
+                String text = formatAmount(amount);
+                if (text.startsWith(typed.trim())) result.add(text);
+            }
+            return result;
+        });
+        amountInput.setAdapter(amountAdapter);
+        amountInput.setOnFocusChangeListener((v, hasFocus) -> {
+            if (!hasFocus || amountInput.length() > 0) return;
+            amountAdapter.getFilter().filter("", count -> {
+                if (count > 0 && amountInput.hasFocus() && amountInput.length() == 0) amountInput.showDropDown();
+            });
+        });
+    }
+
+    private void selectCategory(@Nullable String category) {
+        int index = Arrays.asList(categories).indexOf(category);
+        if (index != -1) categorySpinner.setSelection(index);
+    }
 
-        // Update cloud data
-        FirebaseSyncHelper syncHelper = new FirebaseSyncHelper(requireContext());
-        syncHelper.updateExpenseInFirebase(oldExpense, newExpense);
+    // Title saved when none is typed
+    private static String defaultTitle(String category) {
+        return category + " expense";
+    }
 
-        Toast.makeText(getContext(), "Expense updated!", Toast.LENGTH_SHORT).show();
+    private static String formatAmount(double amount) {
+        return amount == Math.rint(amount)
+                ? String.valueOf((long) amount)
+                : String.format(Locale.ROOT, "%.2f", amount);
+    }
+
+    /**
+     * Dropdown adapter whose items come from a lookup run on the filter's background thread.
+     */
+    private static class SuggestionAdapter extends ArrayAdapter<String> {
+
+        interface Source {
+            List<String> suggest(String typed);
+        }
+
+        private final Source source;
+
+        private final Filter filter = new Filter() {
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                List<String> items = source.suggest(constraint == null ? "" : constraint.toString());
+                FilterResults results = new FilterResults();
+                results.values = items;
+                results.count = items.size();
+                return results;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                clear();
+                if (results.values != null) addAll((List<String>) results.values);
+                notifyDataSetChanged();
+            }
+
+            @Override
+            public CharSequence convertResultToString(Object resultValue) {
+                return (String) resultValue;
+            }
+        };
+
+        SuggestionAdapter(android.content.Context context, Source source) {
+            super(context, android.R.layout.simple_dropdown_item_1line, new ArrayList<>());
+            this.source = source;
+        }
+
+        @NonNull
+        @Override
+        public Filter getFilter() {
+            return filter;
+        }
+    }
+
+    /**
+     * Downscales, re-encodes and thumbnails the picked image on a background thread, showing progress.
+     * Saving doesn't wait for it: a save made meanwhile picks up the result in the write queue.
+     */
+    private void ingestImage(Uri uri) {
+        ingestedImagePath = null;
+        isIngesting = true;
+        imageProgress.setProgress(0);
+        imageProgress.setVisibility(View.VISIBLE);
+
+        ReceiptIngestor.get(requireContext()).ingest(uri, new ReceiptIngestor.OnIngestListener() {
+            @Override
+            public void onProgress(int percent) {
+                if (uri.equals(selectedImageUri) && getView() != null) imageProgress.setProgress(percent);
+            }
+
+            @Override
+            public void onIngested(String imagePath) {
+                if (!uri.equals(selectedImageUri)) return; // A newer image was picked meanwhile
+                ingestedImagePath = imagePath;
+                finishIngesting();
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                if (!uri.equals(selectedImageUri)) return;
+                finishIngesting();
+                if (isAdded()) {
+                    Toast.makeText(getContext(), "Failed to save image locally", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
+    private void finishIngesting() {
+        isIngesting = false;
+        if (getView() == null) return;
+        imageProgress.setVisibility(View.GONE);
+    }
+
+    /**
+     * Asks for a custom interval ("every N days/weeks/months") and shows it in the repeat dropdown.
+     */
+    private void showCustomRepeatDialog() {
+        EditText everyInput = new EditText(getContext());
+        everyInput.setInputType(android.text.InputType.TYPE_CLASS_NUMBER);
+        everyInput.setHint("Every how many");
+        everyInput.setText(String.valueOf(repeatEvery[REPEAT_CUSTOM]));
+
+        Spinner unitSpinner = new Spinner(getContext());
+        String[] unitLabels = {"days", "weeks", "months"};
+        RecurringRule.Unit[] units = {RecurringRule.Unit.DAY, RecurringRule.Unit.WEEK, RecurringRule.Unit.MONTH};
+        ArrayAdapter<String> unitAdapter = new ArrayAdapter<>(requireContext(),
+                android.R.layout.simple_spinner_item, unitLabels);
+        unitAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        unitSpinner.setAdapter(unitAdapter);
+        unitSpinner.setSelection(Arrays.asList(units).indexOf(repeatUnits[REPEAT_CUSTOM]));
+
+        LinearLayout layout = new LinearLayout(getContext());
+        layout.setOrientation(LinearLayout.HORIZONTAL);
+        layout.setPadding(48, 16, 48, 0);
+        layout.addView(everyInput, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1));
+        layout.addView(unitSpinner, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1));
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Repeat every")
+                .setView(layout)
+                .setPositiveButton("OK", (dialog, which) -> {
+                    int every;
+                    try {
+                        every = Integer.parseInt(everyInput.getText().toString().trim());
+                    } catch (NumberFormatException e) {
+                        every = 0;
+                    }
+                    if (every < 1) {
+                        Toast.makeText(getContext(), "Invalid interval", Toast.LENGTH_SHORT).show();
+                        repeatSpinner.setSelection(REPEAT_NONE);
+                        return;
+                    }
+                    repeatUnits[REPEAT_CUSTOM] = units[unitSpinner.getSelectedItemPosition()];
+                    repeatEvery[REPEAT_CUSTOM] = every;
+                    repeatLabels.set(REPEAT_CUSTOM, "Every " + every + " " + unitLabels[unitSpinner.getSelectedItemPosition()]);
+                    repeatAdapter.notifyDataSetChanged();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> repeatSpinner.setSelection(REPEAT_NONE))
+                .show();
+    }
+
+    // Stores a recurring rule starting on the chosen date; occurrences up to today are written in the background
+    private void saveRecurringExpense(String title, double amount, String date, String category, int repeat) {
+        int startDay = ExpenseDates.toEpochDay(date);
+        if (startDay == ExpenseDates.INVALID) {
+            Toast.makeText(getContext(), "Invalid date", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        RecurringRule rule = new RecurringRule(title, amount, category, startDay,
+                repeatUnits[repeat], repeatEvery[repeat], ExpenseDates.INVALID);
+        RecurringExpenseEngine.get(requireContext()).addRule(rule);
+
+        // Receipts belong to a single expense, so a picked image isn't repeated
+        Toast.makeText(getContext(), selectedImageUri == null
+                ? "Recurring expense saved!"
+                : "Recurring expense saved (the image isn't repeated)", Toast.LENGTH_SHORT).show();
         requireActivity().getSupportFragmentManager().popBackStack(); // Navigate back
     }
 
-    // Saves a new expense to the local DB and syncs to Firebase
-    private void saveNewExpense(Expense expense) {
-        ExpenseDatabase db = new ExpenseDatabase(requireContext());
-        db.insertExpense(expense.getTitle(), expense.getAmount(), expense.getDate(), expense.getCategory(), expense.getImageUrl());
+    // Hands the edit to the write queue, which writes it locally off the main thread, then the receipt and Firebase
+    private void updateExpense(Expense oldExpense, Expense newExpense, @Nullable Uri pendingImage) {
+        ExpenseWriteQueue.get(requireContext()).update(oldExpense, newExpense, pendingImage);
+
+        Toast.makeText(getContext(), "Expense updated!", Toast.LENGTH_SHORT).show();
+        requireActivity().getSupportFragmentManager().popBackStack(); // Navigate back
+    }
 
-        // Trigger cloud sync
-        FirebaseSyncHelper syncHelper = new FirebaseSyncHelper(requireContext());
-        syncHelper.syncLocalToFirebase();
+    // Hands the new expense to the write queue, which writes it locally off the main thread, then the receipt and Firebase
+    private void saveNewExpense(Expense expense, @Nullable Uri pendingImage) {
+        ExpenseWriteQueue.get(requireContext()).insert(expense, pendingImage);
 
         Toast.makeText(getContext(), "Expense saved!", Toast.LENGTH_SHORT).show();
         requireActivity().getSupportFragmentManager().popBackStack(); // Navigate back
@@ -1,11 +1,18 @@
 package com.example.TrackYourExpenses2;
 
+import android.app.AlertDialog;
+import android.app.DatePickerDialog;
+import android.content.Context;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
@@ -21,22 +28,38 @@ import com.github.mikephil.charting.data.PieEntry;
 import com.github.mikephil.charting.utils.ColorTemplate;
 
 import java.text.DateFormatSymbols;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Fragment responsible for displaying financial analytics to the user.
  * Includes pie and bar charts for visualizing expense data by category and time.
+ * Totals come from the {@link SpendingIndex}, so any range (week, month, rolling 30/90 days,
+ * year or a custom pick) is answered without scanning the expenses table, and chart entries
+ * are cached per range in {@link ChartDatasetCache} so switching ranges never touches the database.
  */
 public class AnalyticsFragment extends Fragment {
 
     // UI Components for charts and buttons
     PieChart pieChart;
     BarChart barChart;
-    Button btnMonth, btnYear;
+    TextView rangeSummaryText, quantilesText;
+    Button btnWeek, btnMonth, btnLast30, btnLast90, btnYear, btnCustom, btnYearReport, btnCompare;
 
-    // Reference to the local SQLite database
-    ExpenseDatabase db;
+    // Runs all-time reports off the main thread
+    private static final ExecutorService reportExecutor = Executors.newSingleThreadExecutor();
+
+    // Range and distribution indexes, available once loaded in the background
+    SpendingIndex index;
+    QuantileIndex quantileIndex;
+
+    // Currently selected range (epoch days, inclusive)
+    private String mode = "month";
+    private int rangeFrom, rangeTo;
+
+    // X-axis labels of the bars currently shown
+    private List<String> barLabels = new ArrayList<>();
 
     @Nullable
     @Override
@@ -50,126 +73,417 @@ public class AnalyticsFragment extends Fragment {
         // Initialize UI elements
         pieChart = view.findViewById(R.id.pieChart);
         barChart = view.findViewById(R.id.barChart);
+        rangeSummaryText = view.findViewById(R.id.tvRangeSummary);
+        quantilesText = view.findViewById(R.id.tvQuantiles);
+        btnWeek = view.findViewById(R.id.btnWeek);
         btnMonth = view.findViewById(R.id.btnMonth);
+        btnLast30 = view.findViewById(R.id.btnLast30);
+        btnLast90 = view.findViewById(R.id.btnLast90);
         btnYear = view.findViewById(R.id.btnYear);
-        db = new ExpenseDatabase(getContext());
+        btnCustom = view.findViewById(R.id.btnCustom);
+        btnYearReport = view.findViewById(R.id.btnYearReport);
+        btnCompare = view.findViewById(R.id.btnCompare);
 
         // Set chart update behavior based on selected button
-        btnMonth.setOnClickListener(v -> loadCharts("month"));
-        btnYear.setOnClickListener(v -> loadCharts("year"));
+        btnWeek.setOnClickListener(v -> selectMode("week"));
+        btnMonth.setOnClickListener(v -> selectMode("month"));
+        btnLast30.setOnClickListener(v -> selectMode("30"));
+        btnLast90.setOnClickListener(v -> selectMode("90"));
+        btnYear.setOnClickListener(v -> selectMode("year"));
+        btnCustom.setOnClickListener(v -> pickCustomRange());
+        btnYearReport.setOnClickListener(v -> showYearReport());
+        btnCompare.setOnClickListener(v -> pickComparison());
 
-        // Default chart display is monthly
-        loadCharts("month");
+        // Default chart display is monthly, drawn once the index is ready
+        selectMode("month");
+        SpendingIndex.get(requireContext()).load(loaded -> {
+            index = loaded;
+            if (isAdded() && getView() != null) loadCharts();
+        });
+        QuantileIndex.get(requireContext()).load(loaded -> {
+            quantileIndex = loaded;
+            if (isAdded() && getView() != null) showQuantiles();
+        });
 
         return view;
     }
 
     /**
-     * Loads and renders pie and bar charts based on the specified mode (monthly or yearly).
-     * @param mode "month" or "year"
+     * Sets the date range for a preset mode and redraws the charts.
+     * @param mode "week", "month", "30", "90" or "year"
      */
-    private void loadCharts(String mode) {
-        List<Expense> expenses = db.getAllExpenses(); // Fetch all expenses
-
-        // Stores total spending per category and per date/month
-        Map<String, Float> categoryTotals = new HashMap<>();
-        Map<String, Float> timeTotals = new TreeMap<>(); // TreeMap keeps entries sorted
-
-        Calendar now = Calendar.getInstance();
-        int thisMonth = now.get(Calendar.MONTH);
-        int thisYear = now.get(Calendar.YEAR);
-
-        SimpleDateFormat sdf = new SimpleDateFormat("d/M/yyyy", Locale.getDefault());
-
-        // Aggregate expenses based on mode
-        for (Expense e : expenses) {
-            try {
-                Date date = sdf.parse(e.getDate());
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(date);
-                int month = cal.get(Calendar.MONTH);
-                int year = cal.get(Calendar.YEAR);
-
-                boolean include = mode.equals("year") ? (year == thisYear) : (month == thisMonth && year == thisYear);
-                if (!include) continue;
-
-                // Add expense to category total (for pie chart)
-                categoryTotals.put(e.getCategory(),
-                        categoryTotals.getOrDefault(e.getCategory(), 0f) + (float) e.getAmount());
-
-                // Generate label based on mode and add to time totals (for bar chart)
-                String label = mode.equals("year") ? getMonthLabel(month) : e.getDate();
-                timeTotals.put(label,
-                        timeTotals.getOrDefault(label, 0f) + (float) e.getAmount());
-
-            } catch (Exception ignored) {
-                // Ignore malformed date strings
-            }
+    private void selectMode(String mode) {
+        int today = ExpenseDates.today();
+        int[] civil = ExpenseDates.toCivil(today);
+
+        switch (mode) {
+            case "week":
+                rangeFrom = today - ExpenseDates.dayOfWeek(today); // Monday
+                rangeTo = rangeFrom + 6;
+                break;
+            case "30":
+                rangeFrom = today - 29;
+                rangeTo = today;
+                break;
+            case "90":
+                rangeFrom = today - 89;
+                rangeTo = today;
+                break;
+            case "year":
+                rangeFrom = ExpenseDates.epochDay(civil[0], 1, 1);
+                rangeTo = ExpenseDates.epochDay(civil[0], 12, 31);
+                break;
+            default:
+                int month = ExpenseDates.monthKey(today);
+                rangeFrom = ExpenseDates.monthStart(month);
+                rangeTo = ExpenseDates.monthEnd(month);
+                break;
         }
+        this.mode = mode;
+        loadCharts();
+        showQuantiles();
+    }
 
-        // === Pie Chart Setup ===
-        List<PieEntry> pieEntries = new ArrayList<>();
-        for (Map.Entry<String, Float> entry : categoryTotals.entrySet()) {
-            pieEntries.add(new PieEntry(entry.getValue(), entry.getKey()));
+    /**
+     * Asks for a start and an end date, then charts that range.
+     */
+    private void pickCustomRange() {
+        int[] start = ExpenseDates.toCivil(rangeFrom);
+        new DatePickerDialog(requireContext(), (picker, y, m, d) -> {
+            int from = ExpenseDates.epochDay(y, m + 1, d);
+            int[] end = ExpenseDates.toCivil(Math.max(rangeTo, from));
+
+            DatePickerDialog endDialog = new DatePickerDialog(requireContext(), (picker2, y2, m2, d2) -> {
+                rangeFrom = from;
+                rangeTo = Math.max(from, ExpenseDates.epochDay(y2, m2 + 1, d2));
+                mode = "custom";
+                loadCharts();
+                showQuantiles();
+            }, end[0], end[1] - 1, end[2]);
+            endDialog.setTitle("End date");
+            endDialog.show();
+        }, start[0], start[1] - 1, start[2]).show();
+    }
+
+    /**
+     * Renders pie and bar charts for the selected range.
+     * Datasets come from the LRU cache when nothing has changed since they were built,
+     * and are swapped into the existing chart data instead of recreating it.
+     */
+    private void loadCharts() {
+        if (index == null) return; // Still loading; drawn when the index arrives
+
+        int maxBars = maxBarsForChart();
+        String key = ChartDatasetCache.key(mode, rangeFrom, rangeTo) + ":" + maxBars;
+        long version = index.getVersion();
+        ChartDataset dataset = ChartDatasetCache.get().get(key, version);
+        if (dataset == null) {
+            dataset = buildDataset(version, maxBars);
+            ChartDatasetCache.get().put(key, dataset);
         }
 
-        PieDataSet pieDataSet = new PieDataSet(pieEntries, "Spending by Category");
-        pieDataSet.setColors(ColorTemplate.MATERIAL_COLORS);
-        pieDataSet.setValueTextColor(Color.BLACK);
-        pieDataSet.setValueTextSize(12f);
-
-        PieData pieData = new PieData(pieDataSet);
-        pieChart.setData(pieData);
-        pieChart.setUsePercentValues(true); // Show percentage values
-        pieChart.setEntryLabelColor(Color.BLACK);
-        pieChart.setCenterText("Categories"); // Center text inside pie
-        pieChart.setHoleRadius(40f); // Inner radius
-        pieChart.getDescription().setEnabled(false); // Hide default description
-        pieChart.invalidate(); // Refresh chart
+        rangeSummaryText.setText(ExpenseDates.format(rangeFrom) + " – " + ExpenseDates.format(rangeTo)
+                + ": $" + String.format("%.2f", dataset.getTotal()));
+        renderPie(dataset.getPieEntries());
+        renderBars(dataset.getBarEntries(), dataset.getBarLabels());
+    }
+
+    /**
+     * Shows median, p90 and p99 expense size per category for the months the range covers,
+     * merged from the stored monthly sketches.
+     */
+    private void showQuantiles() {
+        if (quantileIndex == null) return; // Still loading; shown when the index arrives
 
-        // === Bar Chart Setup ===
+        int fromMonth = ExpenseDates.monthKey(rangeFrom);
+        int toMonth = ExpenseDates.monthKey(rangeTo);
+        Map<String, QuantileSketch> sketches = new TreeMap<>(quantileIndex.categorySketches(fromMonth, toMonth));
+
+        String[] months = new DateFormatSymbols().getShortMonths();
+        String period = months[ExpenseDates.monthOfMonthKey(fromMonth) - 1] + " " + ExpenseDates.yearOfMonthKey(fromMonth);
+        if (toMonth != fromMonth) {
+            period += " – " + months[ExpenseDates.monthOfMonthKey(toMonth) - 1] + " " + ExpenseDates.yearOfMonthKey(toMonth);
+        }
+
+        StringBuilder sb = new StringBuilder("Expense sizes (" + period + ")");
+        if (sketches.isEmpty()) sb.append("\nNo expenses");
+        for (Map.Entry<String, QuantileSketch> entry : sketches.entrySet()) {
+            QuantileSketch sketch = entry.getValue();
+            sb.append("\n").append(entry.getKey())
+                    .append(": median $").append(String.format("%.2f", sketch.quantile(0.5)))
+                    .append(" · p90 $").append(String.format("%.2f", sketch.quantile(0.9)))
+                    .append(" · p99 $").append(String.format("%.2f", sketch.quantile(0.99)))
+                    .append(" (").append(sketch.getCount()).append(")");
+        }
+        quantilesText.setText(sb.toString());
+    }
+
+    /**
+     * Builds the chart entries for the selected range from the spending index.
+     */
+    private ChartDataset buildDataset(long version, int maxBars) {
+        // Total spending per category for the pie chart, one index lookup each
+        List<PieEntry> pieEntries = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : index.categoryTotals(rangeFrom, rangeTo).entrySet()) {
+            pieEntries.add(new PieEntry(entry.getValue().floatValue(), entry.getKey()));
+        }
+
+        // One bar per day, week, month, quarter or year, whichever keeps the bars within maxBars
         List<BarEntry> barEntries = new ArrayList<>();
         List<String> labels = new ArrayList<>();
         int i = 0;
-        for (Map.Entry<String, Float> entry : timeTotals.entrySet()) {
-            barEntries.add(new BarEntry(i, entry.getValue())); // X=index, Y=amount
-            labels.add(entry.getKey());
-            i++;
+        for (SeriesDownsampler.Bucket bucket : SeriesDownsampler.buckets(rangeFrom, rangeTo, maxBars)) {
+            barEntries.add(new BarEntry(i++, (float) index.total(null, bucket.fromDay, bucket.toDay)));
+            labels.add(bucket.label);
         }
 
-        BarDataSet barDataSet = new BarDataSet(barEntries, "Expenses");
-        barDataSet.setColors(ColorTemplate.COLORFUL_COLORS);
-        barDataSet.setValueTextColor(Color.BLACK);
-        barDataSet.setValueTextSize(12f);
-
-        BarData barData = new BarData(barDataSet);
-        barData.setBarWidth(0.9f);
-
-        barChart.setData(barData);
-        // Custom formatter to use date/month labels on X-axis
-        barChart.getXAxis().setValueFormatter(new com.github.mikephil.charting.formatter.ValueFormatter() {
-            @Override
-            public String getFormattedValue(float value) {
-                int index = Math.round(value);
-                if (index >= 0 && index < labels.size()) {
-                    return labels.get(index);
-                } else {
-                    return "";
+        return new ChartDataset(version, index.total(null, rangeFrom, rangeTo), pieEntries, barEntries, labels);
+    }
+
+    // === Pie Chart Setup ===
+    private void renderPie(List<PieEntry> entries) {
+        PieData pieData = pieChart.getData();
+        if (pieData != null && pieData.getDataSetCount() > 0) {
+            // Reuse the existing data set, only the entries change
+            ((PieDataSet) pieData.getDataSetByIndex(0)).setValues(entries);
+            pieData.notifyDataChanged();
+            pieChart.notifyDataSetChanged();
+        } else {
+            PieDataSet pieDataSet = new PieDataSet(entries, "Spending by Category");
+            pieDataSet.setColors(ColorTemplate.MATERIAL_COLORS);
+            pieDataSet.setValueTextColor(Color.BLACK);
+            pieDataSet.setValueTextSize(12f);
+
+            pieChart.setData(new PieData(pieDataSet));
+            pieChart.setUsePercentValues(true); // Show percentage values
+            pieChart.setEntryLabelColor(Color.BLACK);
+            pieChart.setCenterText("Categories"); // Center text inside pie
+            pieChart.setHoleRadius(40f); // Inner radius
+            pieChart.getDescription().setEnabled(false); // Hide default description
+        }
+        pieChart.invalidate(); // Refresh chart
+    }
+
+    // === Bar Chart Setup ===
+    private void renderBars(List<BarEntry> entries, List<String> labels) {
+        barLabels = labels; // Read by the X-axis formatter
+
+        BarData barData = barChart.getData();
+        if (barData != null && barData.getDataSetCount() > 0) {
+            // Reuse the existing data set, only the entries change
+            ((BarDataSet) barData.getDataSetByIndex(0)).setValues(entries);
+            barData.notifyDataChanged();
+            barChart.notifyDataSetChanged();
+        } else {
+            BarDataSet barDataSet = new BarDataSet(entries, "Expenses");
+            barDataSet.setColors(ColorTemplate.COLORFUL_COLORS);
+            barDataSet.setValueTextColor(Color.BLACK);
+            barDataSet.setValueTextSize(12f);
+
+            barData = new BarData(barDataSet);
+            barData.setBarWidth(0.9f);
+
+            barChart.setData(barData);
+            // Custom formatter to use date/month labels on X-axis
+            barChart.getXAxis().setValueFormatter(new com.github.mikephil.charting.formatter.ValueFormatter() {
+                @Override
+                public String getFormattedValue(float value) {
+                    int index = Math.round(value);
+                    if (index >= 0 && index < barLabels.size()) {
+                        return barLabels.get(index);
+                    } else {
+                        return "";
+                    }
                 }
-            }
-        });
-        barChart.getXAxis().setGranularity(1f); // Ensures labels align with bars
-        barChart.setFitBars(true); // Bars take full width
-        barChart.getDescription().setEnabled(false); // Hide chart description
+            });
+            barChart.getXAxis().setGranularity(1f); // Ensures labels align with bars
+            barChart.setFitBars(true); // Bars take full width
+            barChart.getDescription().setEnabled(false); // Hide chart description
+        }
         barChart.invalidate(); // Refresh chart
     }
 
     /**
-     * Returns abbreviated month name for a given month index (0 = Jan).
-     * @param month int from 0 to 11
-     * @return String abbreviation like "Jan", "Feb", etc.
+     * Aggregates every expense by year and by year and category on the fork/join pool,
+     * then shows each year's figures next to the previous year's.
+     */
+    private void showYearReport() {
+        Context appContext = requireContext().getApplicationContext();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        btnYearReport.setEnabled(false);
+
+        reportExecutor.execute(() -> {
+            List<Expense> all = ExpenseDatabase.get(appContext).getAllExpenses();
+            Map<String, ExpenseAggregator.Stats> years = ExpenseAggregator.groupBy(all, ExpenseAggregator.BY_YEAR);
+            Map<String, ExpenseAggregator.Stats> yearCategories = ExpenseAggregator.groupBy(all,
+                    ExpenseAggregator.both(ExpenseAggregator.BY_YEAR, ExpenseAggregator.BY_CATEGORY));
+            String report = formatYearReport(years, yearCategories);
+
+            mainHandler.post(() -> {
+                if (!isAdded() || getView() == null) return;
+                btnYearReport.setEnabled(true);
+                new AlertDialog.Builder(getContext())
+                        .setTitle("Year over Year")
+                        .setMessage(report)
+                        .setPositiveButton("Close", null)
+                        .show();
+            });
+        });
+    }
+
+    // Newest year first: total, count, average and largest expense, change vs. the year before, top categories
+    private static String formatYearReport(Map<String, ExpenseAggregator.Stats> years,
+                                           Map<String, ExpenseAggregator.Stats> yearCategories) {
+        if (years.isEmpty()) return "No expenses yet.";
+
+        List<String> sortedYears = new ArrayList<>(years.keySet());
+        Collections.sort(sortedYears, Collections.reverseOrder());
+
+        StringBuilder sb = new StringBuilder();
+        for (String year : sortedYears) {
+            ExpenseAggregator.Stats stats = years.get(year);
+            sb.append(year).append(": $").append(String.format("%.2f", stats.getSum()));
+
+            ExpenseAggregator.Stats previous = years.get(String.valueOf(Integer.parseInt(year) - 1));
+            if (previous != null && previous.getSum() > 0) {
+                double change = (stats.getSum() - previous.getSum()) / previous.getSum() * 100;
+                sb.append(String.format(" (%+.0f%%)", change));
+            }
+            sb.append("\n  ").append(stats.getCount()).append(" expenses, avg $")
+                    .append(String.format("%.2f", stats.getAverage()))
+                    .append(", largest $").append(String.format("%.2f", stats.getMax())).append("\n");
+
+            // This year's categories, highest first
+            List<Map.Entry<String, ExpenseAggregator.Stats>> categories = new ArrayList<>();
+            for (Map.Entry<String, ExpenseAggregator.Stats> entry : yearCategories.entrySet()) {
+                if (entry.getKey().startsWith(year + "|")) categories.add(entry);
+            }
+            categories.sort((a, b) -> Double.compare(b.getValue().getSum(), a.getValue().getSum()));
+            for (Map.Entry<String, ExpenseAggregator.Stats> entry : categories) {
+                sb.append("  ").append(entry.getKey().substring(year.length() + 1)).append(": $")
+                        .append(String.format("%.2f", entry.getValue().getSum())).append("\n");
+            }
+            sb.append("\n");
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Offers common comparisons, or two months picked freely.
      */
-    private String getMonthLabel(int month) {
-        return new DateFormatSymbols().getShortMonths()[month];
+    private void pickComparison() {
+        int thisMonth = ExpenseDates.monthKey(ExpenseDates.today());
+        int thisYearStart = ExpenseDates.monthKey(ExpenseDates.yearOfMonthKey(thisMonth), 1);
+        int thisQuarterStart = thisMonth - (ExpenseDates.monthOfMonthKey(thisMonth) - 1) % 3;
+
+        String[] options = {"This month vs last month", "This month vs same month last year",
+                "This quarter vs last quarter", "This year vs last year", "Pick two months…"};
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Compare")
+                .setItems(options, (dialog, which) -> {
+                    switch (which) {
+                        case 0:
+                            showComparison(thisMonth, thisMonth, thisMonth - 1, thisMonth - 1);
+                            break;
+                        case 1:
+                            showComparison(thisMonth, thisMonth, thisMonth - 12, thisMonth - 12);
+                            break;
+                        case 2:
+                            showComparison(thisQuarterStart, thisQuarterStart + 2, thisQuarterStart - 3, thisQuarterStart - 1);
+                            break;
+                        case 3:
+                            showComparison(thisYearStart, thisYearStart + 11, thisYearStart - 12, thisYearStart - 1);
+                            break;
+                        default:
+                            pickTwoMonths(thisMonth);
+                            break;
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    // Two date pickers; only the month of each pick is used
+    private void pickTwoMonths(int thisMonth) {
+        int[] civil = ExpenseDates.toCivil(ExpenseDates.today());
+        DatePickerDialog first = new DatePickerDialog(requireContext(), (picker, y, m, d) -> {
+            int monthA = ExpenseDates.monthKey(y, m + 1);
+            int[] previous = ExpenseDates.toCivil(ExpenseDates.monthStart(thisMonth - 1));
+
+            DatePickerDialog second = new DatePickerDialog(requireContext(), (picker2, y2, m2, d2) -> {
+                int monthB = ExpenseDates.monthKey(y2, m2 + 1);
+                showComparison(monthA, monthA, monthB, monthB);
+            }, previous[0], previous[1] - 1, 1);
+            second.setTitle("Compare with month");
+            second.show();
+        }, civil[0], civil[1] - 1, civil[2]);
+        first.setTitle("First month");
+        first.show();
+    }
+
+    /**
+     * Compares two month ranges from the monthly rollups and shows category and month-by-month deltas.
+     */
+    private void showComparison(int fromA, int toA, int fromB, int toB) {
+        Context appContext = requireContext().getApplicationContext();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        String[] monthNames = new DateFormatSymbols().getShortMonths();
+
+        reportExecutor.execute(() -> {
+            Map<Integer, Map<String, Double>> rollups = ExpenseDatabase.get(appContext)
+                    .getCategoryTotalsForMonths(Math.min(fromA, fromB), Math.max(toA, toB));
+            PeriodComparison comparison = new PeriodComparison(fromA, toA, fromB, toB, rollups, monthNames);
+            String report = formatComparison(comparison, monthNames);
+
+            mainHandler.post(() -> {
+                if (!isAdded() || getView() == null) return;
+                new AlertDialog.Builder(getContext())
+                        .setTitle("Compare Periods")
+                        .setMessage(report)
+                        .setPositiveButton("Close", null)
+                        .show();
+            });
+        });
+    }
+
+    private static String formatComparison(PeriodComparison comparison, String[] monthNames) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(periodLabel(comparison.getFromA(), comparison.getToA(), monthNames)).append(" vs ")
+                .append(periodLabel(comparison.getFromB(), comparison.getToB(), monthNames)).append("\n\n");
+
+        appendComparisonRow(sb, comparison.getTotal());
+        sb.append("\nBy category\n");
+        for (PeriodComparison.Row row : comparison.getCategories()) appendComparisonRow(sb, row);
+
+        if (comparison.getMonths().size() > 1) {
+            sb.append("\nBy month\n");
+            for (PeriodComparison.Row row : comparison.getMonths()) appendComparisonRow(sb, row);
+        }
+        return sb.toString().trim();
+    }
+
+    // "Food: $120.00 vs $100.00 (+$20.00, +20%)"
+    private static void appendComparisonRow(StringBuilder sb, PeriodComparison.Row row) {
+        sb.append(row.label).append(": $").append(String.format("%.2f", row.totalA))
+                .append(" vs $").append(String.format("%.2f", row.totalB))
+                .append(" (").append(row.getDelta() >= 0 ? "+" : "-").append("$")
+                .append(String.format("%.2f", Math.abs(row.getDelta())));
+        if (!Double.isNaN(row.getPercentChange())) {
+            sb.append(String.format(", %+.0f%%", row.getPercentChange()));
+        }
+        sb.append(")\n");
+    }
+
+    private static String periodLabel(int from, int to, String[] monthNames) {
+        return from == to ? PeriodComparison.label(from, monthNames)
+                : PeriodComparison.label(from, monthNames) + " – " + PeriodComparison.label(to, monthNames);
+    }
+
+    // Number of bars that fit the bar chart's width (the screen width until it is laid out)
+    private int maxBarsForChart() {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int width = barChart.getWidth() > 0 ? barChart.getWidth() : metrics.widthPixels;
+        return SeriesDownsampler.maxBucketsForWidth(width, metrics.density);
     }
 }
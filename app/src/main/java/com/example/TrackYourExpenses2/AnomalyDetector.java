@@ -0,0 +1,72 @@
+package com.example.TrackYourExpenses2;
+
+/**
+ * Scores an expense against its category's running statistics.
+ * Each category keeps an exponentially weighted mean and variance of log(1 + amount), so the
+ * state is three numbers per category and each write updates it in O(1). The score is how many
+ * standard deviations an amount lies above the mean; {@link #THRESHOLD} and up counts as unusual.
+ */
+final class AnomalyDetector {
+
+    // Weight of the newest expense; roughly the last 1 / ALPHA expenses dominate
+    static final double ALPHA = 0.1;
+
+    // Categories with fewer expenses than this are never flagged
+    static final int MIN_SAMPLES = 5;
+
+    static final double THRESHOLD = 3.0;
+
+    // Smallest deviation assumed (in log space, about 5%), so constant histories still score sensibly
+    private static final double MIN_STD_DEV = 0.05;
+
+    // Running statistics of one category, as stored in the category_stats table
+    static final class Stats {
+        double mean;
+        double variance;
+        long count;
+
+        Stats(double mean, double variance, long count) {
+            this.mean = mean;
+            this.variance = variance;
+            this.count = count;
+        }
+    }
+
+    private AnomalyDetector() {
+    }
+
+    /**
+     * Score of an amount against the statistics before it is added; 0 while there is too little history.
+     */
+    static double score(Stats stats, double amount) {
+        if (stats.count < MIN_SAMPLES) return 0;
+        double stdDev = Math.max(Math.sqrt(stats.variance), MIN_STD_DEV);
+        return (transform(amount) - stats.mean) / stdDev;
+    }
+
+    /**
+     * Folds an amount into the statistics (exponentially weighted Welford update).
+     */
+    static void update(Stats stats, double amount) {
+        double x = transform(amount);
+        if (stats.count == 0) {
+            stats.mean = x;
+            stats.variance = 0;
+        } else {
+            double diff = x - stats.mean;
+            double increment = ALPHA * diff;
+            stats.mean += increment;
+            stats.variance = (1 - ALPHA) * (stats.variance + diff * increment);
+        }
+        stats.count++;
+    }
+
+    static boolean isAnomaly(double score) {
+        return score >= THRESHOLD;
+    }
+
+    // Spending is heavily skewed, so statistics are kept on a log scale
+    private static double transform(double amount) {
+        return Math.log1p(Math.max(amount, 0));
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+/**
+ * Posts a notification when a new or synced-in expense is flagged as unusual for its category.
+ * Scoring itself happens in {@link ExpenseDatabase} on the write path; this only reacts to it.
+ * Can be turned off in Settings ("anomaly_alerts" in AppPrefs).
+ */
+public class AnomalyNotifier implements ExpenseDatabase.ExpenseChangeListener {
+
+    private static final String TAG = "AnomalyNotifier";
+
+    static final String PREF_ENABLED = "anomaly_alerts";
+    private static final int NOTIFICATION_ID = 2;
+
+    // Older expenses (e.g. history pulled in by a first sync) are flagged in the list but not notified
+    private static final int RECENT_DAYS = 7;
+
+    private static AnomalyNotifier instance;
+
+    private final Context context;
+
+    public static synchronized AnomalyNotifier get(Context context) {
+        if (instance == null) {
+            instance = new AnomalyNotifier(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private AnomalyNotifier(Context context) {
+        this.context = context;
+        BudgetAlertEngine.createNotificationChannel(context);
+        ExpenseDatabase.addChangeListener(this);
+    }
+
+    public static boolean isEnabled(Context context) {
+        return context.getSharedPreferences("AppPrefs", Context.MODE_PRIVATE).getBoolean(PREF_ENABLED, true);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        context.getSharedPreferences("AppPrefs", Context.MODE_PRIVATE).edit().putBoolean(PREF_ENABLED, enabled).apply();
+    }
+
+    @Override
+    public void onExpenseInserted(Expense expense, long write) {
+        if (!expense.isAnomaly() || !isEnabled(context)) return;
+
+        int epochDay = ExpenseDates.toEpochDay(expense.getDate());
+        if (epochDay == ExpenseDates.INVALID || ExpenseDates.today() - epochDay > RECENT_DAYS) return;
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, BudgetAlertEngine.CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_dialog_alert)
+                .setContentTitle("Unusual Expense")
+                .setContentText(expense.getTitle() + ": $" + String.format("%.2f", expense.getAmount())
+                        + " is much higher than your usual " + expense.getCategory() + " spending")
+                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+                .setAutoCancel(true);
+
+        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        if (!manager.areNotificationsEnabled()) return;
+        try {
+            manager.notify(NOTIFICATION_ID, builder.build());
+        } catch (SecurityException e) {
+            Log.w(TAG, "Notification permission not granted", e);
+        }
+    }
+
+    @Override
+    public void onExpenseDeleted(Expense expense, long write) {
+        // Nothing to do: running statistics are not rewound on delete
+    }
+
+    @Override
+    public void onExpenseUpdated(Expense oldExpense, Expense newExpense, long write) {
+        // Edits are re-scored for the list flag only
+    }
+}
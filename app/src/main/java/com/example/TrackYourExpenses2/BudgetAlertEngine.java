@@ -0,0 +1,200 @@
+package com.example.TrackYourExpenses2;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Raises budget alerts in the background as soon as a write pushes spending past a threshold
+ * (50/75/90/100% by default, configurable through {@link UserProfileStore#getAlertThresholds()}).
+ * The month-to-date total is summed once per month and account, then adjusted by each insert,
+ * update, delete or synced-in expense. The highest threshold already alerted is persisted per
+ * account and month, so restarting the app never repeats an alert.
+ */
+public class BudgetAlertEngine implements ExpenseDatabase.ExpenseChangeListener,
+        UserProfileStore.OnProfileChangedListener {
+
+    private static final String TAG = "BudgetAlerts";
+
+    static final String CHANNEL_ID = "budget_channel";
+    private static final int NOTIFICATION_ID = 1;
+
+    // Persisted in the account's prefs
+    private static final String PREF_MONTH = "alert_month_key";
+    private static final String PREF_ALERTED = "alert_highest_threshold";
+
+    private static BudgetAlertEngine instance;
+
+    private final Context context;
+    private final ExpenseDatabase db;
+    private final UserProfileStore profileStore;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // Running state, only touched on the executor
+    private SharedPreferences statePrefs;    // Account the total belongs to
+    private int stateMonth = Integer.MIN_VALUE;
+    private long baseWrite;                  // Writes numbered up to this are in monthTotal from the query
+    private double monthTotal;
+
+    public static synchronized BudgetAlertEngine get(Context context) {
+        if (instance == null) {
+            instance = new BudgetAlertEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private BudgetAlertEngine(Context context) {
+        this.context = context;
+        this.db = ExpenseDatabase.get(context);
+        this.profileStore = UserProfileStore.get(context);
+        createNotificationChannel(context);
+        ExpenseDatabase.addChangeListener(this);
+        profileStore.addListener(this);
+    }
+
+    /**
+     * Re-checks the thresholds in the background, e.g. on app start or after the month rolls over.
+     */
+    public void evaluate() {
+        executor.execute(() -> handle(0, null, null));
+    }
+
+    @Override
+    public void onExpenseInserted(Expense expense, long write) {
+        executor.execute(() -> handle(write, null, expense));
+    }
+
+    @Override
+    public void onExpenseDeleted(Expense expense, long write) {
+        executor.execute(() -> handle(write, expense, null));
+    }
+
+    @Override
+    public void onExpenseUpdated(Expense oldExpense, Expense newExpense, long write) {
+        executor.execute(() -> handle(write, oldExpense, newExpense));
+    }
+
+    @Override
+    public void onProfileChanged(UserProfileStore store) {
+        // Budget or thresholds changed: the total is unaffected, only the usage percentage
+        evaluate();
+    }
+
+    // Runs on the executor: applies one write (numbered 0 when there is none) to the running total
+    // and checks the thresholds
+    private void handle(long write, Expense removed, Expense added) {
+        SharedPreferences prefs = profileStore.userPrefs();
+        ensureState(prefs);
+
+        if (write > baseWrite) {
+            monthTotal += amountInMonth(added) - amountInMonth(removed);
+        }
+        checkThresholds(prefs);
+    }
+
+    // Sums the current month from the database when the month or the account has changed
+    private void ensureState(SharedPreferences prefs) {
+        int month = ExpenseDates.monthKey(ExpenseDates.today());
+        if (prefs == statePrefs && month == stateMonth) return;
+
+        // New month: nothing has been alerted yet
+        if (prefs.getInt(PREF_MONTH, Integer.MIN_VALUE) != month) {
+            prefs.edit().putInt(PREF_MONTH, month).putInt(PREF_ALERTED, 0).commit();
+        }
+
+        // The sum and the write count are read together, so a write reported later is in the sum
+        // exactly when its number is within the count
+        ExpenseDatabase.Snapshot<Double> snapshot = db.snapshot(
+                d -> d.getTotalBetween(ExpenseDates.monthStart(month), ExpenseDates.monthEnd(month)));
+        baseWrite = snapshot.writeCount;
+        monthTotal = snapshot.value;
+        statePrefs = prefs;
+        stateMonth = month;
+    }
+
+    private double amountInMonth(Expense e) {
+        if (e == null) return 0;
+        int epochDay = ExpenseDates.toEpochDay(e.getDate());
+        if (epochDay == ExpenseDates.INVALID || ExpenseDates.monthKey(epochDay) != stateMonth) return 0;
+        return e.getAmount();
+    }
+
+    /**
+     * Alerts once when usage rises past a new threshold. When usage falls (a delete or a higher
+     * budget), the lower thresholds are re-armed without alerting.
+     */
+    private void checkThresholds(SharedPreferences prefs) {
+        double usagePercent = usagePercent(monthTotal, profileStore.getMonthlyBudget());
+        int crossed = crossedThreshold(usagePercent, profileStore.getAlertThresholds());
+
+        int alerted = prefs.getInt(PREF_ALERTED, 0);
+        if (crossed == alerted) return;
+
+        // Committed synchronously so a crash right after the notification can't repeat it
+        prefs.edit().putInt(PREF_ALERTED, crossed).commit();
+        if (crossed > alerted) postAlert(crossed, usagePercent);
+    }
+
+    // Share of the budget spent, or 0 without a budget
+    static double usagePercent(double total, float budget) {
+        return budget <= 0 ? 0 : (total / budget) * 100;
+    }
+
+    // Highest threshold (sorted ascending) that usage has reached, or 0 if none; this is what gets recorded
+    // as alerted, so falling below a threshold re-arms it
+    static int crossedThreshold(double usagePercent, int[] thresholds) {
+        int crossed = 0;
+        for (int threshold : thresholds) {
+            if (usagePercent >= threshold) crossed = threshold;
+        }
+        return crossed;
+    }
+
+    private void postAlert(int threshold, double usagePercent) {
+        String text = threshold >= 100
+                ? "You've spent your whole monthly budget (" + String.format("%.0f", usagePercent) + "%)!"
+                : "You've used " + String.format("%.0f", usagePercent) + "% of your budget!";
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_dialog_alert)
+                .setContentTitle("Budget Alert")
+                .setContentText(text)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setAutoCancel(true);
+
+        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        if (!manager.areNotificationsEnabled()) {
+            Log.d(TAG, "Notifications disabled, skipping " + threshold + "% alert");
+            return;
+        }
+        try {
+            manager.notify(NOTIFICATION_ID, builder.build());
+        } catch (SecurityException e) {
+            Log.w(TAG, "Notification permission not granted", e);
+        }
+    }
+
+    /**
+     * Creates the notification channel (required for Android O and above).
+     * Shared by every budget-related notification; creating it again is a no-op.
+     */
+    static void createNotificationChannel(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Budget Alerts",
+                    NotificationManager.IMPORTANCE_HIGH);
+            channel.setDescription("Notifications for high budget usage");
+
+            NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+            notificationManager.createNotificationChannel(channel);
+        }
+    }
+}
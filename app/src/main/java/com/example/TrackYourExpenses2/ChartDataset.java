@@ -0,0 +1,50 @@
+package com.example.TrackYourExpenses2;
+
+import com.github.mikephil.charting.data.BarEntry;
+import com.github.mikephil.charting.data.PieEntry;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Chart-ready entries for one analytics range: the pie slices, the bars with their labels,
+ * and the range total. Built from the {@link SpendingIndex} and kept in {@link ChartDatasetCache}.
+ * The lists must not be modified once built, since cached datasets are handed to the charts as is.
+ */
+public class ChartDataset {
+
+    private final long version;                 // SpendingIndex version the entries were built from
+    private final double total;
+    private final List<PieEntry> pieEntries;
+    private final List<BarEntry> barEntries;
+    private final List<String> barLabels;       // X-axis label of each bar
+
+    ChartDataset(long version, double total, List<PieEntry> pieEntries,
+                 List<BarEntry> barEntries, List<String> barLabels) {
+        this.version = version;
+        this.total = total;
+        this.pieEntries = Collections.unmodifiableList(pieEntries);
+        this.barEntries = Collections.unmodifiableList(barEntries);
+        this.barLabels = Collections.unmodifiableList(barLabels);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public List<PieEntry> getPieEntries() {
+        return pieEntries;
+    }
+
+    public List<BarEntry> getBarEntries() {
+        return barEntries;
+    }
+
+    public List<String> getBarLabels() {
+        return barLabels;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU cache of {@link ChartDataset}s keyed by analytics range (mode and dates).
+ * Entries remember the {@link SpendingIndex} version they were built from and are ignored
+ * once any expense changes, so switching between ranges only rebuilds what is actually stale.
+ */
+public class ChartDatasetCache {
+
+    // A handful of ranges is all the analytics screen switches between
+    static final int MAX_ENTRIES = 8;
+
+    private static ChartDatasetCache instance;
+
+    // Access-ordered, so the eldest entry is the least recently used
+    private final Map<String, ChartDataset> entries = new LinkedHashMap<String, ChartDataset>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChartDataset> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public static synchronized ChartDatasetCache get() {
+        if (instance == null) {
+            instance = new ChartDatasetCache();
+        }
+        return instance;
+    }
+
+    // Key for one range, e.g. "month:20089:20119"
+    static String key(String mode, int fromDay, int toDay) {
+        return mode + ":" + fromDay + ":" + toDay;
+    }
+
+    /**
+     * Returns the dataset for a key if it was built from the given index version, otherwise null.
+     */
+    public synchronized ChartDataset get(String key, long version) {
+        ChartDataset dataset = entries.get(key);
+        if (dataset == null || dataset.getVersion() != version) return null;
+        return dataset;
+    }
+
+    public synchronized void put(String key, ChartDataset dataset) {
+        entries.put(key, dataset);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the current month's figures shown on the home screen:
+ * total spent, budget usage, per-category sums and limits, top categories and average spend.
+ * Built by {@link DashboardSummaryCache} so HomeFragment never has to loop over expenses.
+ */
+public class DashboardSummary {
+
+    static final int TOP_N = 3;
+
+    private final int monthKey;                         // Month the figures belong to
+    private final int dayOfMonth;                       // Day of the month the snapshot was taken
+    private final double total;
+    private final double budget;
+    private final Map<String, Double> categoryTotals;
+    private final Map<String, Float> categoryBudgets;   // Only categories with a limit
+    private final List<String> topCategories;           // Highest spending first, at most TOP_N
+
+    DashboardSummary(int monthKey, int dayOfMonth, double total, double budget, Map<String, Double> categoryTotals,
+                     Map<String, Float> categoryBudgets) {
+        this.monthKey = monthKey;
+        this.dayOfMonth = dayOfMonth;
+        this.total = total;
+        this.budget = budget;
+        this.categoryTotals = Collections.unmodifiableMap(new HashMap<>(categoryTotals));
+        this.categoryBudgets = categoryBudgets;
+
+        // Only a handful of categories exist, so sorting them is trivial
+        List<Map.Entry<String, Double>> sorted = new ArrayList<>(categoryTotals.entrySet());
+        sorted.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+        List<String> top = new ArrayList<>();
+        for (int i = 0; i < sorted.size() && i < TOP_N; i++) {
+            top.add(sorted.get(i).getKey());
+        }
+        this.topCategories = Collections.unmodifiableList(top);
+    }
+
+    public int getMonthKey() {
+        return monthKey;
+    }
+
+    public int getDayOfMonth() {
+        return dayOfMonth;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public double getBudget() {
+        return budget;
+    }
+
+    public double getRemaining() {
+        return budget - total;
+    }
+
+    public double getUsagePercent() {
+        return budget <= 0 ? 0 : (total / budget) * 100;
+    }
+
+    public double getCategoryTotal(String category) {
+        Double value = categoryTotals.get(category);
+        return value == null ? 0 : value;
+    }
+
+    public Map<String, Double> getCategoryTotals() {
+        return categoryTotals;
+    }
+
+    // Monthly limit of a category, or 0 if it has none
+    public float getCategoryBudget(String category) {
+        Float limit = categoryBudgets.get(category);
+        return limit == null ? 0 : limit;
+    }
+
+    // Share of a category's limit used so far, or -1 if it has no limit
+    public double getCategoryUsagePercent(String category) {
+        float limit = getCategoryBudget(category);
+        return limit <= 0 ? -1 : (getCategoryTotal(category) / limit) * 100;
+    }
+
+    public List<String> getTopCategories() {
+        return topCategories;
+    }
+
+    public double getDailyAverage() {
+        return dayOfMonth == 0 ? 0 : total / dayOfMonth;
+    }
+
+    public double getWeeklyAverage() {
+        int week = (int) Math.ceil(dayOfMonth / 7.0);
+        return week == 0 ? 0 : total / week;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a {@link DashboardSummary} for the current month ready for HomeFragment.
+ * The month's totals are read once on a background thread from the monthly rollup table,
+ * then kept up to date in O(1) per write by listening to {@link ExpenseDatabase} changes.
+ */
+public class DashboardSummaryCache implements ExpenseDatabase.ExpenseChangeListener,
+        UserProfileStore.OnProfileChangedListener {
+
+    // Receives a summary on the main thread
+    public interface OnSummaryReadyListener {
+        void onSummaryReady(DashboardSummary summary);
+    }
+
+    private static DashboardSummaryCache instance;
+
+    private final ExpenseDatabase db;
+    private final UserProfileStore profileStore;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Running totals for monthKey, valid only while loaded is true
+    private int monthKey = Integer.MIN_VALUE;
+    private boolean loaded;
+    private boolean loading;
+    private boolean dirty;        // A write arrived while loading, so the load must be redone
+    private double total;
+    private final Map<String, Double> categoryTotals = new HashMap<>();
+
+    private volatile DashboardSummary snapshot;
+
+    public static synchronized DashboardSummaryCache get(Context context) {
+        if (instance == null) {
+            instance = new DashboardSummaryCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DashboardSummaryCache(Context context) {
+        db = ExpenseDatabase.get(context);
+        profileStore = UserProfileStore.get(context);
+        ExpenseDatabase.addChangeListener(this);
+        profileStore.addListener(this);
+    }
+
+    /**
+     * Returns the cached summary if it is still for today, or null if it has to be (re)built.
+     */
+    public synchronized DashboardSummary getCached() {
+        int today = ExpenseDates.today();
+        if (!loaded || monthKey != ExpenseDates.monthKey(today)) return null;
+
+        // Same month but a new day: averages change, totals don't
+        if (snapshot == null || snapshot.getDayOfMonth() != ExpenseDates.dayOfMonth(today)) {
+            snapshot = buildSnapshot(today);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Delivers the current summary, immediately if cached, otherwise after a background load.
+     */
+    public void load(OnSummaryReadyListener listener) {
+        DashboardSummary cached = getCached();
+        if (cached != null) {
+            listener.onSummaryReady(cached);
+            return;
+        }
+        executor.execute(() -> {
+            DashboardSummary summary = rebuild();
+            mainHandler.post(() -> listener.onSummaryReady(summary));
+        });
+    }
+
+    /**
+     * Starts building the summary in the background so the home screen can render from cache.
+     */
+    public void warmUp() {
+        if (getCached() == null) executor.execute(this::rebuild);
+    }
+
+    // Runs on the executor: reads this month's rollups (one row per category) and resets the totals
+    private DashboardSummary rebuild() {
+        while (true) {
+            int today = ExpenseDates.today();
+            int month = ExpenseDates.monthKey(today);
+
+            synchronized (this) {
+                if (loaded && monthKey == month) return getCached();
+                loading = true;
+                dirty = false;
+            }
+
+            Map<String, Double> newTotals = db.getCategoryTotalsForMonth(month);
+            double newTotal = 0;
+            for (double categoryTotal : newTotals.values()) {
+                newTotal += categoryTotal;
+            }
+
+            synchronized (this) {
+                loading = false;
+                if (dirty) continue; // A write raced with the query; load again
+
+                monthKey = month;
+                total = newTotal;
+                categoryTotals.clear();
+                categoryTotals.putAll(newTotals);
+                loaded = true;
+                snapshot = buildSnapshot(today);
+                return snapshot;
+            }
+        }
+    }
+
+    // Applies one expense's amount to the running totals if it belongs to the cached month
+    private synchronized void apply(Expense e, int sign) {
+        if (loading) {
+            dirty = true;
+            return;
+        }
+        if (!loaded) return;
+
+        int epochDay = ExpenseDates.toEpochDay(e.getDate());
+        if (epochDay == ExpenseDates.INVALID || ExpenseDates.monthKey(epochDay) != monthKey) return;
+
+        total += sign * e.getAmount();
+        double categoryTotal = categoryTotals.getOrDefault(e.getCategory(), 0.0) + sign * e.getAmount();
+        if (Math.abs(categoryTotal) < 0.005) {
+            categoryTotals.remove(e.getCategory());
+        } else {
+            categoryTotals.put(e.getCategory(), categoryTotal);
+        }
+        snapshot = buildSnapshot(ExpenseDates.today());
+    }
+
+    private DashboardSummary buildSnapshot(int today) {
+        return new DashboardSummary(monthKey, ExpenseDates.dayOfMonth(today), total,
+                profileStore.getMonthlyBudget(), categoryTotals, profileStore.getCategoryBudgets());
+    }
+
+    @Override
+    public void onExpenseInserted(Expense expense, long write) {
+        apply(expense, 1);
+    }
+
+    @Override
+    public void onExpenseDeleted(Expense expense, long write) {
+        apply(expense, -1);
+    }
+
+    @Override
+    public void onExpenseUpdated(Expense oldExpense, Expense newExpense, long write) {
+        apply(oldExpense, -1);
+        apply(newExpense, 1);
+    }
+
+    @Override
+    public synchronized void onProfileChanged(UserProfileStore store) {
+        // Budget or category limits changed: totals are unaffected, only the derived figures
+        if (loaded) snapshot = buildSnapshot(ExpenseDates.today());
+    }
+}
@@ -8,12 +8,17 @@ import androidx.annotation.Nullable;
  */
 public class Expense {
 
+    // Id of an expense that isn't a stored row (e.g. one read from the cloud)
+    public static final long NO_ID = -1;
+
     // Fields to store expense details
     private String title;       // A short description/title of the expense (e.g., "Food expense")
     private String date;        // Date of the expense in string format (e.g., "30/05/2025")
     private String category;    // Category such as "Food", "Transport", etc.
     private String imageUrl;    // Optional local file path or URL to a receipt image
     private double amount;      // Expense amount
+    private double anomalyScore;    // Deviations above the category's usual amount when it was saved
+    private long id = NO_ID;        // Local database row id, stable for the row's lifetime
 
     /**
      * Constructor to initialize an Expense object.
@@ -52,4 +57,25 @@ public class Expense {
     public String getImageUrl() {
         return imageUrl;
     }
+
+    public long getId() {
+        return id;
+    }
+
+    void setId(long id) {
+        this.id = id;
+    }
+
+    public double getAnomalyScore() {
+        return anomalyScore;
+    }
+
+    void setAnomalyScore(double anomalyScore) {
+        this.anomalyScore = anomalyScore;
+    }
+
+    // True if the amount was unusually high for its category
+    public boolean isAnomaly() {
+        return AnomalyDetector.isAnomaly(anomalyScore);
+    }
 }
@@ -1,7 +1,14 @@
 package com.example.TrackYourExpenses2;
 
-import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -9,33 +16,169 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * RecyclerView.Adapter that binds a list of Expense objects to views in a RecyclerView.
  * It provides support for item click handling, image loading, and category-based icons.
+ * Expenses flagged as unusually large for their category are shown with a warning mark.
+ * New lists are diffed against the current one on a background thread, keyed by each row's
+ * stable id, so only rows that were inserted, moved, removed or changed are rebound.
+ * A long press starts a multi-select mode in which clicks toggle rows instead of opening them.
+ * Receipts are shown from their pre-generated thumbnails, decoded at the icon's exact size, and the
+ * adapter acts as the model provider for Glide's RecyclerView preloader.
  */
-public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseViewHolder> {
+public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseViewHolder>
+        implements ListPreloader.PreloadModelProvider<Expense> {
 
-    // Internal list of expenses to display
-    private List<Expense> expenses = new ArrayList<>();
+    // Size of the receipt icon in item_expense.xml
+    private static final int ICON_SIZE_DP = 32;
+
+    // Same row: same stable id (the database id, or the temporary id of an expense that isn't stored)
+    private static final DiffUtil.ItemCallback<Expense> DIFF_CALLBACK = new DiffUtil.ItemCallback<Expense>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Expense a, @NonNull Expense b) {
+            return stableId(a) == stableId(b);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Expense a, @NonNull Expense b) {
+            return a.getTitle().equals(b.getTitle()) && a.getAmount() == b.getAmount()
+                    && a.getDate().equals(b.getDate()) && a.getCategory().equals(b.getCategory())
+                    && Objects.equals(a.getImageUrl(), b.getImageUrl())
+                    && a.isAnomaly() == b.isAnomaly();
+        }
+    };
+
+    // Temporary ids for expenses without a database id, one per object, counting down from -2 (-1 is
+    // RecyclerView.NO_ID) so they never collide with a row id or with each other. Saves from the write queue have their row id from
+    // the start, so these only cover expenses shown before they are stored. Read from the diff thread too.
+    private static final Map<Expense, Long> temporaryIds = new WeakHashMap<>();
+    private static long nextTemporaryId = -2;
+
+    // Current list of expenses, replaced through submitList once the diff is done
+    private final AsyncListDiffer<Expense> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+
+    // Latest list submitted; ahead of the current list while a diff is still running
+    private List<Expense> submitted = new ArrayList<>();
+
+    // Rebinds only the selection highlight, leaving text and thumbnail alone
+    private static final Object SELECTION_PAYLOAD = new Object();
+
+    // Stable ids of the selected rows while in selection mode
+    private final Set<Long> selectedIds = new HashSet<>();
+    private boolean selectionMode;
+
+    // Image loading tied to the hosting fragment's lifecycle
+    private final Context context;
+    private final RequestManager glide;
+    private final int iconSizePx;
+
+    // Image path -> thumbnail file or original path to load, so the file system is checked once per receipt
+    private final Map<String, Object> receiptModels = new HashMap<>();
 
     // Listener for item clicks
     private OnItemClickListener listener;
+    private OnSelectionChangedListener selectionListener;
 
     // Interface for handling clicks on individual expense items
     public interface OnItemClickListener {
         void onItemClick(Expense expense);
     }
 
+    // Notified when selection mode starts or ends, or the number of selected rows changes
+    public interface OnSelectionChangedListener {
+        void onSelectionChanged(boolean selectionMode, int selectedCount);
+    }
+
+    public ExpenseAdapter(Context context, RequestManager glide) {
+        this.context = context.getApplicationContext();
+        this.glide = glide;
+        this.iconSizePx = Math.round(ICON_SIZE_DP * context.getResources().getDisplayMetrics().density);
+        setHasStableIds(true);
+    }
+
+    public int getIconSizePx() {
+        return iconSizePx;
+    }
+
     // Method to allow external classes (like Fragments) to set the click listener
     public void setOnItemClickListener(OnItemClickListener listener) {
         this.listener = listener;
     }
 
+    public void setOnSelectionChangedListener(OnSelectionChangedListener selectionListener) {
+        this.selectionListener = selectionListener;
+    }
+
+    public boolean isSelectionMode() {
+        return selectionMode;
+    }
+
+    // Leaves selection mode and clears the highlight
+    public void clearSelection() {
+        if (!selectionMode) return;
+        selectionMode = false;
+        selectedIds.clear();
+        notifyItemRangeChanged(0, getItemCount(), SELECTION_PAYLOAD);
+        notifySelectionChanged();
+    }
+
+    // Selects every row currently shown that can be selected
+    public void selectAll() {
+        selectionMode = true;
+        for (Expense e : differ.getCurrentList()) {
+            if (isSelectable(e)) selectedIds.add(stableId(e));
+        }
+        notifyItemRangeChanged(0, getItemCount(), SELECTION_PAYLOAD);
+        notifySelectionChanged();
+    }
+
+    // Selected expenses, in list order
+    public List<Expense> getSelectedExpenses() {
+        List<Expense> selected = new ArrayList<>();
+        for (Expense e : differ.getCurrentList()) {
+            if (selectedIds.contains(stableId(e))) selected.add(e);
+        }
+        return selected;
+    }
+
+    // Bulk actions write rows by id, so only rows already in the database can be selected
+    private static boolean isSelectable(Expense e) {
+        return e.getId() != Expense.NO_ID;
+    }
+
+    private void toggleSelection(int position) {
+        if (!isSelectable(differ.getCurrentList().get(position))) return;
+        long id = getItemId(position);
+        if (!selectedIds.remove(id)) selectedIds.add(id);
+        notifyItemChanged(position, SELECTION_PAYLOAD);
+
+        // Deselecting the last row ends selection mode
+        if (selectedIds.isEmpty()) {
+            clearSelection();
+        } else {
+            notifySelectionChanged();
+        }
+    }
+
+    private void notifySelectionChanged() {
+        if (selectionListener != null) selectionListener.onSelectionChanged(selectionMode, selectedIds.size());
+    }
+
     // Called when RecyclerView needs a new ViewHolder
     @NonNull
     @Override
@@ -49,37 +192,134 @@ public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseV
     // Called to bind data to a ViewHolder at a given position
     @Override
     public void onBindViewHolder(@NonNull ExpenseViewHolder holder, int position) {
-        Expense expense = expenses.get(position); // Get current expense
+        Expense expense = differ.getCurrentList().get(position); // Get current expense
         holder.bind(expense); // Bind data to UI
+        holder.setSelected(selectedIds.contains(stableId(expense)));
+
+        // Load the receipt if there is one, otherwise fall back to a category icon
+        if (hasReceipt(expense)) {
+            receiptRequest(expense).into(holder.icon);
+        } else {
+            glide.clear(holder.icon); // Cancel a load still running for the row this view showed before
+            holder.showCategoryIcon(expense.getCategory());
+        }
 
-        // Set up click listener for this item
+        // Set up click listener for this item; in selection mode clicks toggle it instead
         holder.itemView.setOnClickListener(v -> {
-            if (listener != null) listener.onItemClick(expense);
+            int current = holder.getAdapterPosition();
+            if (current == RecyclerView.NO_POSITION) return;
+
+            if (selectionMode) {
+                toggleSelection(current);
+            } else if (listener != null) {
+                listener.onItemClick(expense);
+            }
+        });
+
+        // Long press starts selection mode with this row selected
+        holder.itemView.setOnLongClickListener(v -> {
+            int current = holder.getAdapterPosition();
+            if (current == RecyclerView.NO_POSITION || !isSelectable(getExpenseAt(current))) return false;
+
+            selectionMode = true;
+            toggleSelection(current);
+            return true;
         });
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull ExpenseViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(SELECTION_PAYLOAD)) {
+            holder.setSelected(selectedIds.contains(getItemId(position)));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
     // Returns the total number of items in the data set
     @Override
     public int getItemCount() {
-        return expenses.size();
+        return differ.getCurrentList().size();
+    }
+
+    // Receipts the preloader should fetch for an upcoming row
+    @NonNull
+    @Override
+    public List<Expense> getPreloadItems(int position) {
+        List<Expense> current = differ.getCurrentList();
+        if (position >= current.size() || !hasReceipt(current.get(position))) return Collections.emptyList();
+        return Collections.singletonList(current.get(position));
+    }
+
+    // Must match the request made when binding, so preloaded images are served from the memory cache
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Expense expense) {
+        return receiptRequest(expense);
+    }
+
+    private static boolean hasReceipt(Expense e) {
+        return e.getImageUrl() != null && !e.getImageUrl().isEmpty();
+    }
+
+    // Decodes straight to icon size; the small result is what gets cached, in memory and on disk
+    private RequestBuilder<Drawable> receiptRequest(Expense expense) {
+        return glide.load(receiptModel(expense.getImageUrl()))
+                .override(iconSizePx)
+                .centerCrop()
+                .format(DecodeFormat.PREFER_RGB_565)
+                .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+                .placeholder(android.R.drawable.ic_menu_gallery);
     }
 
-    // Updates the adapter's list and refreshes the view
+    // The receipt's thumbnail if one was generated, otherwise the image itself
+    private Object receiptModel(String imageUrl) {
+        Object model = receiptModels.get(imageUrl);
+        if (model == null) {
+            model = imageUrl;
+            if (ReceiptUploadQueue.isLocalReceipt(imageUrl)) {
+                File thumbnail = ReceiptStore.thumbnailFile(context, imageUrl);
+                if (thumbnail.exists()) model = thumbnail;
+            }
+            receiptModels.put(imageUrl, model);
+        }
+        return model;
+    }
+
+    // Database row id; expenses without one get a temporary id of their own
+    @Override
+    public long getItemId(int position) {
+        return stableId(differ.getCurrentList().get(position));
+    }
+
+    private static long stableId(Expense e) {
+        if (e.getId() != Expense.NO_ID) return e.getId();
+        synchronized (temporaryIds) {
+            Long id = temporaryIds.get(e);
+            if (id == null) temporaryIds.put(e, id = nextTemporaryId--);
+            return id;
+        }
+    }
+
+    /**
+     * Replaces the list; the diff runs in the background and only changed rows are notified.
+     * The list is copied, so callers may keep sorting or editing their own.
+     */
     public void updateList(List<Expense> newList) {
-        expenses.clear();
-        expenses.addAll(newList);
-        notifyDataSetChanged(); // Redraw all items
+        submitted = new ArrayList<>(newList);
+        differ.submitList(submitted);
     }
 
     // Returns the expense at a specific position (useful for swipes, edits, etc.)
     public Expense getExpenseAt(int position) {
-        return expenses.get(position);
+        return differ.getCurrentList().get(position);
     }
 
-    // Removes an item at the specified position and notifies the adapter
+    // Removes the item shown at the specified position; applied on top of any diff still running
     public void removeItem(int position) {
-        expenses.remove(position);
-        notifyItemRemoved(position);
+        Expense removed = differ.getCurrentList().get(position);
+        submitted = new ArrayList<>(submitted);
+        submitted.remove(removed);
+        differ.submitList(submitted);
     }
 
     /**
@@ -88,6 +328,8 @@ public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseV
     static class ExpenseViewHolder extends RecyclerView.ViewHolder {
         TextView title, amount, date;
         ImageView icon;
+        ColorStateList defaultAmountColors;    // Restored when a recycled row isn't flagged
+        Drawable defaultBackground;            // Restored when a recycled row isn't selected
 
         public ExpenseViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -96,6 +338,18 @@ public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseV
             amount = itemView.findViewById(R.id.item_amount);
             date = itemView.findViewById(R.id.item_date);
             icon = itemView.findViewById(R.id.item_icon);
+            defaultAmountColors = amount.getTextColors();
+            defaultBackground = itemView.getBackground();
+        }
+
+        // Highlights the row while it is selected
+        void setSelected(boolean selected) {
+            if (selected) {
+                itemView.setBackgroundColor(0x332196F3); // Translucent blue
+            } else {
+                itemView.setBackground(defaultBackground);
+            }
+            itemView.setActivated(selected);
         }
 
         /**
@@ -104,37 +358,41 @@ public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseV
         public void bind(Expense expense) {
             // Set text views
             title.setText(expense.getTitle());
-            amount.setText(String.format("$%.2f", expense.getAmount()));
             date.setText(expense.getDate());
 
-            // Load image if available using Glide, otherwise fallback to a category icon
-            if (expense.getImageUrl() != null && !expense.getImageUrl().isEmpty()) {
-                Glide.with(icon.getContext())
-                        .load(expense.getImageUrl())
-                        .placeholder(android.R.drawable.ic_menu_gallery)
-                        .into(icon);
+            // Flag amounts far above the category's usual spending
+            if (expense.isAnomaly()) {
+                amount.setText(String.format("⚠ $%.2f", expense.getAmount()));
+                amount.setTextColor(0xFFD32F2F); // Red
+                amount.setContentDescription("Unusually high expense amount");
             } else {
-                // Use a default icon based on the category
-                switch (expense.getCategory()) {
-                    case "Food":
-                        icon.setImageResource(android.R.drawable.ic_menu_compass);
-                        break;
-                    case "Transport":
-                        icon.setImageResource(android.R.drawable.ic_menu_directions);
-                        break;
-                    case "Utilities":
-                        icon.setImageResource(android.R.drawable.ic_menu_manage);
-                        break;
-                    case "Entertainment":
-                        icon.setImageResource(android.R.drawable.ic_menu_slideshow);
-                        break;
-                    case "Shopping":
-                        icon.setImageResource(android.R.drawable.ic_menu_crop);
-                        break;
-                    default:
-                        icon.setImageResource(android.R.drawable.ic_menu_info_details);
-                        break;
-                }
+                amount.setText(String.format("$%.2f", expense.getAmount()));
+                amount.setTextColor(defaultAmountColors);
+                amount.setContentDescription("Expense amount");
+            }
+        }
+
+        // Use a default icon based on the category
+        void showCategoryIcon(String category) {
+            switch (category) {
+                case "Food":
+                    icon.setImageResource(android.R.drawable.ic_menu_compass);
+                    break;
+                case "Transport":
+                    icon.setImageResource(android.R.drawable.ic_menu_directions);
+                    break;
+                case "Utilities":
+                    icon.setImageResource(android.R.drawable.ic_menu_manage);
+                    break;
+                case "Entertainment":
+                    icon.setImageResource(android.R.drawable.ic_menu_slideshow);
+                    break;
+                case "Shopping":
+                    icon.setImageResource(android.R.drawable.ic_menu_crop);
+                    break;
+                default:
+                    icon.setImageResource(android.R.drawable.ic_menu_info_details);
+                    break;
             }
         }
     }
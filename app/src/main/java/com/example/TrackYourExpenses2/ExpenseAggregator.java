@@ -0,0 +1,174 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates large expense lists (sum, count, min, max, optionally grouped by category and/or
+ * time bucket) on the common fork/join pool. The list is split in halves until chunks are
+ * below {@link #SEQUENTIAL_THRESHOLD}; each chunk is aggregated on its own and the partial
+ * results are merged. Smaller inputs are aggregated sequentially on the calling thread.
+ * Call from a background thread: the caller blocks until the result is ready.
+ */
+public final class ExpenseAggregator {
+
+    // Below this many rows splitting costs more than it saves
+    static final int SEQUENTIAL_THRESHOLD = 8192;
+
+    // Maps an expense to its group, or null to leave it out
+    public interface KeyFunction {
+        String keyOf(Expense expense);
+    }
+
+    public static final KeyFunction BY_CATEGORY = Expense::getCategory;
+
+    // "2026"
+    public static final KeyFunction BY_YEAR = e -> {
+        int epochDay = ExpenseDates.toEpochDay(e.getDate());
+        return epochDay == ExpenseDates.INVALID ? null : String.valueOf(ExpenseDates.toCivil(epochDay)[0]);
+    };
+
+    // Month key as produced by ExpenseDates.monthKey, e.g. "24321"
+    public static final KeyFunction BY_MONTH = e -> {
+        int epochDay = ExpenseDates.toEpochDay(e.getDate());
+        return epochDay == ExpenseDates.INVALID ? null : String.valueOf(ExpenseDates.monthKey(epochDay));
+    };
+
+    /**
+     * Groups by two keys at once, joined as "first|second" (e.g. year and category).
+     */
+    public static KeyFunction both(KeyFunction first, KeyFunction second) {
+        return e -> {
+            String a = first.keyOf(e);
+            String b = second.keyOf(e);
+            return a == null || b == null ? null : a + "|" + b;
+        };
+    }
+
+    /**
+     * Running sum, count, min and max of expense amounts. Partial results are combined with merge.
+     */
+    public static final class Stats {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        void add(double amount) {
+            count++;
+            sum += amount;
+            if (amount < min) min = amount;
+            if (amount > max) max = amount;
+        }
+
+        void merge(Stats other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        // 0 when empty
+        public double getMin() {
+            return count == 0 ? 0 : min;
+        }
+
+        public double getMax() {
+            return count == 0 ? 0 : max;
+        }
+
+        public double getAverage() {
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+
+    private ExpenseAggregator() {
+    }
+
+    /**
+     * Sum, count, min and max over every expense in the list.
+     */
+    public static Stats aggregate(List<Expense> expenses) {
+        Map<String, Stats> result = groupBy(expenses, e -> "");
+        Stats stats = result.get("");
+        return stats != null ? stats : new Stats();
+    }
+
+    /**
+     * Stats per group key; expenses whose key is null are skipped.
+     */
+    public static Map<String, Stats> groupBy(List<Expense> expenses, KeyFunction key) {
+        // Splitting relies on cheap get(i)
+        List<Expense> rows = expenses instanceof RandomAccess ? expenses : new ArrayList<>(expenses);
+
+        if (rows.size() < SEQUENTIAL_THRESHOLD) {
+            return aggregateRange(rows, key, 0, rows.size());
+        }
+        return ForkJoinPool.commonPool().invoke(new GroupTask(rows, key, 0, rows.size()));
+    }
+
+    // Sequential aggregation of rows [from, to)
+    private static Map<String, Stats> aggregateRange(List<Expense> rows, KeyFunction key, int from, int to) {
+        Map<String, Stats> groups = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            Expense e = rows.get(i);
+            String group = key.keyOf(e);
+            if (group == null) continue;
+
+            Stats stats = groups.get(group);
+            if (stats == null) groups.put(group, stats = new Stats());
+            stats.add(e.getAmount());
+        }
+        return groups;
+    }
+
+    // Splits [from, to) in halves until it is small enough, then merges the halves' groups
+    private static final class GroupTask extends RecursiveTask<Map<String, Stats>> {
+        private final List<Expense> rows;
+        private final KeyFunction key;
+        private final int from, to;
+
+        GroupTask(List<Expense> rows, KeyFunction key, int from, int to) {
+            this.rows = rows;
+            this.key = key;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<String, Stats> compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                return aggregateRange(rows, key, from, to);
+            }
+
+            int mid = (from + to) >>> 1;
+            GroupTask left = new GroupTask(rows, key, from, mid);
+            left.fork();
+            Map<String, Stats> right = new GroupTask(rows, key, mid, to).compute();
+            Map<String, Stats> merged = left.join();
+
+            for (Map.Entry<String, Stats> entry : right.entrySet()) {
+                Stats stats = merged.get(entry.getKey());
+                if (stats == null) {
+                    merged.put(entry.getKey(), entry.getValue());
+                } else {
+                    stats.merge(entry.getValue());
+                }
+            }
+            return merged;
+        }
+    }
+}
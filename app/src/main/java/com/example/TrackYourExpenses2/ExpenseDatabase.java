@@ -5,11 +5,17 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * SQLite database helper for storing and managing expense records locally.
@@ -19,16 +25,107 @@ public class ExpenseDatabase extends SQLiteOpenHelper {
 
     // Database name and version
     private static final String DATABASE_NAME = "expenses.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 12;
 
-    // Constructor that initializes the database helper
-    public ExpenseDatabase(Context context) {
+    /**
+     * Observer notified after every successful expense write, on the thread that made it.
+     * Lets caches and aggregates update incrementally instead of rescanning the table.
+     * Each change carries its write number, the value {@link #getWriteCount()} reached with that row,
+     * so a cache built from a {@link #snapshot} can skip the changes the snapshot already holds.
+     */
+    public interface ExpenseChangeListener {
+        void onExpenseInserted(Expense expense, long write);
+
+        void onExpenseDeleted(Expense expense, long write);
+
+        void onExpenseUpdated(Expense oldExpense, Expense newExpense, long write);
+    }
+
+    // A read run by snapshot
+    public interface SnapshotReader<T> {
+        T read(ExpenseDatabase db);
+    }
+
+    // A value read together with the write count it reflects
+    public static final class Snapshot<T> {
+        public final T value;
+        public final long writeCount;
+
+        Snapshot(T value, long writeCount) {
+            this.value = value;
+            this.writeCount = writeCount;
+        }
+    }
+
+    // One (day, category) total, as returned by getDailyCategoryTotals
+    public static class DailyTotal {
+        public final int epochDay;
+        public final String category;
+        public final double total;
+
+        DailyTotal(int epochDay, String category, double total) {
+            this.epochDay = epochDay;
+            this.category = category;
+            this.total = total;
+        }
+    }
+
+    // One stored sketch bucket, as returned by getSpendHistogram
+    public static class HistogramBucket {
+        public final int monthKey;
+        public final String category;
+        public final int bucket;
+        public final long count;
+
+        HistogramBucket(int monthKey, String category, int bucket, long count) {
+            this.monthKey = monthKey;
+            this.category = category;
+            this.bucket = bucket;
+            this.count = count;
+        }
+    }
+
+    // Reports how far a batch write has got
+    public interface BatchProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    // Batch writes report progress every this many rows
+    private static final int PROGRESS_STEP = 25;
+
+    private static final List<ExpenseChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    private static ExpenseDatabase instance;
+
+    /**
+     * The process-wide helper. Every screen and background worker shares its connection pool,
+     * so writes queue for its one writer instead of failing on a lock held by another connection.
+     */
+    public static synchronized ExpenseDatabase get(Context context) {
+        if (instance == null) {
+            instance = new ExpenseDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Write-ahead logging lets reads carry on while a long write (a migration, a bulk pull or
+    // a recurring catch-up) is in progress. The connection stays open for the life of the process.
+    private ExpenseDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    public static void addChangeListener(ExpenseChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public static void removeChangeListener(ExpenseChangeListener listener) {
+        changeListeners.remove(listener);
     }
 
     /**
      * Called when the database is created for the first time.
-     * Creates the "expenses" table with the required columns.
+     * Creates the original "expenses" table, then applies every later schema step.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
@@ -40,22 +137,380 @@ public class ExpenseDatabase extends SQLiteOpenHelper {
                 "category TEXT NOT NULL, " +                  // Category (e.g., Food, Utilities)
                 "imageUrl TEXT" +                             // Optional receipt image path
                 ")");
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     /**
      * Called when the database version is incremented.
-     * Drops the existing table and recreates it.
+     * Applies each schema step in turn so existing expenses are kept.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS expenses");
-        onCreate(db); // Recreate the table
+        if (oldVersion < 2) {
+            createReceiptTables(db);
+        }
+        if (oldVersion < 3) {
+            addEpochDayColumn(db);
+        }
+        if (oldVersion < 4) {
+            createMonthlyRollups(db);
+        }
+        if (oldVersion < 5) {
+            createSpendHistogram(db);
+        }
+        if (oldVersion < 6) {
+            createAnomalyStats(db);
+        }
+        if (oldVersion < 7) {
+            createReceiptRefs(db);
+        }
+        if (oldVersion < 8) {
+            addReceiptEvictionColumns(db);
+        }
+        if (oldVersion < 9) {
+            createRecurringRules(db);
+        }
+        if (oldVersion < 10) {
+            createSyncOutbox(db);
+        }
+        if (oldVersion < 11) {
+            createWriteCounter(db);
+        }
+        if (oldVersion < 12) {
+            addReceiptOwnerColumn(db);
+        }
+    }
+
+    /**
+     * Creates the per-month, per-category running totals and fills them from existing expenses.
+     * Every write adjusts a single row here, so monthly figures never need a scan of the month.
+     */
+    private void createMonthlyRollups(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE monthly_rollups (" +
+                "month_key INTEGER NOT NULL, " +              // year * 12 + zero-based month
+                "category TEXT NOT NULL, " +
+                "total REAL NOT NULL DEFAULT 0, " +           // Sum of amounts
+                "count INTEGER NOT NULL DEFAULT 0, " +        // Number of expenses
+                "PRIMARY KEY (month_key, category)" +
+                ")");
+
+        // Month keys are computed in Java, so aggregate here rather than in SQL
+        Map<String, double[]> rollups = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT epoch_day, category, amount FROM expenses WHERE epoch_day IS NOT NULL", null);
+        if (cursor.moveToFirst()) {
+            do {
+                String key = ExpenseDates.monthKey(cursor.getInt(0)) + "|" + cursor.getString(1);
+                double[] rollup = rollups.get(key);
+                if (rollup == null) rollups.put(key, rollup = new double[2]);
+                rollup[0] += cursor.getDouble(2);
+                rollup[1]++;
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        for (Map.Entry<String, double[]> entry : rollups.entrySet()) {
+            int split = entry.getKey().indexOf('|');
+            db.execSQL("INSERT INTO monthly_rollups (month_key, category, total, count) VALUES (?, ?, ?, ?)",
+                    new Object[]{Integer.parseInt(entry.getKey().substring(0, split)),
+                            entry.getKey().substring(split + 1), entry.getValue()[0], (long) entry.getValue()[1]});
+        }
+    }
+
+    /**
+     * Creates the per-month, per-category expense size histograms backing {@link QuantileSketch}
+     * (one row per occupied bucket) and fills them from existing expenses.
+     */
+    private void createSpendHistogram(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE spend_histogram (" +
+                "month_key INTEGER NOT NULL, " +
+                "category TEXT NOT NULL, " +
+                "bucket INTEGER NOT NULL, " +                 // QuantileSketch.bucketOf(amount)
+                "count INTEGER NOT NULL DEFAULT 0, " +
+                "PRIMARY KEY (month_key, category, bucket)" +
+                ")");
+
+        Map<String, Long> histogram = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT epoch_day, category, amount FROM expenses WHERE epoch_day IS NOT NULL", null);
+        if (cursor.moveToFirst()) {
+            do {
+                String key = ExpenseDates.monthKey(cursor.getInt(0)) + "|"
+                        + QuantileSketch.bucketOf(cursor.getDouble(2)) + "|" + cursor.getString(1);
+                Long count = histogram.get(key);
+                histogram.put(key, count == null ? 1 : count + 1);
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        for (Map.Entry<String, Long> entry : histogram.entrySet()) {
+            String[] parts = entry.getKey().split("\\|", 3);
+            db.execSQL("INSERT INTO spend_histogram (month_key, category, bucket, count) VALUES (?, ?, ?, ?)",
+                    new Object[]{Integer.parseInt(parts[0]), parts[2], Integer.parseInt(parts[1]), entry.getValue()});
+        }
+    }
+
+    /**
+     * Adds the per-expense anomaly score and the per-category running statistics it is computed from.
+     * Statistics are seeded from existing expenses in date order; those expenses are not scored.
+     */
+    private void createAnomalyStats(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE expenses ADD COLUMN anomaly_score REAL");     // Null until scored
+        db.execSQL("CREATE TABLE category_stats (" +
+                "category TEXT PRIMARY KEY, " +
+                "mean REAL NOT NULL, " +                      // EW mean of log(1 + amount)
+                "variance REAL NOT NULL, " +                  // EW variance of the same
+                "count INTEGER NOT NULL" +                    // Expenses folded in so far
+                ")");
+
+        Map<String, AnomalyDetector.Stats> stats = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT category, amount FROM expenses ORDER BY epoch_day, id", null);
+        if (cursor.moveToFirst()) {
+            do {
+                AnomalyDetector.Stats categoryStats = stats.get(cursor.getString(0));
+                if (categoryStats == null) stats.put(cursor.getString(0), categoryStats = new AnomalyDetector.Stats(0, 0, 0));
+                AnomalyDetector.update(categoryStats, cursor.getDouble(1));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        for (Map.Entry<String, AnomalyDetector.Stats> entry : stats.entrySet()) {
+            saveCategoryStats(db, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Adds a reference count per local receipt file, filled from existing expenses.
+     * Kept up to date by every write, so unreferenced files can be found without scanning expenses.
+     */
+    private void createReceiptRefs(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE receipt_refs (" +
+                "local_path TEXT PRIMARY KEY, " +             // Receipt file on this device
+                "refs INTEGER NOT NULL DEFAULT 0" +           // Expenses pointing at it
+                ")");
+        db.execSQL("INSERT INTO receipt_refs (local_path, refs) " +
+                "SELECT imageUrl, COUNT(*) FROM expenses " +
+                "WHERE imageUrl IS NOT NULL AND imageUrl != '' AND imageUrl NOT LIKE 'http%' GROUP BY imageUrl");
+    }
+
+    /**
+     * Records when each receipt was last opened and whether its original has been evicted,
+     * so storage can be trimmed least-recently-viewed first without looking at the files.
+     */
+    private void addReceiptEvictionColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE receipts ADD COLUMN last_viewed INTEGER NOT NULL DEFAULT 0"); // Millis, 0 if never
+        db.execSQL("ALTER TABLE receipts ADD COLUMN evicted INTEGER NOT NULL DEFAULT 0");     // 1 once removed locally
+        db.execSQL("CREATE INDEX idx_receipts_last_viewed ON receipts(last_viewed)");
+    }
+
+    /**
+     * Records which account a receipt's cloud copy was uploaded under, so its URL is only reused for
+     * that account's documents. Copies uploaded before this was tracked have no owner and are uploaded
+     * again under the next account that needs them (the upload is skipped if the object already exists).
+     */
+    private void addReceiptOwnerColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE receipts ADD COLUMN remote_owner TEXT");   // Account email of remote_url
+    }
+
+    /**
+     * Creates the recurring expense templates. next_day caches the first occurrence not yet written
+     * (null once a rule has ended), so the rules due for materialization are found through its index.
+     */
+    private void createRecurringRules(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE recurring_rules (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "title TEXT NOT NULL, " +
+                "amount REAL NOT NULL, " +
+                "category TEXT NOT NULL, " +
+                "start_day INTEGER NOT NULL, " +              // Epoch day of the first occurrence
+                "unit TEXT NOT NULL, " +                      // DAY, WEEK or MONTH
+                "repeat_every INTEGER NOT NULL, " +           // Interval in units
+                "end_day INTEGER, " +                         // Last possible occurrence, null if open-ended
+                "generated INTEGER NOT NULL DEFAULT 0, " +    // Occurrences already written as expenses
+                "next_day INTEGER" +                          // First occurrence not yet written
+                ")");
+        db.execSQL("CREATE INDEX idx_recurring_next_day ON recurring_rules(next_day)");
+    }
+
+    /**
+     * Creates the outbox of saves made from the add/edit form. An entry is written in the same transaction
+     * as its expense and removed once the cloud has acknowledged it, so a save survives the process being
+     * killed before its receipt is attached or its cloud write is sent.
+     */
+    private void createSyncOutbox(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE sync_outbox (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +    // Order of the saves
+                "expense_id INTEGER NOT NULL, " +             // Row the save wrote
+                "old_title TEXT, " +                          // Identifying fields before an edit,
+                "old_amount REAL, " +                         // null for a new expense
+                "old_date TEXT, " +
+                "old_category TEXT, " +
+                "image_uri TEXT" +                            // Picked image still to attach, if any
+                ")");
+        db.execSQL("CREATE INDEX idx_sync_outbox_expense ON sync_outbox(expense_id)");
+    }
+
+    /**
+     * Creates a counter of changes to the expense fields caches are built from, kept by triggers so
+     * every write path counts, bulk ones included. A cache saved with the count it had seen can tell at
+     * load whether writes were made since (e.g. by a process killed before the cache was saved).
+     */
+    private void createWriteCounter(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE expense_writes (" +
+                "id INTEGER PRIMARY KEY CHECK (id = 0), " +  // Single row
+                "count INTEGER NOT NULL" +
+                ")");
+        db.execSQL("INSERT INTO expense_writes (id, count) VALUES (0, 0)");
+
+        String bump = " BEGIN UPDATE expense_writes SET count = count + 1 WHERE id = 0; END";
+        db.execSQL("CREATE TRIGGER expense_writes_insert AFTER INSERT ON expenses" + bump);
+        db.execSQL("CREATE TRIGGER expense_writes_update AFTER UPDATE OF title, amount, date, category ON expenses" + bump);
+        db.execSQL("CREATE TRIGGER expense_writes_delete AFTER DELETE ON expenses" + bump);
+    }
+
+    /**
+     * Adds {@code delta} references to a local receipt; rows reaching zero are dropped.
+     * Cloud URLs and empty paths are ignored. Must run inside the transaction that writes the expense.
+     */
+    private static void adjustReceiptRef(SQLiteDatabase db, @Nullable String imageUrl, int delta) {
+        if (!ReceiptUploadQueue.isLocalReceipt(imageUrl) || delta == 0) return;
+
+        db.execSQL("INSERT OR IGNORE INTO receipt_refs (local_path) VALUES (?)", new Object[]{imageUrl});
+        db.execSQL("UPDATE receipt_refs SET refs = refs + ? WHERE local_path = ?", new Object[]{delta, imageUrl});
+        db.execSQL("DELETE FROM receipt_refs WHERE local_path = ? AND refs <= 0", new Object[]{imageUrl});
+    }
+
+    // Image paths of the rows a write is about to replace or delete, one per row
+    private static List<String> imagesOf(SQLiteDatabase db, String where, String[] args) {
+        List<String> images = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT imageUrl FROM expenses WHERE " + where, args);
+        if (cursor.moveToFirst()) {
+            do {
+                images.add(cursor.getString(0));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return images;
+    }
+
+    private static AnomalyDetector.Stats loadCategoryStats(SQLiteDatabase db, String category) {
+        Cursor cursor = db.rawQuery("SELECT mean, variance, count FROM category_stats WHERE category = ?",
+                new String[]{category});
+        AnomalyDetector.Stats stats = cursor.moveToFirst()
+                ? new AnomalyDetector.Stats(cursor.getDouble(0), cursor.getDouble(1), cursor.getLong(2))
+                : new AnomalyDetector.Stats(0, 0, 0);
+        cursor.close();
+        return stats;
+    }
+
+    private static void saveCategoryStats(SQLiteDatabase db, String category, AnomalyDetector.Stats stats) {
+        db.execSQL("INSERT OR REPLACE INTO category_stats (category, mean, variance, count) VALUES (?, ?, ?, ?)",
+                new Object[]{category, stats.mean, stats.variance, stats.count});
+    }
+
+    /**
+     * Adds {@code count} expenses of {@code amount} each to their month's rollup row and size histogram
+     * (a negative count removes them).
+     * Must run inside the transaction that writes the expense.
+     */
+    private static void adjustRollup(SQLiteDatabase db, String date, String category, double amount, int count) {
+        Integer epochDay = epochDayOrNull(date);
+        if (epochDay == null || count == 0) return;
+
+        int monthKey = ExpenseDates.monthKey(epochDay);
+        addToRollup(db, monthKey, category, amount * count, count);
+        addToHistogram(db, monthKey, category, QuantileSketch.bucketOf(amount), count);
+    }
+
+    private static void addToRollup(SQLiteDatabase db, int monthKey, String category, double total, long count) {
+        // UPSERT needs SQLite 3.24 (API 30), so insert the row if missing, then update it
+        db.execSQL("INSERT OR IGNORE INTO monthly_rollups (month_key, category) VALUES (?, ?)",
+                new Object[]{monthKey, category});
+        db.execSQL("UPDATE monthly_rollups SET total = total + ?, count = count + ? WHERE month_key = ? AND category = ?",
+                new Object[]{total, count, monthKey, category});
+    }
+
+    // Same for the expense size histogram; emptied buckets are dropped
+    private static void addToHistogram(SQLiteDatabase db, int monthKey, String category, int bucket, long count) {
+        db.execSQL("INSERT OR IGNORE INTO spend_histogram (month_key, category, bucket) VALUES (?, ?, ?)",
+                new Object[]{monthKey, category, bucket});
+        db.execSQL("UPDATE spend_histogram SET count = count + ? WHERE month_key = ? AND category = ? AND bucket = ?",
+                new Object[]{count, monthKey, category, bucket});
+        db.execSQL("DELETE FROM spend_histogram WHERE month_key = ? AND category = ? AND bucket = ? AND count <= 0",
+                new Object[]{monthKey, category, bucket});
+    }
+
+    /**
+     * Adds an indexed integer day column so date ranges can be queried without parsing
+     * every "d/M/yyyy" string, and fills it in for existing rows.
+     */
+    private void addEpochDayColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE expenses ADD COLUMN epoch_day INTEGER");   // Days since 1970-01-01
+        db.execSQL("CREATE INDEX idx_expenses_epoch_day ON expenses(epoch_day)");
+
+        Cursor cursor = db.rawQuery("SELECT id, date FROM expenses", null);
+        if (cursor.moveToFirst()) {
+            do {
+                Integer epochDay = epochDayOrNull(cursor.getString(1));
+                if (epochDay != null) {
+                    db.execSQL("UPDATE expenses SET epoch_day = ? WHERE id = ?",
+                            new Object[]{epochDay, cursor.getLong(0)});
+                }
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+    }
+
+    // Epoch day for a stored date string, or null if it can't be parsed
+    @Nullable
+    private static Integer epochDayOrNull(String date) {
+        int epochDay = ExpenseDates.toEpochDay(date);
+        return epochDay == ExpenseDates.INVALID ? null : epochDay;
+    }
+
+    /**
+     * Creates the tables backing the receipt upload queue.
+     * "receipts" remembers the content hash and cloud copy of each local image,
+     * "receipt_upload_queue" holds expense documents still waiting for their receipt.
+     */
+    private void createReceiptTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE receipts (" +
+                "local_path TEXT PRIMARY KEY, " +             // Image file on this device
+                "hash TEXT, " +                               // SHA-256 of the file contents
+                "remote_url TEXT, " +                         // Download URL once uploaded
+                "session_uri TEXT" +                          // Resumable upload session, if any
+                ")");
+        db.execSQL("CREATE INDEX idx_receipts_hash ON receipts(hash)");
+        db.execSQL("CREATE TABLE receipt_upload_queue (" +
+                "doc_id TEXT PRIMARY KEY, " +                 // Cloud document to attach the receipt to
+                "user_email TEXT NOT NULL, " +                // Owner of the document
+                "local_path TEXT NOT NULL, " +                // Image file to upload
+                "attempts INTEGER NOT NULL DEFAULT 0" +       // Unused: retries are counted per session, in memory
+                ")");
     }
 
     /**
      * Inserts a new expense into the database.
+     * @return Row id of the new expense, or -1 if it couldn't be inserted
+     */
+    public long insertExpense(String title, double amount, String date, String category, @Nullable String imageUrl) {
+        return insertExpense(title, amount, date, category, imageUrl, null, null);
+    }
+
+    /**
+     * Inserts a new expense and its {@link ExpenseWriteQueue} outbox entry in one transaction.
+     * @param imageUri Picked image whose receipt is still to be attached, or null
+     * @return The outbox entry, or null if the expense couldn't be inserted
      */
-    public void insertExpense(String title, double amount, String date, String category, @Nullable String imageUrl) {
+    @Nullable
+    public ExpenseWriteQueue.Entry insertExpenseForSync(Expense expense, @Nullable String imageUri) {
+        List<ExpenseWriteQueue.Entry> outbox = new ArrayList<>(1);
+        insertExpense(expense.getTitle(), expense.getAmount(), expense.getDate(), expense.getCategory(),
+                expense.getImageUrl(), imageUri, outbox);
+        return outbox.isEmpty() ? null : outbox.get(0);
+    }
+
+    // When outbox is non-null, an outbox entry is written in the same transaction and added to it
+    private long insertExpense(String title, double amount, String date, String category, @Nullable String imageUrl,
+                               @Nullable String imageUri, @Nullable List<ExpenseWriteQueue.Entry> outbox) {
         SQLiteDatabase db = this.getWritableDatabase();
 
         // Prepare the values to insert
@@ -65,21 +520,166 @@ public class ExpenseDatabase extends SQLiteOpenHelper {
         values.put("date", date);
         values.put("category", category);
         values.put("imageUrl", imageUrl);
+        values.put("epoch_day", epochDayOrNull(date));
+
+        // Score the amount against its category, then insert the row, bump its month's rollup
+        // and fold the amount into the category statistics together
+        long id;
+        double score;
+        long write;
+        db.beginTransaction();
+        try {
+            AnomalyDetector.Stats stats = loadCategoryStats(db, category);
+            score = AnomalyDetector.score(stats, amount);
+            values.put("anomaly_score", score);
+
+            id = db.insert("expenses", null, values);
+            if (id != -1) {
+                adjustRollup(db, date, category, amount, 1);
+                adjustReceiptRef(db, imageUrl, 1);
+                AnomalyDetector.update(stats, amount);
+                saveCategoryStats(db, category, stats);
+                if (outbox != null) outbox.add(addOutboxEntry(db, id, null, imageUri));
+            }
+            write = writeCountOf(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (id != -1) {
+            Expense inserted = new Expense(title, amount, date, category, imageUrl);
+            inserted.setId(id);
+            inserted.setAnomalyScore(score);
+            for (ExpenseChangeListener listener : changeListeners) {
+                listener.onExpenseInserted(inserted, write);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Inserts many expenses (such as a first download from the cloud) in one transaction.
+     * Rows go through a single compiled insert and are scored like {@link #insertExpense}; the monthly
+     * rollups, size histograms, receipt references and category statistics are written once per key
+     * at the end rather than once per row. Listeners are told after the transaction commits.
+     * @return The expenses written, with their row ids
+     */
+    public List<Expense> insertExpenses(List<Expense> expenses) {
+        SQLiteDatabase db = getWritableDatabase();
+        List<Expense> inserted = new ArrayList<>(expenses.size());
+        if (expenses.isEmpty()) return inserted;
+
+        long lastWrite;
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT INTO expenses " +
+                    "(title, amount, date, category, imageUrl, epoch_day, anomaly_score) VALUES (?, ?, ?, ?, ?, ?, ?)");
+            Map<String, AnomalyDetector.Stats> stats = new HashMap<>();
+            Map<String, double[]> rollups = new HashMap<>();    // "month|category" -> [total, count]
+            Map<String, Long> histogram = new HashMap<>();      // "month|bucket|category" -> count
+            Map<String, Integer> refs = new HashMap<>();        // Local receipt -> references added
+
+            for (Expense e : expenses) {
+                AnomalyDetector.Stats categoryStats = stats.get(e.getCategory());
+                if (categoryStats == null) {
+                    categoryStats = loadCategoryStats(db, e.getCategory());
+                    stats.put(e.getCategory(), categoryStats);
+                }
+                double score = AnomalyDetector.score(categoryStats, e.getAmount());
+                Integer epochDay = epochDayOrNull(e.getDate());
+
+                insert.clearBindings();
+                insert.bindString(1, e.getTitle());
+                insert.bindDouble(2, e.getAmount());
+                insert.bindString(3, e.getDate());
+                insert.bindString(4, e.getCategory());
+                if (e.getImageUrl() == null) insert.bindNull(5); else insert.bindString(5, e.getImageUrl());
+                if (epochDay == null) insert.bindNull(6); else insert.bindLong(6, epochDay);
+                insert.bindDouble(7, score);
+                long id = insert.executeInsert();
+                if (id == -1) continue;
 
-        // Execute the insert operation
-        db.insert("expenses", null, values);
-        db.close();
+                AnomalyDetector.update(categoryStats, e.getAmount());
+                if (epochDay != null) {
+                    int monthKey = ExpenseDates.monthKey(epochDay);
+                    String rollupKey = monthKey + "|" + e.getCategory();
+                    double[] rollup = rollups.get(rollupKey);
+                    if (rollup == null) rollups.put(rollupKey, rollup = new double[2]);
+                    rollup[0] += e.getAmount();
+                    rollup[1]++;
+
+                    String bucketKey = monthKey + "|" + QuantileSketch.bucketOf(e.getAmount()) + "|" + e.getCategory();
+                    Long count = histogram.get(bucketKey);
+                    histogram.put(bucketKey, count == null ? 1 : count + 1);
+                }
+                if (ReceiptUploadQueue.isLocalReceipt(e.getImageUrl())) {
+                    Integer count = refs.get(e.getImageUrl());
+                    refs.put(e.getImageUrl(), count == null ? 1 : count + 1);
+                }
+
+                Expense stored = new Expense(e.getTitle(), e.getAmount(), e.getDate(), e.getCategory(), e.getImageUrl());
+                stored.setId(id);
+                stored.setAnomalyScore(score);
+                inserted.add(stored);
+            }
+            insert.close();
+
+            for (Map.Entry<String, double[]> entry : rollups.entrySet()) {
+                int split = entry.getKey().indexOf('|');
+                addToRollup(db, Integer.parseInt(entry.getKey().substring(0, split)), entry.getKey().substring(split + 1),
+                        entry.getValue()[0], (long) entry.getValue()[1]);
+            }
+            for (Map.Entry<String, Long> entry : histogram.entrySet()) {
+                String[] parts = entry.getKey().split("\\|", 3);
+                addToHistogram(db, Integer.parseInt(parts[0]), parts[2], Integer.parseInt(parts[1]), entry.getValue());
+            }
+            for (Map.Entry<String, Integer> entry : refs.entrySet()) {
+                adjustReceiptRef(db, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, AnomalyDetector.Stats> entry : stats.entrySet()) {
+                saveCategoryStats(db, entry.getKey(), entry.getValue());
+            }
+            lastWrite = writeCountOf(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long write = lastWrite - inserted.size();
+        for (Expense expense : inserted) {
+            write++;
+            for (ExpenseChangeListener listener : changeListeners) {
+                listener.onExpenseInserted(expense, write);
+            }
+        }
+        return inserted;
     }
 
     /**
-     * Deletes an expense by matching all fields except the ID.
-     * Useful when unique ID isn't tracked externally.
+     * Deletes an expense by its row id, or by matching all fields when the ID isn't known.
      */
     public void deleteExpense(Expense e) {
         SQLiteDatabase db = getWritableDatabase();
-        db.delete("expenses", "title=? AND amount=? AND date=? AND category=?",
-                new String[]{e.getTitle(), String.valueOf(e.getAmount()), e.getDate(), e.getCategory()});
-        db.close();
+        int deleted;
+        long lastWrite;
+        db.beginTransaction();
+        try {
+            deleted = deleteRow(db, e);
+            adjustRollup(db, e.getDate(), e.getCategory(), e.getAmount(), -deleted);
+            lastWrite = writeCountOf(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Identical rows are deleted together, so report each one
+        for (int i = 0; i < deleted; i++) {
+            long write = lastWrite - deleted + 1 + i;
+            for (ExpenseChangeListener listener : changeListeners) {
+                listener.onExpenseDeleted(e, write);
+            }
+        }
     }
 
     /**
@@ -96,6 +696,29 @@ public class ExpenseDatabase extends SQLiteOpenHelper {
      */
     public void updateExpense(String oldTitle, double oldAmount, String oldDate, String oldCategory,
                               String newTitle, double newAmount, String newDate, String newCategory, @Nullable String newImageUrl) {
+        updateExpense(oldTitle, oldAmount, oldDate, oldCategory, newTitle, newAmount, newDate, newCategory, newImageUrl,
+                null, null);
+    }
+
+    /**
+     * Updates an expense like {@link #updateExpense(String, double, String, String, String, double, String, String, String)}
+     * and adds its {@link ExpenseWriteQueue} outbox entry in the same transaction.
+     * @param imageUri Picked image whose receipt is still to be attached, or null
+     * @return The outbox entry, or null if no row matched the old expense
+     */
+    @Nullable
+    public ExpenseWriteQueue.Entry updateExpenseForSync(Expense oldExpense, Expense newExpense, @Nullable String imageUri) {
+        List<ExpenseWriteQueue.Entry> outbox = new ArrayList<>(1);
+        updateExpense(oldExpense.getTitle(), oldExpense.getAmount(), oldExpense.getDate(), oldExpense.getCategory(),
+                newExpense.getTitle(), newExpense.getAmount(), newExpense.getDate(), newExpense.getCategory(),
+                newExpense.getImageUrl(), imageUri, outbox);
+        return outbox.isEmpty() ? null : outbox.get(0);
+    }
+
+    // When outbox is non-null, an outbox entry is written in the same transaction and added to it
+    private void updateExpense(String oldTitle, double oldAmount, String oldDate, String oldCategory,
+                               String newTitle, double newAmount, String newDate, String newCategory, @Nullable String newImageUrl,
+                               @Nullable String imageUri, @Nullable List<ExpenseWriteQueue.Entry> outbox) {
 
         SQLiteDatabase db = this.getWritableDatabase();
 
@@ -106,12 +729,223 @@ public class ExpenseDatabase extends SQLiteOpenHelper {
         values.put("date", newDate);
         values.put("category", newCategory);
         values.put("imageUrl", newImageUrl);
+        values.put("epoch_day", epochDayOrNull(newDate));
 
-        // Update record where all old fields match
-        db.update("expenses", values,
-                "title=? AND amount=? AND date=? AND category=?",
-                new String[]{oldTitle, String.valueOf(oldAmount), oldDate, oldCategory});
-        db.close();
+        // Update record where all old fields match, moving its amount between rollups.
+        // The edited amount is re-scored, but the running statistics are left as they are.
+        int updated;
+        double score;
+        long lastWrite;
+        db.beginTransaction();
+        try {
+            score = AnomalyDetector.score(loadCategoryStats(db, newCategory), newAmount);
+            values.put("anomaly_score", score);
+
+            String where = "title=? AND amount=? AND date=? AND category=?";
+            String[] whereArgs = {oldTitle, String.valueOf(oldAmount), oldDate, oldCategory};
+            List<String> oldImages = imagesOf(db, where, whereArgs);
+            long firstId = outbox != null ? firstIdOf(db, where, whereArgs) : Expense.NO_ID;
+
+            updated = db.update("expenses", values, where, whereArgs);
+            adjustRollup(db, oldDate, oldCategory, oldAmount, -updated);
+            adjustRollup(db, newDate, newCategory, newAmount, updated);
+            for (String oldImage : oldImages) adjustReceiptRef(db, oldImage, -1);
+            adjustReceiptRef(db, newImageUrl, updated);
+            if (updated > 0) dropStaleReceiptUploads(db, oldTitle, oldAmount, oldDate);
+
+            // Identical rows share one cloud document, so one entry covers them
+            if (updated > 0 && firstId != Expense.NO_ID) {
+                outbox.add(addOutboxEntry(db, firstId, new Expense(oldTitle, oldAmount, oldDate, oldCategory, null), imageUri));
+            }
+            lastWrite = writeCountOf(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (updated > 0) {
+            // The old image isn't known here; listeners only rely on the identifying fields
+            Expense oldExpense = new Expense(oldTitle, oldAmount, oldDate, oldCategory, null);
+            Expense newExpense = new Expense(newTitle, newAmount, newDate, newCategory, newImageUrl);
+            newExpense.setAnomalyScore(score);
+            for (int i = 0; i < updated; i++) {
+                long write = lastWrite - updated + 1 + i;
+                for (ExpenseChangeListener listener : changeListeners) {
+                    listener.onExpenseUpdated(oldExpense, newExpense, write);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes several expenses in one transaction, so the rows and rollups change together
+     * and the database is only synced to disk once.
+     * @param progress Optional listener, called on this thread as rows are deleted
+     * @return Number of rows deleted
+     */
+    public int deleteExpenses(List<Expense> expenses, @Nullable BatchProgressListener progress) {
+        SQLiteDatabase db = getWritableDatabase();
+        List<Expense> deleted = new ArrayList<>();
+        long lastWrite;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < expenses.size(); i++) {
+                Expense e = expenses.get(i);
+                int rows = deleteRow(db, e);
+                adjustRollup(db, e.getDate(), e.getCategory(), e.getAmount(), -rows);
+                for (int r = 0; r < rows; r++) deleted.add(e);
+                reportProgress(progress, i + 1, expenses.size());
+            }
+            lastWrite = writeCountOf(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long write = lastWrite - deleted.size();
+        for (Expense e : deleted) {
+            write++;
+            for (ExpenseChangeListener listener : changeListeners) {
+                listener.onExpenseDeleted(e, write);
+            }
+        }
+        return deleted.size();
+    }
+
+    /**
+     * Replaces several expenses in one transaction. Each old expense is matched by its row id
+     * (or its fields when the id isn't known) and overwritten with the new expense at the same index;
+     * the new expenses take over the old row ids and are re-scored like {@link #updateExpense}.
+     * @param progress Optional listener, called on this thread as rows are updated
+     * @return Number of rows updated
+     */
+    public int updateExpenses(List<Expense> oldExpenses, List<Expense> newExpenses,
+                              @Nullable BatchProgressListener progress) {
+        SQLiteDatabase db = getWritableDatabase();
+        List<Expense[]> updated = new ArrayList<>();
+        Map<String, AnomalyDetector.Stats> stats = new HashMap<>();
+
+        long lastWrite;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < oldExpenses.size(); i++) {
+                Expense oldExpense = oldExpenses.get(i);
+                Expense newExpense = newExpenses.get(i);
+
+                AnomalyDetector.Stats categoryStats = stats.get(newExpense.getCategory());
+                if (categoryStats == null) {
+                    categoryStats = loadCategoryStats(db, newExpense.getCategory());
+                    stats.put(newExpense.getCategory(), categoryStats);
+                }
+                double score = AnomalyDetector.score(categoryStats, newExpense.getAmount());
+
+                ContentValues values = new ContentValues();
+                values.put("title", newExpense.getTitle());
+                values.put("amount", newExpense.getAmount());
+                values.put("date", newExpense.getDate());
+                values.put("category", newExpense.getCategory());
+                values.put("imageUrl", newExpense.getImageUrl());
+                values.put("epoch_day", epochDayOrNull(newExpense.getDate()));
+                values.put("anomaly_score", score);
+
+                String where = whereRow(oldExpense);
+                String[] whereArgs = whereRowArgs(oldExpense);
+                List<String> oldImages = imagesOf(db, where, whereArgs);
+
+                int rows = db.update("expenses", values, where, whereArgs);
+                adjustRollup(db, oldExpense.getDate(), oldExpense.getCategory(), oldExpense.getAmount(), -rows);
+                adjustRollup(db, newExpense.getDate(), newExpense.getCategory(), newExpense.getAmount(), rows);
+                for (String oldImage : oldImages) adjustReceiptRef(db, oldImage, -1);
+                adjustReceiptRef(db, newExpense.getImageUrl(), rows);
+                if (rows > 0) dropStaleReceiptUploads(db, oldExpense.getTitle(), oldExpense.getAmount(), oldExpense.getDate());
+
+                newExpense.setId(oldExpense.getId());
+                newExpense.setAnomalyScore(score);
+                for (int r = 0; r < rows; r++) updated.add(new Expense[]{oldExpense, newExpense});
+                reportProgress(progress, i + 1, oldExpenses.size());
+            }
+            lastWrite = writeCountOf(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long write = lastWrite - updated.size();
+        for (Expense[] pair : updated) {
+            write++;
+            for (ExpenseChangeListener listener : changeListeners) {
+                listener.onExpenseUpdated(pair[0], pair[1], write);
+            }
+        }
+        return updated.size();
+    }
+
+    // Deletes one expense's row by id, or every row with its fields when the id isn't known,
+    // releasing their receipts
+    private static int deleteRow(SQLiteDatabase db, Expense e) {
+        String where = whereRow(e);
+        String[] whereArgs = whereRowArgs(e);
+        List<String> images = imagesOf(db, where, whereArgs);
+
+        List<Expense> keys = cloudKeysOf(db, where, whereArgs);
+
+        // A save still in the outbox must not push the deleted expense back to the cloud
+        db.execSQL("DELETE FROM sync_outbox WHERE expense_id IN (SELECT id FROM expenses WHERE " + where + ")", whereArgs);
+
+        int deleted = db.delete("expenses", where, whereArgs);
+        for (String image : images) adjustReceiptRef(db, image, -1);
+        for (Expense key : keys) dropStaleReceiptUploads(db, key.getTitle(), key.getAmount(), key.getDate());
+        return deleted;
+    }
+
+    // Distinct (title, amount, date) of the matching rows: the fields their cloud document id is made from
+    private static List<Expense> cloudKeysOf(SQLiteDatabase db, String where, String[] args) {
+        List<Expense> keys = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT DISTINCT title, amount, date FROM expenses WHERE " + where, args);
+        if (cursor.moveToFirst()) {
+            do {
+                keys.add(new Expense(cursor.getString(0), cursor.getDouble(1), cursor.getString(2), "", null));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return keys;
+    }
+
+    /**
+     * Drops the queued receipt upload of a cloud document once no remaining row with its identifying
+     * fields has that receipt, so the upload never links a receipt into a deleted or re-keyed document
+     * (which would recreate it as a stub). Must run inside the transaction that deletes or edits the rows.
+     */
+    private static void dropStaleReceiptUploads(SQLiteDatabase db, String title, double amount, String date) {
+        String docId = FirebaseSyncHelper.generateDocId(new Expense(title, amount, date, "", null));
+        db.execSQL("DELETE FROM receipt_upload_queue WHERE doc_id = ? AND local_path NOT IN " +
+                        "(SELECT imageUrl FROM expenses WHERE title = ? AND amount = ? AND date = ? AND imageUrl IS NOT NULL)",
+                new Object[]{docId, title, amount, date});
+    }
+
+    // Row id of the first row matching a where clause, or Expense.NO_ID if none does
+    private static long firstIdOf(SQLiteDatabase db, String where, String[] args) {
+        Cursor cursor = db.rawQuery("SELECT id FROM expenses WHERE " + where + " ORDER BY id LIMIT 1", args);
+        long id = cursor.moveToFirst() ? cursor.getLong(0) : Expense.NO_ID;
+        cursor.close();
+        return id;
+    }
+
+    // Matches an expense's row by id, or by its fields when the id isn't known
+    private static String whereRow(Expense e) {
+        return e.getId() != Expense.NO_ID ? "id=?" : "title=? AND amount=? AND date=? AND category=?";
+    }
+
+    private static String[] whereRowArgs(Expense e) {
+        if (e.getId() != Expense.NO_ID) return new String[]{String.valueOf(e.getId())};
+        return new String[]{e.getTitle(), String.valueOf(e.getAmount()), e.getDate(), e.getCategory()};
+    }
+
+    // Reports batch progress every PROGRESS_STEP rows and at the end
+    private static void reportProgress(@Nullable BatchProgressListener progress, int done, int total) {
+        if (progress != null && (done % PROGRESS_STEP == 0 || done == total)) {
+            progress.onProgress(done, total);
+        }
     }
 
     /**
@@ -134,12 +968,618 @@ public class ExpenseDatabase extends SQLiteOpenHelper {
                 String category = cursor.getString(cursor.getColumnIndexOrThrow("category"));
                 String imageUrl = cursor.getString(cursor.getColumnIndexOrThrow("imageUrl"));
 
-                list.add(new Expense(title, amount, date, category, imageUrl));
+                Expense expense = new Expense(title, amount, date, category, imageUrl);
+                expense.setId(cursor.getLong(cursor.getColumnIndexOrThrow("id")));
+                expense.setAnomalyScore(cursor.getDouble(cursor.getColumnIndexOrThrow("anomaly_score")));
+                list.add(expense);
             } while (cursor.moveToNext());
         }
 
         cursor.close();
-        db.close();
         return list;
     }
+
+    /**
+     * Retrieves one expense by its row id.
+     * @return The expense, or null if no row has that id
+     */
+    @Nullable
+    public Expense getExpense(long id) {
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT title, amount, date, category, imageUrl, anomaly_score FROM expenses WHERE id = ?",
+                new String[]{String.valueOf(id)});
+
+        Expense expense = null;
+        if (cursor.moveToFirst()) {
+            expense = new Expense(cursor.getString(0), cursor.getDouble(1), cursor.getString(2),
+                    cursor.getString(3), cursor.getString(4));
+            expense.setAnomalyScore(cursor.getDouble(5));
+            expense.setId(id);
+        }
+        cursor.close();
+        return expense;
+    }
+
+    /**
+     * Returns how many expense writes have been committed since the counter was created, counting each row
+     * inserted, deleted or changed in its title, amount, date or category.
+     */
+    public long getWriteCount() {
+        return writeCountOf(getReadableDatabase());
+    }
+
+    private static long writeCountOf(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT count FROM expense_writes WHERE id = 0", null);
+        long count = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Runs a read and takes the write count in one transaction, so the count covers exactly the writes
+     * the read saw: a change reported with a higher write number is missing from the value, any other is in it.
+     * The transaction keeps writers waiting until the read is done.
+     */
+    public <T> Snapshot<T> snapshot(SnapshotReader<T> reader) {
+        SQLiteDatabase db = getWritableDatabase();
+        // Reads on this thread use the transaction's connection
+        db.beginTransactionNonExclusive();
+        try {
+            T value = reader.read(this);
+            long count = writeCountOf(db);
+            db.setTransactionSuccessful();
+            return new Snapshot<>(value, count);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Retrieves expenses whose date falls between two epoch days (inclusive) using the day index.
+     * @param fromDay First epoch day
+     * @param toDay Last epoch day
+     * @return List of Expense objects, newest first
+     */
+    public List<Expense> getExpensesBetween(int fromDay, int toDay) {
+        List<Expense> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        Cursor cursor = db.rawQuery("SELECT title, amount, date, category, imageUrl, anomaly_score, id FROM expenses " +
+                        "WHERE epoch_day BETWEEN ? AND ? ORDER BY epoch_day DESC",
+                new String[]{String.valueOf(fromDay), String.valueOf(toDay)});
+
+        if (cursor.moveToFirst()) {
+            do {
+                Expense expense = new Expense(cursor.getString(0), cursor.getDouble(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4));
+                expense.setAnomalyScore(cursor.getDouble(5));
+                expense.setId(cursor.getLong(6));
+                list.add(expense);
+            } while (cursor.moveToNext());
+        }
+
+        cursor.close();
+        return list;
+    }
+
+    /**
+     * Sums the amounts of expenses between two epoch days (inclusive) without loading the rows.
+     */
+    public double getTotalBetween(int fromDay, int toDay) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT COALESCE(SUM(amount), 0) FROM expenses WHERE epoch_day BETWEEN ? AND ?",
+                new String[]{String.valueOf(fromDay), String.valueOf(toDay)});
+
+        double total = cursor.moveToFirst() ? cursor.getDouble(0) : 0;
+        cursor.close();
+        return total;
+    }
+
+    /**
+     * Returns the total spent on each day between two epoch days (inclusive); days without expenses are absent.
+     */
+    public Map<Integer, Double> getDailyTotals(int fromDay, int toDay) {
+        Map<Integer, Double> totals = new HashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT epoch_day, SUM(amount) FROM expenses " +
+                        "WHERE epoch_day BETWEEN ? AND ? GROUP BY epoch_day",
+                new String[]{String.valueOf(fromDay), String.valueOf(toDay)});
+
+        if (cursor.moveToFirst()) {
+            do {
+                totals.put(cursor.getInt(0), cursor.getDouble(1));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return totals;
+    }
+
+    /**
+     * Returns each category's total for one month from the rollup table (one row per category).
+     * @param monthKey Month key as produced by {@link ExpenseDates#monthKey(int)}
+     */
+    public Map<String, Double> getCategoryTotalsForMonth(int monthKey) {
+        Map<String, Double> totals = new HashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT category, total FROM monthly_rollups WHERE month_key = ? AND count > 0",
+                new String[]{String.valueOf(monthKey)});
+
+        if (cursor.moveToFirst()) {
+            do {
+                totals.put(cursor.getString(0), cursor.getDouble(1));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return totals;
+    }
+
+    /**
+     * Returns each month's category totals for a range of months (inclusive) from the rollup table.
+     * Cost depends on the number of months and categories asked for, not on how many expenses exist.
+     * @return month key -> category -> total; months without expenses are absent
+     */
+    public Map<Integer, Map<String, Double>> getCategoryTotalsForMonths(int fromMonth, int toMonth) {
+        Map<Integer, Map<String, Double>> months = new HashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT month_key, category, total FROM monthly_rollups " +
+                        "WHERE month_key BETWEEN ? AND ? AND count > 0",
+                new String[]{String.valueOf(fromMonth), String.valueOf(toMonth)});
+
+        if (cursor.moveToFirst()) {
+            do {
+                Map<String, Double> totals = months.get(cursor.getInt(0));
+                if (totals == null) months.put(cursor.getInt(0), totals = new HashMap<>());
+                totals.put(cursor.getString(1), cursor.getDouble(2));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return months;
+    }
+
+    /**
+     * Returns the total spent per day and category over all expenses with a valid date,
+     * oldest first. Used to build the analytics time-series index in a single pass.
+     */
+    public List<DailyTotal> getDailyCategoryTotals() {
+        List<DailyTotal> totals = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT epoch_day, category, SUM(amount) FROM expenses " +
+                "WHERE epoch_day IS NOT NULL GROUP BY epoch_day, category ORDER BY epoch_day", null);
+
+        if (cursor.moveToFirst()) {
+            do {
+                totals.add(new DailyTotal(cursor.getInt(0), cursor.getString(1), cursor.getDouble(2)));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return totals;
+    }
+
+    /**
+     * Returns every stored histogram bucket, used to load the quantile sketches without reading expenses.
+     */
+    public List<HistogramBucket> getSpendHistogram() {
+        List<HistogramBucket> buckets = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT month_key, category, bucket, count FROM spend_histogram", null);
+
+        if (cursor.moveToFirst()) {
+            do {
+                buckets.add(new HistogramBucket(cursor.getInt(0), cursor.getString(1), cursor.getInt(2), cursor.getLong(3)));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return buckets;
+    }
+
+    // ---- Recurring expenses ----
+
+    /**
+     * Stores a recurring expense template. Nothing is written to the expenses table until
+     * {@link #materializeRecurring(int)} runs.
+     * @return Id of the new rule, or -1 if it couldn't be stored
+     */
+    public long insertRecurringRule(RecurringRule rule) {
+        ContentValues values = new ContentValues();
+        values.put("title", rule.getTitle());
+        values.put("amount", rule.getAmount());
+        values.put("category", rule.getCategory());
+        values.put("start_day", rule.getStartDay());
+        values.put("unit", rule.getUnit().name());
+        values.put("repeat_every", rule.getEvery());
+        values.put("end_day", rule.getEndDay() == ExpenseDates.INVALID ? null : rule.getEndDay());
+        values.put("generated", rule.getGenerated());
+        values.put("next_day", nextDayOrNull(rule));
+
+        long id = getWritableDatabase().insert("recurring_rules", null, values);
+        if (id != -1) rule.setId(id);
+        return id;
+    }
+
+    /**
+     * Every recurring rule, including ones that have ended.
+     */
+    public List<RecurringRule> getRecurringRules() {
+        return queryRecurringRules(getReadableDatabase(), null, null);
+    }
+
+    // Stops a rule; the expenses it has already produced are kept
+    public void deleteRecurringRule(long id) {
+        getWritableDatabase().delete("recurring_rules", "id=?", new String[]{String.valueOf(id)});
+    }
+
+    /**
+     * Writes every occurrence of every rule due on or before {@code throughDay} as an expense, in one
+     * transaction. Rows go through a single compiled insert, and the monthly rollups and category
+     * statistics are adjusted once per month and category rather than once per occurrence.
+     * @return The expenses written, with their row ids
+     */
+    public List<Expense> materializeRecurring(int throughDay) {
+        SQLiteDatabase db = getWritableDatabase();
+        List<Expense> inserted = new ArrayList<>();
+
+        long lastWrite;
+        db.beginTransaction();
+        try {
+            List<RecurringRule> due = queryRecurringRules(db, "next_day IS NOT NULL AND next_day <= ?",
+                    new String[]{String.valueOf(throughDay)});
+            if (due.isEmpty()) {
+                db.setTransactionSuccessful();
+                return inserted;
+            }
+
+            SQLiteStatement insert = db.compileStatement("INSERT INTO expenses " +
+                    "(title, amount, date, category, imageUrl, epoch_day, anomaly_score) VALUES (?, ?, ?, ?, NULL, ?, ?)");
+            Map<String, AnomalyDetector.Stats> stats = new HashMap<>();
+            for (RecurringRule rule : due) {
+                AnomalyDetector.Stats categoryStats = stats.get(rule.getCategory());
+                if (categoryStats == null) {
+                    categoryStats = loadCategoryStats(db, rule.getCategory());
+                    stats.put(rule.getCategory(), categoryStats);
+                }
+
+                // Occurrences per month, so each month's rollup is adjusted once
+                Map<Integer, Integer> monthCounts = new HashMap<>();
+                Map<Integer, String> monthDates = new HashMap<>();
+                int generated = rule.getGenerated();
+                for (int day = rule.occurrence(generated); day != ExpenseDates.INVALID && day <= throughDay;
+                     day = rule.occurrence(++generated)) {
+                    String date = ExpenseDates.format(day);
+                    double score = AnomalyDetector.score(categoryStats, rule.getAmount());
+
+                    insert.clearBindings();
+                    insert.bindString(1, rule.getTitle());
+                    insert.bindDouble(2, rule.getAmount());
+                    insert.bindString(3, date);
+                    insert.bindString(4, rule.getCategory());
+                    insert.bindLong(5, day);
+                    insert.bindDouble(6, score);
+                    long id = insert.executeInsert();
+                    if (id == -1) continue;
+
+                    AnomalyDetector.update(categoryStats, rule.getAmount());
+                    int monthKey = ExpenseDates.monthKey(day);
+                    Integer count = monthCounts.get(monthKey);
+                    monthCounts.put(monthKey, count == null ? 1 : count + 1);
+                    monthDates.put(monthKey, date);
+
+                    Expense expense = new Expense(rule.getTitle(), rule.getAmount(), date, rule.getCategory(), null);
+                    expense.setId(id);
+                    expense.setAnomalyScore(score);
+                    inserted.add(expense);
+                }
+
+                for (Map.Entry<Integer, Integer> month : monthCounts.entrySet()) {
+                    adjustRollup(db, monthDates.get(month.getKey()), rule.getCategory(), rule.getAmount(), month.getValue());
+                }
+                rule.setGenerated(generated);
+                ContentValues progress = new ContentValues();
+                progress.put("generated", generated);
+                progress.put("next_day", nextDayOrNull(rule));
+                db.update("recurring_rules", progress, "id=?", new String[]{String.valueOf(rule.getId())});
+            }
+            insert.close();
+
+            for (Map.Entry<String, AnomalyDetector.Stats> entry : stats.entrySet()) {
+                saveCategoryStats(db, entry.getKey(), entry.getValue());
+            }
+            lastWrite = writeCountOf(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long write = lastWrite - inserted.size();
+        for (Expense expense : inserted) {
+            write++;
+            for (ExpenseChangeListener listener : changeListeners) {
+                listener.onExpenseInserted(expense, write);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Total of the recurring occurrences not written yet that fall on each day between two epoch days
+     * (inclusive), computed from the rules without materializing anything. Days without one are absent.
+     */
+    public Map<Integer, Double> getScheduledRecurringTotals(int fromDay, int toDay) {
+        Map<Integer, Double> totals = new HashMap<>();
+        List<RecurringRule> rules = queryRecurringRules(getReadableDatabase(),
+                "next_day IS NOT NULL AND next_day <= ?", new String[]{String.valueOf(toDay)});
+        for (RecurringRule rule : rules) {
+            int index = rule.getGenerated();
+            for (int day = rule.occurrence(index); day != ExpenseDates.INVALID && day <= toDay; day = rule.occurrence(++index)) {
+                if (day < fromDay) continue;
+                Double total = totals.get(day);
+                totals.put(day, (total == null ? 0 : total) + rule.getAmount());
+            }
+        }
+        return totals;
+    }
+
+    private static List<RecurringRule> queryRecurringRules(SQLiteDatabase db, @Nullable String where, @Nullable String[] args) {
+        List<RecurringRule> rules = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT id, title, amount, category, start_day, unit, repeat_every, end_day, generated " +
+                "FROM recurring_rules" + (where == null ? "" : " WHERE " + where) + " ORDER BY id", args);
+        if (cursor.moveToFirst()) {
+            do {
+                RecurringRule rule = new RecurringRule(cursor.getString(1), cursor.getDouble(2), cursor.getString(3),
+                        cursor.getInt(4), RecurringRule.Unit.valueOf(cursor.getString(5)), cursor.getInt(6),
+                        cursor.isNull(7) ? ExpenseDates.INVALID : cursor.getInt(7));
+                rule.setId(cursor.getLong(0));
+                rule.setGenerated(cursor.getInt(8));
+                rules.add(rule);
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return rules;
+    }
+
+    private static Integer nextDayOrNull(RecurringRule rule) {
+        int next = rule.nextOccurrence();
+        return next == ExpenseDates.INVALID ? null : next;
+    }
+
+    // ---- Save outbox ----
+
+    // Adds an outbox entry for a row just written; must run inside that write's transaction
+    private static ExpenseWriteQueue.Entry addOutboxEntry(SQLiteDatabase db, long expenseId, @Nullable Expense replaced,
+                                                          @Nullable String imageUri) {
+        ContentValues values = new ContentValues();
+        values.put("expense_id", expenseId);
+        if (replaced != null) {
+            values.put("old_title", replaced.getTitle());
+            values.put("old_amount", replaced.getAmount());
+            values.put("old_date", replaced.getDate());
+            values.put("old_category", replaced.getCategory());
+        }
+        values.put("image_uri", imageUri);
+        long id = db.insert("sync_outbox", null, values);
+        return new ExpenseWriteQueue.Entry(id, expenseId, replaced, imageUri);
+    }
+
+    /**
+     * Returns every outbox entry in the order the saves were made.
+     */
+    public List<ExpenseWriteQueue.Entry> getSyncOutbox() {
+        List<ExpenseWriteQueue.Entry> entries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT id, expense_id, old_title, old_amount, old_date, " +
+                "old_category, image_uri FROM sync_outbox ORDER BY id", null);
+
+        if (cursor.moveToFirst()) {
+            do {
+                Expense replaced = cursor.isNull(2) ? null : new Expense(cursor.getString(2), cursor.getDouble(3),
+                        cursor.getString(4), cursor.getString(5), null);
+                entries.add(new ExpenseWriteQueue.Entry(cursor.getLong(0), cursor.getLong(1), replaced,
+                        cursor.getString(6)));
+            } while (cursor.moveToNext());
+        }
+
+        cursor.close();
+        return entries;
+    }
+
+    // Whether an entry is still waiting; deleting its expense removes it
+    public boolean hasSyncOutboxEntry(long id) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT 1 FROM sync_outbox WHERE id = ?",
+                new String[]{String.valueOf(id)});
+        boolean found = cursor.moveToFirst();
+        cursor.close();
+        return found;
+    }
+
+    // Records that an entry's receipt has been attached (or given up on)
+    public void clearSyncOutboxImage(long id) {
+        ContentValues values = new ContentValues();
+        values.putNull("image_uri");
+        getWritableDatabase().update("sync_outbox", values, "id=?", new String[]{String.valueOf(id)});
+    }
+
+    // Removes an entry once the cloud has acknowledged its write
+    public void removeSyncOutboxEntry(long id) {
+        getWritableDatabase().delete("sync_outbox", "id=?", new String[]{String.valueOf(id)});
+    }
+
+    // ---- Receipt upload queue ----
+
+    /**
+     * Adds (or replaces) a pending receipt upload for a cloud expense document.
+     */
+    public void enqueueReceiptUpload(String docId, String userEmail, String localPath) {
+        ContentValues values = new ContentValues();
+        values.put("doc_id", docId);
+        values.put("user_email", userEmail);
+        values.put("local_path", localPath);
+        values.put("attempts", 0);
+        getWritableDatabase().insertWithOnConflict("receipt_upload_queue", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Returns every queued receipt upload in insertion order.
+     */
+    public List<ReceiptUploadQueue.Job> getPendingReceiptUploads() {
+        List<ReceiptUploadQueue.Job> jobs = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT doc_id, user_email, local_path FROM receipt_upload_queue ORDER BY rowid", null);
+
+        // Each session starts counting retries afresh
+        if (cursor.moveToFirst()) {
+            do {
+                jobs.add(new ReceiptUploadQueue.Job(cursor.getString(0), cursor.getString(1),
+                        cursor.getString(2), 0));
+            } while (cursor.moveToNext());
+        }
+
+        cursor.close();
+        return jobs;
+    }
+
+    /**
+     * Returns the queued upload for a cloud document, or null once it has been removed
+     * (completed, or dropped because its expense was deleted or edited).
+     */
+    @Nullable
+    public ReceiptUploadQueue.Job getReceiptUpload(String docId) {
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT doc_id, user_email, local_path FROM receipt_upload_queue WHERE doc_id = ?", new String[]{docId});
+        ReceiptUploadQueue.Job job = cursor.moveToFirst()
+                ? new ReceiptUploadQueue.Job(cursor.getString(0), cursor.getString(1), cursor.getString(2), 0)
+                : null;
+        cursor.close();
+        return job;
+    }
+
+    // Removes an upload from the queue once it is done or can no longer succeed
+    public void removeReceiptUpload(String docId) {
+        getWritableDatabase().delete("receipt_upload_queue", "doc_id=?", new String[]{docId});
+    }
+
+    // Returns the stored hash of a local receipt, or null if it hasn't been hashed yet
+    @Nullable
+    public String getReceiptHash(String localPath) {
+        return querySingleString("SELECT hash FROM receipts WHERE local_path=?", localPath);
+    }
+
+    // Returns the cloud URL of a local receipt, or null if it hasn't been uploaded
+    @Nullable
+    public String getReceiptRemoteUrl(String localPath) {
+        return querySingleString("SELECT remote_url FROM receipts WHERE local_path=?", localPath);
+    }
+
+    // Returns the cloud URL of a local receipt if it was uploaded under the given account
+    @Nullable
+    public String getReceiptRemoteUrl(String localPath, String ownerEmail) {
+        return querySingleString("SELECT remote_url FROM receipts WHERE local_path=? AND remote_owner=?",
+                localPath, ownerEmail);
+    }
+
+    // Returns the cloud URL of any receipt with the given content hash uploaded under the given account
+    @Nullable
+    public String getRemoteUrlForHash(String hash, String ownerEmail) {
+        return querySingleString("SELECT remote_url FROM receipts " +
+                "WHERE hash=? AND remote_owner=? AND remote_url IS NOT NULL LIMIT 1", hash, ownerEmail);
+    }
+
+    // Returns the saved resumable upload session for a local receipt
+    @Nullable
+    public String getReceiptSessionUri(String localPath) {
+        return querySingleString("SELECT session_uri FROM receipts WHERE local_path=?", localPath);
+    }
+
+    public void saveReceiptHash(String localPath, String hash) {
+        upsertReceipt(localPath, "hash", hash);
+    }
+
+    public void saveReceiptSessionUri(String localPath, @Nullable String sessionUri) {
+        upsertReceipt(localPath, "session_uri", sessionUri);
+    }
+
+    // Stores the cloud URL and the account it was uploaded under, and clears the upload session that produced it
+    public void saveReceiptRemoteUrl(String localPath, String remoteUrl, String ownerEmail) {
+        upsertReceipt(localPath, "remote_url", remoteUrl);
+        upsertReceipt(localPath, "remote_owner", ownerEmail);
+        upsertReceipt(localPath, "session_uri", null);
+    }
+
+    // Records when a receipt was last opened or stored
+    public void saveReceiptViewed(String localPath, long time) {
+        saveReceiptState(localPath, "last_viewed", time);
+    }
+
+    // Marks a receipt's original as removed from (or back on) this device
+    public void saveReceiptEvicted(String localPath, boolean evicted) {
+        saveReceiptState(localPath, "evicted", evicted ? 1 : 0);
+    }
+
+    /**
+     * Up to {@code limit} receipts whose original is still on this device and already has a cloud copy,
+     * least recently viewed first.
+     */
+    public List<String> getEvictableReceipts(int limit) {
+        List<String> paths = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT local_path FROM receipts WHERE remote_url IS NOT NULL AND evicted = 0 " +
+                        "ORDER BY last_viewed LIMIT " + limit, null);
+        if (cursor.moveToFirst()) {
+            do {
+                paths.add(cursor.getString(0));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return paths;
+    }
+
+    /**
+     * Local receipt files referenced by at least one expense.
+     */
+    public Set<String> getReferencedReceipts() {
+        Set<String> paths = new HashSet<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT local_path FROM receipt_refs WHERE refs > 0", null);
+        if (cursor.moveToFirst()) {
+            do {
+                paths.add(cursor.getString(0));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return paths;
+    }
+
+    // Forgets the hash and cloud copy of a receipt file that has been removed
+    public void deleteReceiptRecord(String localPath) {
+        getWritableDatabase().delete("receipts", "local_path=?", new String[]{localPath});
+    }
+
+    // Sets one column of a receipts row, creating the row if needed
+    private void upsertReceipt(String localPath, String column, @Nullable String value) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues key = new ContentValues();
+        key.put("local_path", localPath);
+        db.insertWithOnConflict("receipts", null, key, SQLiteDatabase.CONFLICT_IGNORE);
+
+        ContentValues values = new ContentValues();
+        values.put(column, value);
+        db.update("receipts", values, "local_path=?", new String[]{localPath});
+    }
+
+    // Sets one numeric column of a receipts row, creating the row if needed
+    private void saveReceiptState(String localPath, String column, long value) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues key = new ContentValues();
+        key.put("local_path", localPath);
+        db.insertWithOnConflict("receipts", null, key, SQLiteDatabase.CONFLICT_IGNORE);
+
+        ContentValues values = new ContentValues();
+        values.put(column, value);
+        db.update("receipts", values, "local_path=?", new String[]{localPath});
+    }
+
+    // Runs a query returning at most one string value
+    @Nullable
+    private String querySingleString(String sql, String... args) {
+        Cursor cursor = getReadableDatabase().rawQuery(sql, args);
+        String value = cursor.moveToFirst() ? cursor.getString(0) : null;
+        cursor.close();
+        return value;
+    }
 }
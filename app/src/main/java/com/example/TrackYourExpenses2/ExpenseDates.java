@@ -0,0 +1,149 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.Calendar;
+
+/**
+ * Date helpers for the app's "d/M/yyyy" expense dates.
+ * Dates are converted to epoch days (days since 1 Jan 1970) so they can be indexed and compared
+ * as integers, and to month keys (year * 12 + zero-based month) for per-month aggregates.
+ * Parsing is done by hand because SimpleDateFormat is slow and java.time needs API 26.
+ */
+public final class ExpenseDates {
+
+    // Returned by toEpochDay for strings that are not valid d/M/yyyy dates
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    private ExpenseDates() {
+    }
+
+    /**
+     * Parses a "d/M/yyyy" string into an epoch day, or {@link #INVALID} if it is malformed.
+     */
+    public static int toEpochDay(String date) {
+        if (date == null) return INVALID;
+
+        int[] parts = new int[3];
+        int part = 0;
+        int value = 0;
+        int digits = 0;
+
+        for (int i = 0; i < date.length(); i++) {
+            char c = date.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (++digits > 4) return INVALID;
+            } else if (c == '/' && digits > 0 && part < 2) {
+                parts[part++] = value;
+                value = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+        if (part != 2 || digits == 0) return INVALID;
+        parts[2] = value;
+
+        int day = parts[0], month = parts[1], year = parts[2];
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) return INVALID;
+        return epochDay(year, month, day);
+    }
+
+    /**
+     * Days since 1970-01-01 for a civil date (month 1-12).
+     */
+    public static int epochDay(int year, int month, int day) {
+        // Algorithm from Howard Hinnant's "days_from_civil"
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int mp = (month + 9) % 12;
+        int doy = (153 * mp + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * Converts an epoch day back to {year, month (1-12), day}.
+     */
+    public static int[] toCivil(int epochDay) {
+        // Inverse of epochDay ("civil_from_days")
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return new int[]{year, month, day};
+    }
+
+    // Formats an epoch day in the app's d/M/yyyy style
+    public static String format(int epochDay) {
+        int[] civil = toCivil(epochDay);
+        return civil[2] + "/" + civil[1] + "/" + civil[0];
+    }
+
+    // Month key (year * 12 + zero-based month) of an epoch day
+    public static int monthKey(int epochDay) {
+        int[] civil = toCivil(epochDay);
+        return civil[0] * 12 + (civil[1] - 1);
+    }
+
+    public static int monthKey(int year, int month) {
+        return year * 12 + (month - 1);
+    }
+
+    public static int yearOfMonthKey(int monthKey) {
+        return Math.floorDiv(monthKey, 12);
+    }
+
+    // Month (1-12) of a month key
+    public static int monthOfMonthKey(int monthKey) {
+        return Math.floorMod(monthKey, 12) + 1;
+    }
+
+    // First epoch day of a month key
+    public static int monthStart(int monthKey) {
+        return epochDay(yearOfMonthKey(monthKey), monthOfMonthKey(monthKey), 1);
+    }
+
+    // Last epoch day of a month key
+    public static int monthEnd(int monthKey) {
+        return monthStart(monthKey + 1) - 1;
+    }
+
+    public static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Day of the month (1-31) of an epoch day
+    public static int dayOfMonth(int epochDay) {
+        return toCivil(epochDay)[2];
+    }
+
+    // Day of the week of an epoch day, 0 = Monday ... 6 = Sunday
+    public static int dayOfWeek(int epochDay) {
+        return Math.floorMod(epochDay + 3, 7); // 1970-01-01 was a Thursday
+    }
+
+    /**
+     * Today's epoch day in the device's time zone.
+     */
+    public static int today() {
+        Calendar now = Calendar.getInstance();
+        return epochDay(now.get(Calendar.YEAR), now.get(Calendar.MONTH) + 1, now.get(Calendar.DAY_OF_MONTH));
+    }
+}
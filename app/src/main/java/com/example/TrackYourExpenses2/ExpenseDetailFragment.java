@@ -2,6 +2,7 @@ package com.example.TrackYourExpenses2;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.*;
@@ -12,6 +13,7 @@ import androidx.fragment.app.Fragment;
 import android.app.AlertDialog;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
 import com.google.firebase.firestore.FirebaseFirestore;
 
 /**
@@ -58,9 +60,17 @@ public class ExpenseDetailFragment extends Fragment {
             dateView.setText("Date: " + date);
             categoryView.setText("Category: " + category);
 
-            // Load image using Glide if URL is present
+            // Load image using Glide if URL is present; an evicted original comes from the cloud,
+            // with the local thumbnail shown until it arrives
             if (imageUrl != null && !imageUrl.isEmpty()) {
-                Glide.with(requireContext()).load(imageUrl).into(imageView);
+                ReceiptStore.get(requireContext()).openReceipt(imageUrl, model -> {
+                    if (!isAdded()) return;
+                    RequestBuilder<Drawable> request = Glide.with(this).load(model);
+                    if (ReceiptUploadQueue.isLocalReceipt(imageUrl)) {
+                        request = request.thumbnail(Glide.with(this).load(ReceiptStore.thumbnailFile(requireContext(), imageUrl)));
+                    }
+                    request.into(imageView);
+                });
             } else {
                 imageView.setVisibility(View.GONE); // Hide image view if no image
             }
@@ -104,7 +114,7 @@ public class ExpenseDetailFragment extends Fragment {
      */
     private void deleteExpense() {
         // Delete from local database
-        ExpenseDatabase db = new ExpenseDatabase(requireContext());
+        ExpenseDatabase db = ExpenseDatabase.get(requireContext());
         db.deleteExpense(new Expense(title, amount, date, category, imageUrl));
 
         // Delete from Firebase Firestore
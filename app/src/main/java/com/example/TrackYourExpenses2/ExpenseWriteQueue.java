@@ -0,0 +1,269 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves expenses from the add/edit form so the form can close as soon as Save is tapped.
+ * A save is returned at once for the screens to show optimistically, and is written first thing on a
+ * thread that does nothing but local writes: the expense row and an entry in the database's outbox are
+ * written together, so the save is durable from then on without the main thread waiting for the database
+ * (which may be busy with a bulk pull). The rest runs in order on a second thread: the receipt is ingested
+ * (or an ingestion already running for it is awaited) and attached to the row, then the expense's cloud
+ * document is written and the entry is removed once the cloud acknowledges it. Entries left over by a
+ * process that was killed, or whose cloud write failed, are replayed by {@link #resume()} on the next start.
+ * Deleting an expense removes its entry, so a deleted expense is never pushed back to the cloud.
+ */
+public class ExpenseWriteQueue {
+
+    private static final String TAG = "ExpenseWriteQueue";
+
+    // Told on the main thread once a save's receipt is attached and its cloud write is sent,
+    // or once it has failed to be written locally
+    public interface OnWriteCompleteListener {
+        void onWriteComplete(PendingWrite write);
+    }
+
+    /**
+     * A save handed to the queue.
+     */
+    public static final class PendingWrite {
+        @Nullable public final Expense replaced;    // Expense being edited, or null for a new one
+        public final Expense expense;               // Expense as entered, without a row id
+        private volatile Expense stored;            // Expense as written locally, with its row id
+        private volatile Expense written;           // Expense as finally stored, with its receipt
+
+        PendingWrite(@Nullable Expense replaced, Expense expense) {
+            this.replaced = replaced;
+            this.expense = expense;
+        }
+
+        // The locally written expense with its row id, or null until it has been written
+        @Nullable
+        public Expense getStored() {
+            return stored;
+        }
+
+        public boolean isWritten() {
+            return written != null;
+        }
+
+        // The stored expense with its receipt path, or null until the queue has finished with it
+        // (or if it couldn't be written, or was deleted meanwhile)
+        @Nullable
+        public Expense getWritten() {
+            return written;
+        }
+    }
+
+    /**
+     * One outbox entry, as stored by {@link ExpenseDatabase}.
+     */
+    public static class Entry {
+        final long id;
+        final long expenseId;
+        @Nullable final Expense replaced;           // Identifying fields before an edit
+        @Nullable final String imageUri;            // Picked image still to attach
+
+        public Entry(long id, long expenseId, @Nullable Expense replaced, @Nullable String imageUri) {
+            this.id = id;
+            this.expenseId = expenseId;
+            this.replaced = replaced;
+            this.imageUri = imageUri;
+        }
+    }
+
+    private static ExpenseWriteQueue instance;
+
+    private final Context context;
+    private final ExpenseDatabase db;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();   // Local writes only
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(); // Receipts and cloud
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final List<OnWriteCompleteListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Saves not yet written locally, oldest first
+    private final List<PendingWrite> unstored = new CopyOnWriteArrayList<>();
+
+    // Outbox entries handed to the executor and not finished yet, so a replay doesn't run them twice.
+    // Entries are claimed on the writer, which both writes them and scans the outbox for resume().
+    private final Set<Long> running = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    public static synchronized ExpenseWriteQueue get(Context context) {
+        if (instance == null) {
+            instance = new ExpenseWriteQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ExpenseWriteQueue(Context context) {
+        this.context = context;
+        this.db = ExpenseDatabase.get(context);
+    }
+
+    public void addListener(OnWriteCompleteListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(OnWriteCompleteListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues a new expense: it and its outbox entry are written on the writer, then the rest of the save follows.
+     * @param image Picked image still to be stored as the receipt, or null if the expense already has its path
+     * @return The queued save, to show until it completes
+     */
+    public PendingWrite insert(Expense expense, @Nullable Uri image) {
+        PendingWrite write = new PendingWrite(null, expense);
+        String imageUri = image == null ? null : image.toString();
+        unstored.add(write);
+        writer.execute(() -> store(write, db.insertExpenseForSync(expense, imageUri)));
+        return write;
+    }
+
+    /**
+     * Queues an edit of an existing expense: it and its outbox entry are written on the writer,
+     * then the rest of the save follows.
+     * @param image Picked image still to be stored as the receipt, or null if the expense already has its path
+     * @return The queued save, to show until it completes
+     */
+    public PendingWrite update(Expense oldExpense, Expense newExpense, @Nullable Uri image) {
+        PendingWrite write = new PendingWrite(oldExpense, newExpense);
+        String imageUri = image == null ? null : image.toString();
+        unstored.add(write);
+        writer.execute(() -> store(write, db.updateExpenseForSync(oldExpense, newExpense, imageUri)));
+        return write;
+    }
+
+    /**
+     * Saves not yet written locally, oldest first. A screen reading the database should take this
+     * before its read, and skip saves that have been stored meanwhile and are in what it read.
+     */
+    public List<PendingWrite> getUnstored() {
+        return new ArrayList<>(unstored);
+    }
+
+    /**
+     * Replays every outbox entry not already running: saves interrupted by the process being killed,
+     * and cloud writes that failed. Safe to call more than once.
+     */
+    public void resume() {
+        writer.execute(() -> {
+            for (Entry entry : db.getSyncOutbox()) {
+                if (running.add(entry.id)) executor.execute(() -> process(entry, null));
+            }
+        });
+    }
+
+    // Runs on the writer once the row and its outbox entry are committed (or have failed), and claims
+    // the entry before resume() can see it, since that also scans the outbox on the writer
+    private void store(PendingWrite write, @Nullable Entry entry) {
+        if (entry == null) {
+            Log.e(TAG, "Could not save " + write.expense.getTitle());
+            unstored.remove(write);
+            mainHandler.post(() -> Toast.makeText(context, write.replaced == null
+                    ? "Failed to save expense" : "Failed to update expense", Toast.LENGTH_SHORT).show());
+            complete(write);
+            return;
+        }
+
+        write.stored = copyOf(write.expense, entry.expenseId);
+        unstored.remove(write);
+        if (running.add(entry.id)) executor.execute(() -> process(entry, write));
+    }
+
+    // Runs on the executor: receipt, then cloud
+    private void process(Entry entry, @Nullable PendingWrite write) {
+        if (entry.imageUri != null) attachReceipt(entry);
+
+        // Read the row back, so edits made meanwhile are pushed too; a deleted expense is dropped
+        Expense stored = db.hasSyncOutboxEntry(entry.id) ? db.getExpense(entry.expenseId) : null;
+        if (stored == null) {
+            running.remove(entry.id);
+            if (write != null) complete(write);
+            return;
+        }
+
+        FirebaseSyncHelper syncHelper = new FirebaseSyncHelper(context);
+        SyncBackend.Callback<Void> acknowledged = new SyncBackend.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                executor.execute(() -> {
+                    db.removeSyncOutboxEntry(entry.id);
+                    running.remove(entry.id);
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                // Kept in the outbox for the next resume()
+                Log.e(TAG, "Cloud write failed for " + stored.getTitle(), e);
+                running.remove(entry.id);
+            }
+        };
+        if (entry.replaced == null) {
+            syncHelper.uploadExpense(stored, acknowledged);
+        } else {
+            syncHelper.updateExpenseInFirebase(entry.replaced, stored, acknowledged);
+        }
+
+        if (write != null) {
+            write.written = stored;
+            complete(write);
+        }
+    }
+
+    // Stores the picked image as the row's receipt; the expense keeps no receipt if that fails
+    private void attachReceipt(Entry entry) {
+        String imagePath = null;
+        try {
+            imagePath = ReceiptIngestor.get(context).awaitIngested(Uri.parse(entry.imageUri));
+        } catch (IOException | SecurityException e) {
+            // A replayed entry may have lost access to the picked image
+            Log.e(TAG, "Receipt could not be stored for outbox entry " + entry.id, e);
+            mainHandler.post(() -> Toast.makeText(context, "Failed to save image locally", Toast.LENGTH_SHORT).show());
+        }
+
+        Expense stored = db.getExpense(entry.expenseId);
+        if (imagePath != null && stored != null && db.hasSyncOutboxEntry(entry.id)) {
+            Expense withReceipt = new Expense(stored.getTitle(), stored.getAmount(), stored.getDate(),
+                    stored.getCategory(), imagePath);
+            db.updateExpenses(Collections.singletonList(stored), Collections.singletonList(withReceipt), null);
+        }
+        db.clearSyncOutboxImage(entry.id);
+    }
+
+    // The expense as stored under the given row id
+    private static Expense copyOf(Expense expense, long id) {
+        Expense stored = new Expense(expense.getTitle(), expense.getAmount(), expense.getDate(),
+                expense.getCategory(), expense.getImageUrl());
+        stored.setId(id);
+        return stored;
+    }
+
+    private void complete(PendingWrite write) {
+        mainHandler.post(() -> {
+            for (OnWriteCompleteListener listener : listeners) {
+                listener.onWriteComplete(write);
+            }
+        });
+    }
+}
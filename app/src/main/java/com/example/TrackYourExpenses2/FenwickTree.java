@@ -0,0 +1,58 @@
+package com.example.TrackYourExpenses2;
+
+/**
+ * Binary indexed (Fenwick) tree of doubles.
+ * Supports adding to a single slot and summing any range of slots, both in O(log n).
+ * Slots are zero-based; {@link SpendingIndex} uses one slot per day.
+ */
+final class FenwickTree {
+
+    private final double[] tree;    // 1-based internally
+
+    FenwickTree(int size) {
+        tree = new double[size + 1];
+    }
+
+    /**
+     * Builds a tree holding the given per-slot values in O(n).
+     */
+    FenwickTree(double[] values) {
+        tree = new double[values.length + 1];
+        System.arraycopy(values, 0, tree, 1, values.length);
+        for (int i = 1; i < tree.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < tree.length) tree[parent] += tree[i];
+        }
+    }
+
+    int size() {
+        return tree.length - 1;
+    }
+
+    // Adds delta to one slot
+    void add(int index, double delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // Sum of slots 0..index (inclusive); 0 for a negative index
+    double prefixSum(int index) {
+        double sum = 0;
+        for (int i = Math.min(index + 1, tree.length - 1); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    // Sum of slots from..to (inclusive), clamped to the tree
+    double rangeSum(int from, int to) {
+        if (to < from) return 0;
+        return prefixSum(to) - prefixSum(from - 1);
+    }
+
+    // Value of a single slot
+    double get(int index) {
+        return rangeSum(index, index);
+    }
+}
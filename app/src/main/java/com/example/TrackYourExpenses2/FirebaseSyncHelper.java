@@ -4,144 +4,351 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
-import com.google.firebase.firestore.*;
+import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Helper class responsible for synchronizing expense data between local SQLite database and Firebase Firestore.
+ * Helper class responsible for synchronizing expense data between local SQLite database and the cloud.
  * Handles uploads, updates, and downloads of user expenses, as well as syncing budget preferences.
+ * All cloud access goes through a {@link SyncBackend}, which is Firestore unless one is injected.
  */
 public class FirebaseSyncHelper {
 
-    private final FirebaseFirestore firestore;      // Reference to Firestore instance
+    // Number of times a failed batch is attempted before it is reported as failed
+    static final int MAX_BATCH_ATTEMPTS = 3;
+
+    // Applies downloaded expenses to the local database off the main thread, one pull at a time
+    private static final ExecutorService localWriter = Executors.newSingleThreadExecutor();
+
+    private final SyncBackend backend;              // Cloud document store
+    private final SyncMetricsStore metrics;         // Records the cost of every sync run
     private final ExpenseDatabase localDb;          // Local database instance
     private final Context context;                  // Application context
     private final String userEmail;                 // Logged-in user's email from SharedPreferences
 
+    // Receives the outcome of a batched push
+    interface PushCallback {
+        void onComplete(int written, int failed);
+    }
+
     public FirebaseSyncHelper(Context context) {
+        this(context, new FirestoreSyncBackend());
+    }
+
+    public FirebaseSyncHelper(Context context, SyncBackend backend) {
         this.context = context;
-        this.firestore = FirebaseFirestore.getInstance();
-        this.localDb = new ExpenseDatabase(context);
+        this.backend = backend;
+        this.metrics = SyncMetricsStore.get(context);
+        this.localDb = ExpenseDatabase.get(context);
 
         // Get user email from SharedPreferences
         SharedPreferences prefs = context.getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
         this.userEmail = prefs.getString("user_email", null);
     }
 
-    // Helper method to get Firestore path: users/{userEmail}/expenses
-    private CollectionReference getUserExpenseRef() {
-        return firestore.collection("users")
-                .document(userEmail)
-                .collection("expenses");
+    // Helper method to get the cloud collection path: users/{userEmail}/expenses
+    private String getUserExpensePath() {
+        return expensePath(userEmail);
+    }
+
+    static String expensePath(String userEmail) {
+        return "users/" + userEmail + "/expenses";
     }
 
     /**
-     * Uploads all local expenses to Firebase Firestore.
+     * Uploads all local expenses to the cloud in batches.
      * Used to initialize cloud data from local storage.
      */
     public void syncLocalToFirebase() {
         if (userEmail == null) return;
 
         List<Expense> localExpenses = localDb.getAllExpenses();
-        for (Expense expense : localExpenses) {
-            uploadExpense(expense);
+
+        // Queue receipts that have never made it to this account's cloud storage
+        for (Expense e : localExpenses) {
+            if (ReceiptUploadQueue.isLocalReceipt(e.getImageUrl())
+                    && localDb.getReceiptRemoteUrl(e.getImageUrl(), userEmail) == null) {
+                enqueueReceipt(generateDocId(e), e);
+            }
         }
+
+        MeteredSyncBackend run = metrics.startRun(backend, "push");
+        pushInBatches(run, getUserExpensePath(), toWriteOps(localExpenses), (written, failed) -> {
+            if (failed > 0) {
+                Log.e("FirebaseSync", "Upload finished with failures: " + written + " written, " + failed + " failed");
+            } else {
+                Log.d("FirebaseSync", "Uploaded " + written + " expenses");
+            }
+        });
+        run.seal();
     }
 
     /**
-     * Uploads a single expense object to Firestore.
+     * Uploads a single expense object to the cloud.
      * Uses a generated doc ID to uniquely identify each expense.
      */
     public void uploadExpense(Expense expense) {
-        if (userEmail == null) return;
+        uploadExpense(expense, null);
+    }
+
+    /**
+     * Uploads a single expense and reports when the cloud has acknowledged it.
+     * Succeeds at once when no user is signed in, as there is nothing to upload to.
+     */
+    public void uploadExpense(Expense expense, @Nullable SyncBackend.Callback<Void> callback) {
+        if (userEmail == null) {
+            if (callback != null) callback.onSuccess(null);
+            return;
+        }
 
         String docId = generateDocId(expense); // Unique ID per expense
         Map<String, Object> data = toFirestoreMap(expense); // Map data for Firestore
 
-        getUserExpenseRef().document(docId).set(data)
-                .addOnSuccessListener(unused -> Log.d("FirebaseSync", "Uploaded: " + docId))
-                .addOnFailureListener(e -> Log.e("FirebaseSync", "Upload failed: " + docId, e));
+        MeteredSyncBackend run = metrics.startSingleWrite(backend, "upload");
+        run.writeBatch(getUserExpensePath(),
+                Collections.singletonList(SyncBackend.WriteOp.merge(docId, data)),
+                logCallback("Uploaded: " + docId, "Upload failed: " + docId, callback));
+        run.seal();
+        enqueueReceipt(docId, expense);
     }
 
     /**
-     * Updates an existing expense in Firestore. If the identifying fields changed, delete the old doc.
+     * Updates an existing expense in the cloud. If the identifying fields changed, the old doc
+     * is deleted in the same batch so the update is applied atomically.
      */
     public void updateExpenseInFirebase(Expense oldExpense, Expense newExpense) {
-        if (userEmail == null) return;
+        updateExpenseInFirebase(oldExpense, newExpense, null);
+    }
+
+    /**
+     * Updates an existing expense and reports when the cloud has acknowledged it.
+     * Succeeds at once when no user is signed in, as there is nothing to update.
+     */
+    public void updateExpenseInFirebase(Expense oldExpense, Expense newExpense,
+                                        @Nullable SyncBackend.Callback<Void> callback) {
+        if (userEmail == null) {
+            if (callback != null) callback.onSuccess(null);
+            return;
+        }
 
         String oldDocId = generateDocId(oldExpense);
         String newDocId = generateDocId(newExpense);
-        CollectionReference expenseRef = getUserExpenseRef();
 
+        List<SyncBackend.WriteOp> ops = new ArrayList<>();
         if (!oldDocId.equals(newDocId)) {
             // If the ID has changed (due to title/date/amount change), delete the old one
-            expenseRef.document(oldDocId).delete()
-                    .addOnSuccessListener(unused -> Log.d("FirebaseSync", "Deleted old doc: " + oldDocId))
-                    .addOnFailureListener(e -> Log.e("FirebaseSync", "Failed to delete old doc: " + oldDocId, e));
+            ops.add(SyncBackend.WriteOp.delete(oldDocId));
         }
 
         // Upload the new/updated expense
-        Map<String, Object> data = toFirestoreMap(newExpense);
-        expenseRef.document(newDocId).set(data)
-                .addOnSuccessListener(unused -> Log.d("FirebaseSync", "Updated: " + newDocId))
-                .addOnFailureListener(e -> Log.e("FirebaseSync", "Update failed: " + newDocId, e));
+        ops.add(SyncBackend.WriteOp.merge(newDocId, toFirestoreMap(newExpense)));
+        MeteredSyncBackend run = metrics.startSingleWrite(backend, "update");
+        run.writeBatch(getUserExpensePath(), ops,
+                logCallback("Updated: " + newDocId, "Update failed: " + newDocId, callback));
+        run.seal();
+        enqueueReceipt(newDocId, newExpense);
+    }
+
+    /**
+     * Uploads several new expenses (e.g. recurring occurrences) with batched writes instead of one request each.
+     */
+    public void uploadExpenses(List<Expense> expenses) {
+        if (userEmail == null || expenses.isEmpty()) return;
+
+        MeteredSyncBackend run = metrics.startRun(backend, "batch-upload");
+        pushInBatches(run, getUserExpensePath(), toWriteOps(expenses), logPushCallback("Uploaded"));
+        run.seal();
+    }
+
+    /**
+     * Deletes several expenses from the cloud with batched writes instead of one request each.
+     */
+    public void deleteExpensesInFirebase(List<Expense> expenses) {
+        if (userEmail == null || expenses.isEmpty()) return;
+
+        List<SyncBackend.WriteOp> ops = new ArrayList<>(expenses.size());
+        for (Expense e : expenses) {
+            ops.add(SyncBackend.WriteOp.delete(generateDocId(e)));
+        }
+
+        MeteredSyncBackend run = metrics.startRun(backend, "batch-delete");
+        pushInBatches(run, getUserExpensePath(), ops, logPushCallback("Deleted"));
+        run.seal();
+    }
+
+    /**
+     * Applies several updates (old and new expense at the same index) with batched writes.
+     * When the document ID changes, the new document is written before the old one is deleted,
+     * so a pair split across two batches can at worst leave a stale copy, never lose the expense.
+     */
+    public void updateExpensesInFirebase(List<Expense> oldExpenses, List<Expense> newExpenses) {
+        if (userEmail == null || oldExpenses.isEmpty()) return;
+
+        List<SyncBackend.WriteOp> ops = new ArrayList<>();
+        for (int i = 0; i < oldExpenses.size(); i++) {
+            String oldDocId = generateDocId(oldExpenses.get(i));
+            String newDocId = generateDocId(newExpenses.get(i));
+
+            ops.add(SyncBackend.WriteOp.merge(newDocId, toFirestoreMap(newExpenses.get(i))));
+            if (!oldDocId.equals(newDocId)) ops.add(SyncBackend.WriteOp.delete(oldDocId));
+        }
+
+        MeteredSyncBackend run = metrics.startRun(backend, "batch-update");
+        pushInBatches(run, getUserExpensePath(), ops, logPushCallback("Updated"));
+        run.seal();
+
+        for (int i = 0; i < newExpenses.size(); i++) {
+            enqueueReceipt(generateDocId(newExpenses.get(i)), newExpenses.get(i));
+        }
+    }
+
+    // Hands a device-local receipt to the upload queue so other devices can see it
+    private void enqueueReceipt(String docId, Expense expense) {
+        if (ReceiptUploadQueue.isLocalReceipt(expense.getImageUrl())) {
+            ReceiptUploadQueue.get(context).enqueue(docId, userEmail, expense.getImageUrl());
+        }
     }
 
     /**
-     * Downloads all expenses from Firebase and inserts them into the local database if not already present.
+     * Downloads all expenses from the cloud and inserts them into the local database if not already present.
+     * The comparison and the insert run on a background thread, with every missing expense written in one transaction.
      */
     public void syncFirebaseToLocal() {
         if (userEmail == null) return;
 
-        CollectionReference expenseRef = getUserExpenseRef();
-        expenseRef.get().addOnSuccessListener(querySnapshot -> {
-            List<Expense> localExpenses = localDb.getAllExpenses();
+        MeteredSyncBackend run = metrics.startRun(backend, "pull");
+        run.fetchCollection(getUserExpensePath(), new SyncBackend.Callback<Map<String, Map<String, Object>>>() {
+            @Override
+            public void onSuccess(Map<String, Map<String, Object>> documents) {
+                localWriter.execute(() -> {
+                    List<Expense> missing = selectMissing(documents.values(), localDb.getAllExpenses());
+
+                    // Insert only what isn't already in the local DB
+                    List<Expense> inserted = localDb.insertExpenses(missing);
+                    Log.d("FirebaseSync", "Inserted " + inserted.size() + " expenses, duplicates skipped: "
+                            + (documents.size() - missing.size()));
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.e("FirebaseSync", "Download error", e);
+            }
+        });
+        run.seal();
+    }
+
+    /**
+     * Splits the given writes into backend-sized batches, sends them concurrently and retries
+     * failed batches up to {@link #MAX_BATCH_ATTEMPTS} times. Free of Android dependencies so it
+     * can be benchmarked against {@link InMemorySyncBackend} on a plain JVM.
+     */
+    static void pushInBatches(SyncBackend backend, String collectionPath,
+                              List<SyncBackend.WriteOp> ops, PushCallback callback) {
+        if (ops.isEmpty()) {
+            callback.onComplete(0, 0);
+            return;
+        }
 
-            for (QueryDocumentSnapshot doc : querySnapshot) {
-                // Extract fields from Firestore document
-                String title = doc.getString("title");
-                Double amount = doc.getDouble("amount");
-                String date = doc.getString("date");
-                String category = doc.getString("category");
-                String imageUrl = doc.getString("imageUrl");
+        int batchCount = (ops.size() + SyncBackend.MAX_BATCH_SIZE - 1) / SyncBackend.MAX_BATCH_SIZE;
+        AtomicInteger remaining = new AtomicInteger(batchCount);
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
 
-                if (title == null || amount == null || date == null || category == null) continue;
+        for (int start = 0; start < ops.size(); start += SyncBackend.MAX_BATCH_SIZE) {
+            List<SyncBackend.WriteOp> batch = ops.subList(start, Math.min(start + SyncBackend.MAX_BATCH_SIZE, ops.size()));
+            sendBatch(backend, collectionPath, batch, 1, new SyncBackend.Callback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    written.addAndGet(batch.size());
+                    finish();
+                }
 
-                Expense remoteExpense = new Expense(title, amount, date, category, imageUrl);
+                @Override
+                public void onFailure(Exception e) {
+                    failed.addAndGet(batch.size());
+                    finish();
+                }
 
-                // Check if this expense already exists locally
-                boolean exists = false;
-                for (Expense local : localExpenses) {
-                    if (expensesEqual(remoteExpense, local)) {
-                        exists = true;
-                        break;
+                private void finish() {
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onComplete(written.get(), failed.get());
                     }
                 }
+            });
+        }
+    }
 
-                // Insert if it's not already in the local DB
-                if (!exists) {
-                    localDb.insertExpense(title, amount, date, category, imageUrl);
-                    Log.d("FirebaseSync", "Inserted: " + title);
+    // Sends one batch, resending it on failure until the attempt limit is reached
+    private static void sendBatch(SyncBackend backend, String collectionPath, List<SyncBackend.WriteOp> batch,
+                                  int attempt, SyncBackend.Callback<Void> callback) {
+        backend.writeBatch(collectionPath, batch, new SyncBackend.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                callback.onSuccess(null);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (attempt < MAX_BATCH_ATTEMPTS) {
+                    sendBatch(backend, collectionPath, batch, attempt + 1, callback);
                 } else {
-                    Log.d("FirebaseSync", "Duplicate skipped: " + title);
+                    callback.onFailure(e);
                 }
             }
-        }).addOnFailureListener(e -> Log.e("FirebaseSync", "Download error", e));
+        });
     }
 
-    // Compares two expenses based on title, amount, date, and category
-    private boolean expensesEqual(Expense a, Expense b) {
-        return a.getTitle().equals(b.getTitle())
-                && a.getAmount() == b.getAmount()
-                && a.getDate().equals(b.getDate())
-                && a.getCategory().equals(b.getCategory());
+    /**
+     * Converts remote documents to expenses and returns the ones not already present locally.
+     * Uses a hash set of identifying keys so the check is linear rather than quadratic.
+     */
+    static List<Expense> selectMissing(Iterable<Map<String, Object>> documents, List<Expense> localExpenses) {
+        Set<String> localKeys = new HashSet<>();
+        for (Expense local : localExpenses) {
+            localKeys.add(identityKey(local));
+        }
+
+        List<Expense> missing = new ArrayList<>();
+        for (Map<String, Object> doc : documents) {
+            Expense remote = fromFirestoreMap(doc);
+            if (remote == null) continue;
+
+            // add() returns false for duplicates, including duplicates within the remote set
+            if (localKeys.add(identityKey(remote))) {
+                missing.add(remote);
+            }
+        }
+        return missing;
+    }
+
+    // Builds a write for every expense; merges keep the receipt fields added by ReceiptUploadQueue
+    static List<SyncBackend.WriteOp> toWriteOps(List<Expense> expenses) {
+        List<SyncBackend.WriteOp> ops = new ArrayList<>(expenses.size());
+        for (Expense e : expenses) {
+            ops.add(SyncBackend.WriteOp.merge(generateDocId(e), toFirestoreMap(e)));
+        }
+        return ops;
+    }
+
+    // Key used to compare two expenses based on title, amount, date, and category
+    private static String identityKey(Expense e) {
+        return e.getTitle() + '\u0000' + e.getAmount() + '\u0000' + e.getDate() + '\u0000' + e.getCategory();
     }
 
     // Converts an Expense object into a Firestore-compatible map
-    private Map<String, Object> toFirestoreMap(Expense e) {
+    static Map<String, Object> toFirestoreMap(Expense e) {
         Map<String, Object> data = new HashMap<>();
         data.put("title", e.getTitle());
         data.put("amount", e.getAmount());
@@ -151,39 +358,61 @@ public class FirebaseSyncHelper {
         return data;
     }
 
+    /**
+     * Converts a cloud document back into an Expense, or null if required fields are missing.
+     * The device-local image path is replaced by the uploaded receipt when the file isn't on this device.
+     */
+    static Expense fromFirestoreMap(Map<String, Object> doc) {
+        Object title = doc.get("title");
+        Object amount = doc.get("amount");
+        Object date = doc.get("date");
+        Object category = doc.get("category");
+        Object imageUrl = doc.get("imageUrl");
+        Object receiptUrl = doc.get("receiptUrl");
+
+        if (!(title instanceof String) || !(amount instanceof Number)
+                || !(date instanceof String) || !(category instanceof String)) return null;
+
+        String image = imageUrl instanceof String ? (String) imageUrl : null;
+        if (receiptUrl instanceof String && (image == null || !new File(image).exists())) {
+            image = (String) receiptUrl;
+        }
+
+        return new Expense((String) title, ((Number) amount).doubleValue(), (String) date, (String) category, image);
+    }
+
     // Generates a sanitized document ID using title, amount, and date
-    private String generateDocId(Expense e) {
+    static String generateDocId(Expense e) {
         return (e.getTitle() + "_" + e.getAmount() + "_" + e.getDate())
                 .replaceAll("[^a-zA-Z0-9]", "_"); // Replace non-alphanumerics with underscores
     }
 
-    /**
-     * Static method to sync user's budget value from Firestore into local SharedPreferences.
-     * This is typically called once after login or periodically.
-     */
-    public static void syncBudgetFromFirebase(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-        String userEmail = prefs.getString("user_email", null);
-        if (userEmail == null) return;
+    // Push callback that only logs how many writes made it
+    private static PushCallback logPushCallback(String action) {
+        return (written, failed) -> {
+            if (failed > 0) {
+                Log.e("FirebaseSync", action + " with failures: " + written + " written, " + failed + " failed");
+            } else {
+                Log.d("FirebaseSync", action + " " + written + " documents");
+            }
+        };
+    }
 
-        FirebaseFirestore.getInstance()
-                .collection("users")
-                .document(userEmail)
-                .collection("profile")
-                .document("budget")
-                .get()
-                .addOnSuccessListener(doc -> {
-                    if (doc.exists()) {
-                        Double budget = doc.getDouble("monthly_budget");
-                        if (budget != null) {
-                            // Store budget value in SharedPreferences
-                            String prefsName = "BudgetPrefs_" + userEmail;
-                            SharedPreferences userPrefs = context.getSharedPreferences(prefsName, Context.MODE_PRIVATE);
-                            userPrefs.edit().putFloat("monthly_budget", budget.floatValue()).apply();
-                        }
-                    }
-                })
-                .addOnFailureListener(e ->
-                        Log.e("BudgetSync", "Failed to sync budget", e));
+    // Callback that logs the outcome of a write, then passes it on if anyone is waiting for it
+    private static SyncBackend.Callback<Void> logCallback(String successMessage, String failureMessage,
+                                                          @Nullable SyncBackend.Callback<Void> next) {
+        return new SyncBackend.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                Log.d("FirebaseSync", successMessage);
+                if (next != null) next.onSuccess(null);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.e("FirebaseSync", failureMessage, e);
+                if (next != null) next.onFailure(e);
+            }
+        };
     }
 }
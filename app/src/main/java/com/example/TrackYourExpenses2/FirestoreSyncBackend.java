@@ -0,0 +1,94 @@
+package com.example.TrackYourExpenses2;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link SyncBackend} implementation backed by Firebase Firestore.
+ * Callbacks are delivered on the main thread, as with the Firestore Task API.
+ */
+public class FirestoreSyncBackend implements SyncBackend {
+
+    private final FirebaseFirestore firestore;
+
+    public FirestoreSyncBackend() {
+        this(FirebaseFirestore.getInstance());
+    }
+
+    public FirestoreSyncBackend(FirebaseFirestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @Override
+    public void fetchCollection(String collectionPath, Callback<Map<String, Map<String, Object>>> callback) {
+        firestore.collection(collectionPath).get()
+                .addOnSuccessListener(querySnapshot -> {
+                    Map<String, Map<String, Object>> documents = new HashMap<>();
+                    for (QueryDocumentSnapshot doc : querySnapshot) {
+                        documents.put(doc.getId(), doc.getData());
+                    }
+                    callback.onSuccess(documents);
+                })
+                .addOnFailureListener(callback::onFailure);
+    }
+
+    @Override
+    public void fetchDocument(String collectionPath, String docId, Callback<Map<String, Object>> callback) {
+        firestore.collection(collectionPath).document(docId).get()
+                .addOnSuccessListener(doc -> callback.onSuccess(doc.exists() ? doc.getData() : null))
+                .addOnFailureListener(callback::onFailure);
+    }
+
+    @Override
+    public void writeBatch(String collectionPath, List<WriteOp> ops, Callback<Void> callback) {
+        CollectionReference ref = firestore.collection(collectionPath);
+        WriteBatch batch = firestore.batch();
+
+        for (WriteOp op : ops) {
+            if (op.isDelete()) {
+                batch.delete(ref.document(op.getDocId()));
+            } else if (op.isMerge()) {
+                batch.set(ref.document(op.getDocId()), op.getData(), SetOptions.merge());
+            } else {
+                batch.set(ref.document(op.getDocId()), op.getData());
+            }
+        }
+
+        batch.commit()
+                .addOnSuccessListener(unused -> callback.onSuccess(null))
+                .addOnFailureListener(callback::onFailure);
+    }
+
+    @Override
+    public void delete(String collectionPath, String docId, Callback<Void> callback) {
+        firestore.collection(collectionPath).document(docId).delete()
+                .addOnSuccessListener(unused -> callback.onSuccess(null))
+                .addOnFailureListener(callback::onFailure);
+    }
+
+    @Override
+    public Registration addChangeListener(String collectionPath, ChangeListener listener) {
+        com.google.firebase.firestore.ListenerRegistration registration =
+                firestore.collection(collectionPath).addSnapshotListener((snapshot, error) -> {
+                    if (error != null) {
+                        listener.onError(error);
+                        return;
+                    }
+                    if (snapshot == null) return;
+
+                    Map<String, Map<String, Object>> documents = new HashMap<>();
+                    for (QueryDocumentSnapshot doc : snapshot) {
+                        documents.put(doc.getId(), doc.getData());
+                    }
+                    listener.onChanged(documents);
+                });
+        return registration::remove;
+    }
+}
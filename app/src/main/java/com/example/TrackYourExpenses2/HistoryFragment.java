@@ -1,16 +1,24 @@
 package com.example.TrackYourExpenses2;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.util.Log;
 
-import com.google.firebase.firestore.FirebaseFirestore;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
+import com.google.android.material.snackbar.Snackbar;
 
 import android.app.AlertDialog;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.InputType;
 import android.view.*;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -19,19 +27,63 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.*;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Fragment that displays a scrollable history of all expenses using RecyclerView.
  * Supports filtering, sorting, item-click navigation, and swipe-to-delete with Firebase sync.
+ * A long press starts multi-select, where the selection can be deleted, recategorised or moved
+ * by a number of days; each bulk action is one SQLite transaction and one batched cloud write.
+ * Swipe deletes are held back for an undo window; every swipe within the window extends it, and
+ * when it expires all held deletes are committed together.
  */
 public class HistoryFragment extends Fragment {
 
+    // Selections at least this large show a progress bar while the bulk action runs
+    private static final int PROGRESS_THRESHOLD = 50;
+
+    // Rows ahead of the visible ones whose receipts are fetched while scrolling
+    private static final int PRELOAD_AHEAD = 10;
+
+    // How long swiped deletes can be undone; each new swipe restarts it
+    private static final int UNDO_WINDOW_MS = 4000;
+
+    // Runs bulk actions off the main thread, one at a time
+    private static final ExecutorService batchExecutor = Executors.newSingleThreadExecutor();
+
     RecyclerView recyclerView;        // RecyclerView to display expenses
     Button btnFilter, btnSort;        // Buttons to open filter/sort dialogs
     ExpenseAdapter adapter;           // Custom adapter for expenses
     ExpenseDatabase db;               // Local SQLite database
     List<Expense> allExpenses;        // Complete list of expenses
 
+    // Multi-select action bar
+    LinearLayout selectionBar;
+    TextView tvSelectionCount;
+    ProgressBar batchProgress;
+    Button btnSelectAll, btnBatchCategory, btnBatchDate, btnBatchDelete, btnCancelSelection;
+    private boolean batchRunning;
+
+    // Current sort order (null keeps the database order) and category filter
+    private Comparator<Expense> sortOrder;
+    private String categoryFilter = "All";
+
+    // Swiped expenses not committed yet, with their index in allExpenses when removed
+    private final List<Expense> pendingDeletes = new ArrayList<>();
+    private final List<Integer> pendingIndexes = new ArrayList<>();
+    private final Handler flushHandler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flushPendingDeletes;
+    private Snackbar undoSnackbar;
+    private Context appContext;
+
+    // Saves from AddExpenseFragment whose receipt may still be attached after the list is loaded
+    private ExpenseWriteQueue writeQueue;
+    private final ExpenseWriteQueue.OnWriteCompleteListener writeListener = this::onWriteComplete;
+
+    // Recurring expenses are written in the background, so the list is reloaded when some arrive
+    private final RecurringExpenseEngine.OnOccurrencesAddedListener recurringListener = count -> reloadFromDatabase();
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater,
@@ -45,18 +97,35 @@ public class HistoryFragment extends Fragment {
         recyclerView = view.findViewById(R.id.recycler_history);
         btnFilter = view.findViewById(R.id.btnFilter);
         btnSort = view.findViewById(R.id.btnSort);
+        selectionBar = view.findViewById(R.id.selectionBar);
+        tvSelectionCount = view.findViewById(R.id.tvSelectionCount);
+        batchProgress = view.findViewById(R.id.batchProgress);
+        btnSelectAll = view.findViewById(R.id.btnSelectAll);
+        btnBatchCategory = view.findViewById(R.id.btnBatchCategory);
+        btnBatchDate = view.findViewById(R.id.btnBatchDate);
+        btnBatchDelete = view.findViewById(R.id.btnBatchDelete);
+        btnCancelSelection = view.findViewById(R.id.btnCancelSelection);
 
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext())); // Vertical list
+        appContext = requireContext().getApplicationContext();
 
         // Load expenses from local database
-        db = new ExpenseDatabase(getContext());
-        allExpenses = db.getAllExpenses();
+        db = ExpenseDatabase.get(requireContext());
+        writeQueue = ExpenseWriteQueue.get(requireContext());
+        loadFromDatabase();
+        writeQueue.addListener(writeListener);
+        RecurringExpenseEngine.get(requireContext()).addListener(recurringListener);
 
         // Initialize adapter and attach it to RecyclerView
-        adapter = new ExpenseAdapter();
+        adapter = new ExpenseAdapter(requireContext(), Glide.with(this));
         adapter.updateList(allExpenses);
         recyclerView.setAdapter(adapter);
 
+        // Fetch thumbnails for the rows about to scroll into view
+        int iconSize = adapter.getIconSizePx();
+        recyclerView.addOnScrollListener(new RecyclerViewPreloader<>(Glide.with(this), adapter,
+                new FixedPreloadSizeProvider<>(iconSize, iconSize), PRELOAD_AHEAD));
+
         // Handle click on individual expense to open detail view
         adapter.setOnItemClickListener(expense -> {
             Bundle bundle = new Bundle();
@@ -82,11 +151,114 @@ public class HistoryFragment extends Fragment {
         btnFilter.setOnClickListener(v -> showFilterDialog());
         btnSort.setOnClickListener(v -> showSortDialog());
 
+        // Multi-select: the action bar follows the adapter's selection
+        adapter.setOnSelectionChangedListener((selectionMode, selectedCount) -> {
+            selectionBar.setVisibility(selectionMode ? View.VISIBLE : View.GONE);
+            tvSelectionCount.setText(selectedCount + " selected");
+        });
+        btnSelectAll.setOnClickListener(v -> adapter.selectAll());
+        btnCancelSelection.setOnClickListener(v -> adapter.clearSelection());
+        btnBatchDelete.setOnClickListener(v -> confirmBatchDelete());
+        btnBatchCategory.setOnClickListener(v -> showBatchCategoryDialog());
+        btnBatchDate.setOnClickListener(v -> showBatchDateDialog());
+
         return view;
     }
 
+    @Override
+    public void onStop() {
+        super.onStop();
+        // Leaving the screen ends the undo window
+        flushPendingDeletes();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        writeQueue.removeListener(writeListener);
+        RecurringExpenseEngine.get(requireContext()).removeListener(recurringListener);
+    }
+
+    // Reads allExpenses from the database, leaving out swiped rows that are waiting for their undo window to end,
+    // and shows saves the write queue hasn't written yet. Those have no row id until their write completes,
+    // so they can't be swiped or selected meanwhile.
+    private void loadFromDatabase() {
+        List<ExpenseWriteQueue.PendingWrite> unstored = writeQueue.getUnstored(); // Taken before the read
+        allExpenses = db.getAllExpenses();
+        for (Expense deleted : pendingDeletes) {
+            for (Iterator<Expense> it = allExpenses.iterator(); it.hasNext(); ) {
+                if (it.next().getId() == deleted.getId()) it.remove();
+            }
+        }
+
+        for (ExpenseWriteQueue.PendingWrite write : unstored) {
+            Expense stored = write.getStored();
+            if (stored != null && indexOfId(stored.getId()) >= 0) continue; // Written in time for the read
+
+            int replaced = write.replaced == null ? -1 : indexOfFields(write.replaced);
+            if (replaced >= 0) {
+                allExpenses.set(replaced, write.expense);
+            } else if (write.replaced == null) {
+                allExpenses.add(0, write.expense);
+            }
+        }
+    }
+
+    private int indexOfId(long id) {
+        for (int i = 0; i < allExpenses.size(); i++) {
+            if (allExpenses.get(i).getId() == id) return i;
+        }
+        return -1;
+    }
+
+    // First stored row with the identifying fields of an expense, as the database matches an edit
+    private int indexOfFields(Expense e) {
+        for (int i = 0; i < allExpenses.size(); i++) {
+            Expense row = allExpenses.get(i);
+            if (row.getId() != Expense.NO_ID && row.getTitle().equals(e.getTitle()) && row.getAmount() == e.getAmount()
+                    && row.getDate().equals(e.getDate()) && row.getCategory().equals(e.getCategory())) return i;
+        }
+        return -1;
+    }
+
+    private void reloadFromDatabase() {
+        loadFromDatabase();
+        if (sortOrder != null) Collections.sort(allExpenses, sortOrder);
+        refreshList();
+    }
+
+    // A queued save is finished: its row now has its receipt, and a row shown before it was written gives way
+    // to the stored one (or goes, if it couldn't be written). Rows deleted meanwhile stay deleted,
+    // and a row held back for undo is updated where it waits, so undo brings back the stored version.
+    private void onWriteComplete(ExpenseWriteQueue.PendingWrite write) {
+        Expense written = write.getWritten();
+        int shown = allExpenses.indexOf(write.expense); // Optimistic row, matched by identity
+        if (written == null) {
+            // Not written, or deleted meanwhile; a failed edit puts the stored row back
+            if (write.replaced != null && write.getStored() == null) {
+                reloadFromDatabase();
+                return;
+            }
+            if (shown >= 0) allExpenses.remove(shown);
+            refreshList();
+            return;
+        }
+
+        if (shown >= 0) {
+            allExpenses.set(shown, written);
+        } else {
+            int index = indexOfId(written.getId());
+            if (index >= 0) allExpenses.set(index, written);
+        }
+        for (int i = 0; i < pendingDeletes.size(); i++) {
+            if (pendingDeletes.get(i).getId() == written.getId()) pendingDeletes.set(i, written);
+        }
+        refreshList();
+    }
+
     /**
-     * Enables swipe gestures to delete expense items and syncs deletion with Firestore.
+     * Enables swipe gestures to delete expense items. Deletes are optimistic: the row disappears
+     * at once, and the database and cloud are only written when the undo window runs out.
      */
     private void setupSwipeToDelete() {
         new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(0,
@@ -97,37 +269,80 @@ public class HistoryFragment extends Fragment {
                 return false; // No drag/drop support
             }
 
+            @Override
+            public int getSwipeDirs(@NonNull RecyclerView rv, @NonNull RecyclerView.ViewHolder vh) {
+                // Rows can't be swiped away while selecting or while a bulk action is running.
+                // Deletes go by row id, so only rows already in the database can be swiped.
+                if (adapter.isSelectionMode() || batchRunning) return 0;
+                int position = vh.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION || adapter.getExpenseAt(position).getId() == Expense.NO_ID) return 0;
+                return super.getSwipeDirs(rv, vh);
+            }
+
             @Override
             public void onSwiped(@NonNull RecyclerView.ViewHolder vh, int direction) {
                 int position = vh.getAdapterPosition();
                 Expense toDelete = adapter.getExpenseAt(position);
 
-                // Remove from local DB and adapter
-                db.deleteExpense(toDelete);
+                // Remove from the list only; the delete is held until the undo window expires
+                pendingIndexes.add(allExpenses.indexOf(toDelete));
+                pendingDeletes.add(toDelete);
+                allExpenses.remove(toDelete);
                 adapter.removeItem(position);
-                Toast.makeText(getContext(), "Expense deleted", Toast.LENGTH_SHORT).show();
-
-                // Also delete from Firebase if user is logged in
-                SharedPreferences prefs = requireContext().getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-                String userEmail = prefs.getString("user_email", null);
-
-                if (userEmail != null) {
-                    String docId = (toDelete.getTitle() + "_" + toDelete.getAmount() + "_" + toDelete.getDate())
-                            .replaceAll("[^a-zA-Z0-9]", "_");
-
-                    FirebaseFirestore.getInstance()
-                            .collection("users")
-                            .document(userEmail)
-                            .collection("expenses")
-                            .document(docId)
-                            .delete()
-                            .addOnSuccessListener(unused -> Log.d("FirestoreDelete", "Deleted from cloud: " + docId))
-                            .addOnFailureListener(e -> Log.e("FirestoreDelete", "Cloud delete failed: " + docId, e));
-                }
+
+                flushHandler.removeCallbacks(flushRunnable);
+                flushHandler.postDelayed(flushRunnable, UNDO_WINDOW_MS);
+                showUndoSnackbar();
             }
         }).attachToRecyclerView(recyclerView);
     }
 
+    // One snackbar covers every delete still held back, so undo restores all of them
+    private void showUndoSnackbar() {
+        int count = pendingDeletes.size();
+        String text = count == 1 ? "Expense deleted" : count + " expenses deleted";
+
+        undoSnackbar = Snackbar.make(recyclerView, text, UNDO_WINDOW_MS)
+                .setAction("Undo", v -> undoPendingDeletes());
+        undoSnackbar.show();
+    }
+
+    // Puts every held-back expense back where it was, newest removal first
+    private void undoPendingDeletes() {
+        flushHandler.removeCallbacks(flushRunnable);
+        for (int i = pendingDeletes.size() - 1; i >= 0; i--) {
+            int index = pendingIndexes.get(i);
+            allExpenses.add(index < 0 ? 0 : Math.min(index, allExpenses.size()), pendingDeletes.get(i));
+        }
+        pendingDeletes.clear();
+        pendingIndexes.clear();
+        refreshList();
+    }
+
+    /**
+     * Commits every held-back delete in one transaction and one batched cloud write.
+     * Rows are deleted by id; the same transaction drops any outbox entry still waiting to push them,
+     * so the cloud delete can't be overtaken by a queued upload of the same expense.
+     */
+    private void flushPendingDeletes() {
+        flushHandler.removeCallbacks(flushRunnable);
+        if (undoSnackbar != null) {
+            undoSnackbar.dismiss();
+            undoSnackbar = null;
+        }
+        if (pendingDeletes.isEmpty()) return;
+
+        List<Expense> batch = new ArrayList<>(pendingDeletes);
+        pendingDeletes.clear();
+        pendingIndexes.clear();
+
+        Context context = appContext;
+        batchExecutor.execute(() -> {
+            ExpenseDatabase.get(context).deleteExpenses(batch, null);
+            flushHandler.post(() -> new FirebaseSyncHelper(context).deleteExpensesInFirebase(batch));
+        });
+    }
+
     /**
      * Displays a dialog allowing the user to sort expenses by various criteria.
      */
@@ -155,8 +370,9 @@ public class HistoryFragment extends Fragment {
                     }
 
                     // Apply sorting and refresh list
+                    sortOrder = comparator;
                     Collections.sort(allExpenses, comparator);
-                    adapter.updateList(allExpenses);
+                    refreshList();
                 })
                 .show();
     }
@@ -172,23 +388,208 @@ public class HistoryFragment extends Fragment {
         new AlertDialog.Builder(getContext())
                 .setTitle("Filter by Category")
                 .setAdapter(new ArrayAdapter<>(getContext(), android.R.layout.simple_list_item_1, categories), (dialog, which) -> {
-                    String selected = categories.get(which);
-
-                    if (selected.equals("All")) {
-                        adapter.updateList(allExpenses); // Show full list
-                    } else {
-                        List<Expense> filtered = new ArrayList<>();
-                        for (Expense e : allExpenses) {
-                            if (e.getCategory().equals(selected)) {
-                                filtered.add(e);
-                            }
-                        }
-                        adapter.updateList(filtered); // Show filtered list
+                    categoryFilter = categories.get(which);
+                    refreshList();
+                })
+                .show();
+    }
+
+    /**
+     * Shows the full list, or only the filtered category, in the current sort order.
+     */
+    private void refreshList() {
+        if (categoryFilter.equals("All")) {
+            adapter.updateList(allExpenses); // Show full list
+        } else {
+            List<Expense> filtered = new ArrayList<>();
+            for (Expense e : allExpenses) {
+                if (e.getCategory().equals(categoryFilter)) {
+                    filtered.add(e);
+                }
+            }
+            adapter.updateList(filtered); // Show filtered list
+        }
+    }
+
+    private void confirmBatchDelete() {
+        List<Expense> selected = adapter.getSelectedExpenses();
+        if (selected.isEmpty()) return;
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Delete " + selected.size() + " expenses?")
+                .setMessage("This can't be undone.")
+                .setPositiveButton("Delete", (dialog, which) -> runBatch(selected, null,
+                        (batchDb, progress) -> batchDb.deleteExpenses(selected, progress),
+                        (helper, oldExpenses, newExpenses) -> helper.deleteExpensesInFirebase(oldExpenses),
+                        "Deleted"))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void showBatchCategoryDialog() {
+        List<Expense> selected = adapter.getSelectedExpenses();
+        if (selected.isEmpty()) return;
+
+        String[] categories = HomeFragment.ALL_CATEGORIES;
+        new AlertDialog.Builder(getContext())
+                .setTitle("Move " + selected.size() + " expenses to")
+                .setItems(categories, (dialog, which) -> {
+                    List<Expense> updated = new ArrayList<>(selected.size());
+                    for (Expense e : selected) {
+                        updated.add(new Expense(e.getTitle(), e.getAmount(), e.getDate(), categories[which], e.getImageUrl()));
+                    }
+                    runUpdate(selected, updated, "Recategorised");
+                })
+                .show();
+    }
+
+    private void showBatchDateDialog() {
+        List<Expense> selected = adapter.getSelectedExpenses();
+        if (selected.isEmpty()) return;
+
+        final EditText input = new EditText(getContext());
+        input.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_SIGNED);
+        input.setHint("Days, e.g. -1 or 7");
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Shift " + selected.size() + " expenses by")
+                .setView(input)
+                .setPositiveButton("Shift", (dialog, which) -> {
+                    int days;
+                    try {
+                        days = Integer.parseInt(input.getText().toString().trim());
+                    } catch (NumberFormatException e) {
+                        Toast.makeText(getContext(), "Invalid input", Toast.LENGTH_SHORT).show();
+                        return;
                     }
+                    if (days == 0) return;
+
+                    // Expenses with an unreadable date are left where they are
+                    List<Expense> moved = new ArrayList<>();
+                    List<Expense> updated = new ArrayList<>();
+                    for (Expense e : selected) {
+                        int epochDay = ExpenseDates.toEpochDay(e.getDate());
+                        if (epochDay == ExpenseDates.INVALID) continue;
+                        moved.add(e);
+                        updated.add(new Expense(e.getTitle(), e.getAmount(), ExpenseDates.format(epochDay + days),
+                                e.getCategory(), e.getImageUrl()));
+                    }
+                    runUpdate(moved, updated, "Moved");
                 })
+                .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    private void runUpdate(List<Expense> oldExpenses, List<Expense> newExpenses, String doneMessage) {
+        if (oldExpenses.isEmpty()) return;
+        runBatch(oldExpenses, newExpenses,
+                (batchDb, progress) -> batchDb.updateExpenses(oldExpenses, newExpenses, progress),
+                (helper, changedOld, changedNew) -> helper.updateExpensesInFirebase(changedOld, changedNew),
+                doneMessage);
+    }
+
+    // A bulk write run on the batch executor, returning the number of rows changed
+    private interface LocalBatch {
+        int run(ExpenseDatabase batchDb, ExpenseDatabase.BatchProgressListener progress);
+    }
+
+    // The matching batched cloud write, started once the local transaction has committed.
+    // For updates it only gets the pairs whose row still exists, so nothing deleted meanwhile is pushed back.
+    private interface CloudBatch {
+        void run(FirebaseSyncHelper helper, List<Expense> oldExpenses, @Nullable List<Expense> newExpenses);
+    }
+
+    /**
+     * Runs a bulk action: one local transaction in the background (with a progress bar for
+     * large selections), then the in-memory list is patched and the cloud batch is sent.
+     * Updated rows are read back by id, so the list and the cloud get exactly what was stored,
+     * including a receipt the write queue attached meanwhile; rows that were gone are dropped.
+     * @param replacements New expenses at the same index as {@code targets}, or null to remove the targets
+     */
+    private void runBatch(List<Expense> targets, @Nullable List<Expense> replacements,
+                          LocalBatch local, CloudBatch cloud, String doneMessage) {
+        if (batchRunning) return;
+        setBatchRunning(true, targets.size());
+
+        Context appContext = requireContext().getApplicationContext();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        batchExecutor.execute(() -> {
+            ExpenseDatabase batchDb = ExpenseDatabase.get(appContext);
+            int changed = local.run(batchDb, (done, total) ->
+                    mainHandler.post(() -> {
+                        if (isAdded() && getView() != null) batchProgress.setProgress(done);
+                    }));
+
+            List<Expense> changedOld = targets;
+            List<Expense> changedNew = null;
+            List<Expense> shown = null;
+            if (replacements != null) {
+                changedOld = new ArrayList<>();
+                changedNew = new ArrayList<>();
+                shown = new ArrayList<>(targets.size());
+                for (Expense target : targets) {
+                    Expense stored = batchDb.getExpense(target.getId());
+                    shown.add(stored);
+                    if (stored == null) continue;
+                    changedOld.add(target);
+                    changedNew.add(stored);
+                }
+            }
+
+            List<Expense> cloudOld = changedOld;
+            List<Expense> cloudNew = changedNew;
+            List<Expense> storedRows = shown;
+            mainHandler.post(() -> {
+                // The cloud write doesn't depend on this screen still being shown
+                cloud.run(new FirebaseSyncHelper(appContext), cloudOld, cloudNew);
+                if (!isAdded() || getView() == null) return;
+
+                applyToList(targets, storedRows);
+                setBatchRunning(false, 0);
+                adapter.clearSelection();
+                refreshList();
+                Toast.makeText(getContext(), doneMessage + " " + changed + " expenses", Toast.LENGTH_SHORT).show();
+            });
+        });
+    }
+
+    // Mirrors a finished bulk action in allExpenses without reloading it from the database;
+    // rows are matched by id, and a null replacement removes its target
+    private void applyToList(List<Expense> targets, @Nullable List<Expense> replacements) {
+        Map<Long, Expense> changes = new HashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            changes.put(targets.get(i).getId(), replacements == null ? null : replacements.get(i));
+        }
+
+        List<Expense> updated = new ArrayList<>(allExpenses.size());
+        for (Expense e : allExpenses) {
+            if (!changes.containsKey(e.getId())) {
+                updated.add(e);
+            } else if (changes.get(e.getId()) != null) {
+                updated.add(changes.get(e.getId()));
+            }
+        }
+        if (sortOrder != null) Collections.sort(updated, sortOrder);
+        allExpenses = updated;
+    }
+
+    private void setBatchRunning(boolean running, int total) {
+        batchRunning = running;
+        btnSelectAll.setEnabled(!running);
+        btnBatchCategory.setEnabled(!running);
+        btnBatchDate.setEnabled(!running);
+        btnBatchDelete.setEnabled(!running);
+        btnCancelSelection.setEnabled(!running);
+
+        if (running && total >= PROGRESS_THRESHOLD) {
+            batchProgress.setMax(total);
+            batchProgress.setProgress(0);
+            batchProgress.setVisibility(View.VISIBLE);
+        } else {
+            batchProgress.setVisibility(View.GONE);
+        }
+    }
+
     /**
      * Safely parses a date string (format: d/M/yyyy) into a Date object.
      * Returns a fallback date (epoch) on parse failure.
@@ -3,13 +3,7 @@ package com.example.TrackYourExpenses2;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
 import android.animation.ObjectAnimator;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
-import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.graphics.Typeface;
-import android.os.Build;
 import android.os.Bundle;
 import android.view.Gravity;
 import android.view.View;
@@ -17,32 +11,47 @@ import android.widget.*;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.app.NotificationCompat;
-import androidx.core.app.NotificationManagerCompat;
 import androidx.fragment.app.Fragment;
 
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
  * HomeFragment displays an overview of the user's monthly financial activity,
  * including total spent, budget usage, category breakdown, and average spend insights.
- * Also triggers a budget usage alert notification when spending exceeds 90%.
+ * Figures come from the precomputed {@link DashboardSummary}, so nothing is aggregated here.
+ * Budget alerts are raised in the background by {@link BudgetAlertEngine}, and the month-end
+ * projection comes from {@link SpendForecaster}.
  */
 public class HomeFragment extends Fragment {
 
+    // Categories and emoji icons shown in the breakdown
+    static final String[] ALL_CATEGORIES = {"Food", "Transport", "Utilities", "Entertainment", "Shopping", "Other"};
+    private static final Map<String, String> CATEGORY_ICONS = new HashMap<>();
+
+    static {
+        CATEGORY_ICONS.put("Food", "🍔");
+        CATEGORY_ICONS.put("Transport", "🚗");
+        CATEGORY_ICONS.put("Utilities", "💡");
+        CATEGORY_ICONS.put("Entertainment", "🎮");
+        CATEGORY_ICONS.put("Shopping", "🛍️");
+        CATEGORY_ICONS.put("Other", "❓");
+    }
+
     // UI elements
-    private TextView totalSpentText, remainingBudgetText, dailySpendText, usagePercentText;
+    private TextView totalSpentText, remainingBudgetText, dailySpendText, usagePercentText, forecastText;
     private Button btnDaily, btnWeekly;
     private ProgressBar budgetProgressBar;
     private LinearLayout categoryBreakdownLayout;
 
-    // Data variables
-    private ExpenseDatabase db;
-    private List<Expense> monthlyExpenses;
+    // Summary currently on screen
+    private DashboardSummary summary;
+
+    // Re-renders once a save from AddExpenseFragment, or a recurring expense, has reached the database
+    private final ExpenseWriteQueue.OnWriteCompleteListener writeListener = write -> loadSummary();
+    private final RecurringExpenseEngine.OnOccurrencesAddedListener recurringListener = count -> loadSummary();
 
     @Nullable
     @Override
@@ -54,6 +63,7 @@ public class HomeFragment extends Fragment {
         remainingBudgetText = view.findViewById(R.id.remainingBudgetText);
         dailySpendText = view.findViewById(R.id.dailySpendText);
         usagePercentText = view.findViewById(R.id.usagePercentText);
+        forecastText = view.findViewById(R.id.forecastText);
         budgetProgressBar = view.findViewById(R.id.budgetProgressBar);
         categoryBreakdownLayout = view.findViewById(R.id.categoryBreakdownLayout);
         btnDaily = view.findViewById(R.id.btnDaily);
@@ -61,68 +71,7 @@ public class HomeFragment extends Fragment {
         Button addExpenseButton = view.findViewById(R.id.addExpenseButton);
         Button viewAnalyticsButton = view.findViewById(R.id.viewAnalyticsButton);
 
-        db = new ExpenseDatabase(getContext());
-        monthlyExpenses = getThisMonthExpenses(); // Only get expenses for the current month
-
-        // Define categories and emoji icons for each
-        String[] allCategories = {"Food", "Transport", "Utilities", "Entertainment", "Shopping", "Other"};
-        Map<String, String> categoryIcons = new HashMap<>();
-        categoryIcons.put("Food", "🍔");
-        categoryIcons.put("Transport", "🚗");
-        categoryIcons.put("Utilities", "💡");
-        categoryIcons.put("Entertainment", "🎮");
-        categoryIcons.put("Shopping", "🛍️");
-        categoryIcons.put("Other", "❓");
-
-        // Get user-specific budget from SharedPreferences
-        SharedPreferences basePrefs = requireContext().getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-        String userEmail = basePrefs.getString("user_email", null);
-        String prefsName = userEmail != null ? "BudgetPrefs_" + userEmail : "GuestPrefs";
-        SharedPreferences prefs = requireContext().getSharedPreferences(prefsName, Context.MODE_PRIVATE);
-
-        double monthlyBudget = prefs.getFloat("monthly_budget", 1000f); // Default: $1000
-        float lastNotifiedSpent = prefs.getFloat("last_notified_spent", -1f); // Used to prevent repeated notifications
-
-        // Calculate total monthly spending
-        double total = 0;
-        for (Expense e : monthlyExpenses) {
-            total += e.getAmount();
-        }
-
-        // Budget calculations
-        double remaining = monthlyBudget - total;
-        double usagePercent = (total / monthlyBudget) * 100;
-        int progress = (int) Math.min(usagePercent, 100); // Clamp to 100 for progress bar
-
-        // Display budget status
-        totalSpentText.setText("Total Spent (This Month): $" + String.format("%.2f", total));
-        remainingBudgetText.setText("Remaining Budget: $" + String.format("%.2f", remaining));
-        usagePercentText.setText("Used: " + String.format("%.0f", usagePercent) + "%");
-
-        // Animate progress bar
-        ObjectAnimator animation = ObjectAnimator.ofInt(budgetProgressBar, "progress", 0, progress);
-        animation.setDuration(1000);
-        animation.start();
-
-        // Trigger notification if budget usage is >= 90% and not previously notified
-        if (usagePercent >= 90 && (float) total > lastNotifiedSpent) {
-            createNotificationChannel();
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(requireContext(), "budget_channel")
-                    .setSmallIcon(android.R.drawable.ic_dialog_alert)
-                    .setContentTitle("Budget Alert")
-                    .setContentText("You've used " + String.format("%.0f", usagePercent) + "% of your budget!")
-                    .setPriority(NotificationCompat.PRIORITY_HIGH);
-
-            NotificationManagerCompat.from(requireContext()).notify(1, builder.build());
-
-            // Update last notified value
-            prefs.edit().putFloat("last_notified_spent", (float) total).apply();
-        } else if (usagePercent < 90 && lastNotifiedSpent != -1f) {
-            prefs.edit().putFloat("last_notified_spent", -1f).apply(); // Reset notification trigger
-        }
-
         // Show daily or weekly average spend
-        updateAverageSpend("daily");
         btnDaily.setOnClickListener(v -> updateAverageSpend("daily"));
         btnWeekly.setOnClickListener(v -> updateAverageSpend("weekly"));
 
@@ -142,31 +91,78 @@ public class HomeFragment extends Fragment {
             }
         });
 
-        // Calculate totals per category
-        Map<String, Double> categoryTotals = new HashMap<>();
-        for (Expense e : monthlyExpenses) {
-            String category = e.getCategory();
-            categoryTotals.put(category, categoryTotals.getOrDefault(category, 0.0) + e.getAmount());
-        }
+        // Render immediately from cache, or as soon as the background load finishes
+        loadSummary();
+        ExpenseWriteQueue.get(requireContext()).addListener(writeListener);
+        RecurringExpenseEngine.get(requireContext()).addListener(recurringListener);
 
-        // Determine top 3 spending categories
-        List<Map.Entry<String, Double>> sorted = new ArrayList<>(categoryTotals.entrySet());
-        sorted.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+        return view;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        ExpenseWriteQueue.get(requireContext()).removeListener(writeListener);
+        RecurringExpenseEngine.get(requireContext()).removeListener(recurringListener);
+    }
+
+    private void loadSummary() {
+        DashboardSummaryCache.get(requireContext()).load(loaded -> {
+            if (isAdded() && getView() != null) render(loaded);
+        });
+    }
+
+    /**
+     * Fills every home screen widget from the given summary.
+     */
+    private void render(DashboardSummary summary) {
+        this.summary = summary;
+
+        double total = summary.getTotal();
+        double usagePercent = summary.getUsagePercent();
+        int progress = (int) Math.min(usagePercent, 100); // Clamp to 100 for progress bar
 
-        String top1 = sorted.size() > 0 ? sorted.get(0).getKey() : null;
-        String top2 = sorted.size() > 1 ? sorted.get(1).getKey() : null;
-        String top3 = sorted.size() > 2 ? sorted.get(2).getKey() : null;
+        // Display budget status
+        totalSpentText.setText("Total Spent (This Month): $" + String.format("%.2f", total));
+        remainingBudgetText.setText("Remaining Budget: $" + String.format("%.2f", summary.getRemaining()));
+        usagePercentText.setText("Used: " + String.format("%.0f", usagePercent) + "%");
+
+        // Animate progress bar
+        ObjectAnimator animation = ObjectAnimator.ofInt(budgetProgressBar, "progress", 0, progress);
+        animation.setDuration(1000);
+        animation.start();
+
+        updateAverageSpend("daily");
+
+        // Month-end projection, filled in once the forecaster has caught up
+        SpendForecaster.get(requireContext()).forecast(total, summary.getBudget(), forecast -> {
+            if (isAdded() && getView() != null) renderForecast(forecast);
+        });
+
+        // Determine top 3 spending categories
+        List<String> top = summary.getTopCategories();
+        String top1 = top.size() > 0 ? top.get(0) : null;
+        String top2 = top.size() > 1 ? top.get(1) : null;
+        String top3 = top.size() > 2 ? top.get(2) : null;
 
         // Display category breakdown in a vertical list
         categoryBreakdownLayout.removeAllViews();
         categoryBreakdownLayout.setGravity(Gravity.CENTER_HORIZONTAL);
 
-        for (String category : allCategories) {
-            double amount = categoryTotals.getOrDefault(category, 0.0);
-            String icon = categoryIcons.getOrDefault(category, "❔");
+        for (String category : ALL_CATEGORIES) {
+            double amount = summary.getCategoryTotal(category);
+            String icon = CATEGORY_ICONS.getOrDefault(category, "❔");
 
             TextView categoryView = new TextView(getContext());
-            categoryView.setText(icon + " " + category + ": $" + String.format("%.2f", amount));
+            String line = icon + " " + category + ": $" + String.format("%.2f", amount);
+
+            // Categories with their own limit show how much of it is used
+            double categoryUsage = summary.getCategoryUsagePercent(category);
+            if (categoryUsage >= 0) {
+                line += " / $" + String.format("%.2f", summary.getCategoryBudget(category))
+                        + " (" + String.format("%.0f", categoryUsage) + "%)";
+            }
+            categoryView.setText(line);
             categoryView.setPadding(8, 6, 8, 6);
             categoryView.setGravity(Gravity.CENTER);
 
@@ -181,11 +177,28 @@ public class HomeFragment extends Fragment {
             } else {
                 categoryView.setTextSize(15);
             }
+            if (categoryUsage >= 100) {
+                categoryView.setTextColor(0xFFD32F2F); // Over its limit
+            }
 
             categoryBreakdownLayout.addView(categoryView);
         }
+    }
 
-        return view;
+    private void renderForecast(SpendForecaster.Forecast forecast) {
+        String text = "Projected Month-End: $" + String.format("%.2f", forecast.projectedTotal);
+        if (forecast.alreadyOver) {
+            text += "\nBudget already exceeded";
+            forecastText.setTextColor(0xFFD32F2F);
+        } else if (forecast.overrunDay != ExpenseDates.INVALID) {
+            int[] date = ExpenseDates.toCivil(forecast.overrunDay);
+            text += "\nBudget runs out around " + date[2] + "/" + date[1];
+            forecastText.setTextColor(0xFFD32F2F);
+        } else {
+            text += "\nOn track to stay within budget";
+            forecastText.setTextColor(0xFF388E3C);
+        }
+        forecastText.setText(text);
     }
 
     /**
@@ -193,68 +206,12 @@ public class HomeFragment extends Fragment {
      * @param type "daily" or "weekly"
      */
     private void updateAverageSpend(String type) {
-        double total = 0;
-        for (Expense e : monthlyExpenses) {
-            total += e.getAmount();
-        }
-
-        Calendar calendar = Calendar.getInstance();
-        int today = calendar.get(Calendar.DAY_OF_MONTH);
-        double average;
+        if (summary == null) return; // Still loading
 
         if (type.equals("daily")) {
-            average = today == 0 ? 0 : total / today;
-            dailySpendText.setText("Avg Daily Spend: $" + String.format("%.2f", average));
+            dailySpendText.setText("Avg Daily Spend: $" + String.format("%.2f", summary.getDailyAverage()));
         } else {
-            int week = (int) Math.ceil(today / 7.0);
-            average = week == 0 ? 0 : total / week;
-            dailySpendText.setText("Avg Weekly Spend: $" + String.format("%.2f", average));
-        }
-    }
-
-    /**
-     * Filters and returns only this month's expenses.
-     */
-    private List<Expense> getThisMonthExpenses() {
-        List<Expense> filtered = new ArrayList<>();
-        List<Expense> all = db.getAllExpenses();
-
-        Calendar now = Calendar.getInstance();
-        int thisMonth = now.get(Calendar.MONTH);
-        int thisYear = now.get(Calendar.YEAR);
-
-        SimpleDateFormat sdf = new SimpleDateFormat("d/M/yyyy", Locale.getDefault());
-
-        for (Expense e : all) {
-            try {
-                Date date = sdf.parse(e.getDate());
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(date);
-                int month = cal.get(Calendar.MONTH);
-                int year = cal.get(Calendar.YEAR);
-
-                if (month == thisMonth && year == thisYear) {
-                    filtered.add(e);
-                }
-            } catch (Exception ignored) {}
-        }
-
-        return filtered;
-    }
-
-    /**
-     * Creates a notification channel (required for Android O and above).
-     */
-    private void createNotificationChannel() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            CharSequence name = "Budget Alerts";
-            String description = "Notifications for high budget usage";
-            int importance = NotificationManager.IMPORTANCE_HIGH;
-            NotificationChannel channel = new NotificationChannel("budget_channel", name, importance);
-            channel.setDescription(description);
-
-            NotificationManager notificationManager = requireContext().getSystemService(NotificationManager.class);
-            notificationManager.createNotificationChannel(channel);
+            dailySpendText.setText("Avg Weekly Spend: $" + String.format("%.2f", summary.getWeeklyAverage()));
         }
     }
 }
@@ -0,0 +1,184 @@
+package com.example.TrackYourExpenses2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process {@link SyncBackend} used to exercise sync logic without a live service.
+ * Every operation runs on a small worker pool after a configurable delay and can be
+ * made to fail randomly, so sync throughput and retry behavior can be measured on a plain JVM.
+ */
+public class InMemorySyncBackend implements SyncBackend {
+
+    // collectionPath -> (docId -> document)
+    private final Map<String, Map<String, Map<String, Object>>> collections = new ConcurrentHashMap<>();
+    private final Map<String, List<ChangeListener>> listeners = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+    private final Random random;
+
+    private volatile long latencyMillis;   // Simulated round-trip time per operation
+    private volatile double failureRate;   // Probability (0..1) that an operation fails
+
+    public InMemorySyncBackend() {
+        this(0, 0.0, 42L, 4);
+    }
+
+    /**
+     * @param latencyMillis Delay applied to every operation before it completes
+     * @param failureRate Probability that an operation fails with an IOException
+     * @param seed Seed for the failure injection random source
+     * @param threads Number of worker threads delivering results
+     */
+    public InMemorySyncBackend(long latencyMillis, double failureRate, long seed, int threads) {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "InMemorySyncBackend");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    // Returns how many documents are currently stored in a collection
+    public int size(String collectionPath) {
+        Map<String, Map<String, Object>> docs = collections.get(collectionPath);
+        return docs == null ? 0 : docs.size();
+    }
+
+    // Stops the worker pool; pending operations are still completed
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public void fetchCollection(String collectionPath, Callback<Map<String, Map<String, Object>>> callback) {
+        run(callback, () -> snapshot(collectionPath));
+    }
+
+    @Override
+    public void fetchDocument(String collectionPath, String docId, Callback<Map<String, Object>> callback) {
+        run(callback, () -> {
+            Map<String, Object> doc = collection(collectionPath).get(docId);
+            return doc == null ? null : new HashMap<>(doc);
+        });
+    }
+
+    @Override
+    public void writeBatch(String collectionPath, List<WriteOp> ops, Callback<Void> callback) {
+        if (ops.size() > MAX_BATCH_SIZE) {
+            callback.onFailure(new IllegalArgumentException("Batch too large: " + ops.size()));
+            return;
+        }
+
+        // Copy the ops so later mutations by the caller don't leak into the store
+        List<WriteOp> copy = new ArrayList<>(ops);
+        run(callback, () -> {
+            Map<String, Map<String, Object>> docs = collection(collectionPath);
+            synchronized (docs) {
+                for (WriteOp op : copy) {
+                    if (op.isDelete()) {
+                        docs.remove(op.getDocId());
+                    } else if (op.isMerge() && docs.containsKey(op.getDocId())) {
+                        Map<String, Object> merged = new HashMap<>(docs.get(op.getDocId()));
+                        merged.putAll(op.getData());
+                        docs.put(op.getDocId(), merged);
+                    } else {
+                        docs.put(op.getDocId(), new HashMap<>(op.getData()));
+                    }
+                }
+            }
+            notifyListeners(collectionPath);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(String collectionPath, String docId, Callback<Void> callback) {
+        run(callback, () -> {
+            collection(collectionPath).remove(docId);
+            notifyListeners(collectionPath);
+            return null;
+        });
+    }
+
+    @Override
+    public Registration addChangeListener(String collectionPath, ChangeListener listener) {
+        listeners.computeIfAbsent(collectionPath, k -> new CopyOnWriteArrayList<>()).add(listener);
+        executor.execute(() -> listener.onChanged(snapshot(collectionPath)));
+        return () -> {
+            List<ChangeListener> list = listeners.get(collectionPath);
+            if (list != null) list.remove(listener);
+        };
+    }
+
+    // Operation body executed on the worker pool
+    private interface Operation<T> {
+        T apply() throws Exception;
+    }
+
+    // Runs an operation after the configured latency, injecting failures as configured
+    private <T> void run(Callback<T> callback, Operation<T> operation) {
+        executor.execute(() -> {
+            try {
+                long delay = latencyMillis;
+                if (delay > 0) Thread.sleep(delay);
+
+                boolean fail;
+                synchronized (random) {
+                    fail = failureRate > 0 && random.nextDouble() < failureRate;
+                }
+                if (fail) {
+                    callback.onFailure(new IOException("Injected failure"));
+                    return;
+                }
+
+                callback.onSuccess(operation.apply());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                callback.onFailure(e);
+            } catch (Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    private Map<String, Map<String, Object>> collection(String collectionPath) {
+        return collections.computeIfAbsent(collectionPath, k -> new ConcurrentHashMap<>());
+    }
+
+    private Map<String, Map<String, Object>> snapshot(String collectionPath) {
+        Map<String, Map<String, Object>> copy = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : collection(collectionPath).entrySet()) {
+            copy.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private void notifyListeners(String collectionPath) {
+        List<ChangeListener> list = listeners.get(collectionPath);
+        if (list == null || list.isEmpty()) return;
+
+        Map<String, Map<String, Object>> snapshot = snapshot(collectionPath);
+        for (ChangeListener listener : list) {
+            listener.onChanged(snapshot);
+        }
+    }
+}
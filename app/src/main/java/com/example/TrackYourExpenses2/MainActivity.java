@@ -41,6 +41,28 @@ public class MainActivity extends AppCompatActivity {
         // Initialize the bottom navigation view
         bottomNavigationView = findViewById(R.id.bottom_navigation);
 
+        // Start computing this month's dashboard figures in the background
+        DashboardSummaryCache.get(this).warmUp();
+
+        // Watch every write for budget thresholds (also catches a month rollover since last run)
+        BudgetAlertEngine.get(this).evaluate();
+
+        // Notify about unusually large expenses as they are saved or synced in
+        AnomalyNotifier.get(this);
+
+        // Load (or first build) the add form's suggestions and keep them current with every write
+        SuggestionIndex.get(this);
+
+        // Finish saves left in the outbox by a previous run, or whose cloud write failed
+        ExpenseWriteQueue.get(this).resume();
+
+        // Write recurring expenses that have come due since the last run
+        RecurringExpenseEngine.get(this).materializeDue();
+
+        // Remove receipt files no expense refers to any more (at most once a day)
+        ReceiptStore.get(this).collectGarbageIfDue();
+        ReceiptStore.get(this).trimToBudget();
+
         // Load HomeFragment by default on app start
         getSupportFragmentManager().beginTransaction()
                 .replace(R.id.fragment_container, new HomeFragment())
@@ -56,8 +78,11 @@ public class MainActivity extends AppCompatActivity {
             syncHelper.syncFirebaseToLocal();
             syncHelper.syncLocalToFirebase();
 
-            // Also fetch user's monthly budget from the cloud
-            FirebaseSyncHelper.syncBudgetFromFirebase(this);
+            // Keep the cached profile (budget) current with the cloud while signed in
+            UserProfileStore.get(this).startListening();
+
+            // Continue any receipt uploads interrupted by the last session
+            ReceiptUploadQueue.get(this).resumePending();
         }
 
         // Set up listener to handle bottom nav item clicks
@@ -86,4 +111,12 @@ public class MainActivity extends AppCompatActivity {
             return true; // Navigation handled
         });
     }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        // Save the suggestions now; the process may be killed before the delayed save runs
+        SuggestionIndex.get(this).flush();
+    }
 }
@@ -0,0 +1,145 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link SyncBackend} decorator that records every call into a {@link SyncRunStats}.
+ * Tracks outstanding operations so the run is finished only after the last callback,
+ * including retries issued from inside a failure callback.
+ */
+public class MeteredSyncBackend implements SyncBackend {
+
+    // Notified once when a sealed run has no operations left in flight
+    public interface OnRunFinished {
+        void onRunFinished(SyncRunStats stats);
+    }
+
+    private final SyncBackend delegate;
+    private final SyncRunStats stats;
+    private final OnRunFinished onFinished;
+
+    private int pending;          // Operations started but not yet completed
+    private boolean sealed;       // No new top-level operations will be started
+    private boolean finished;
+
+    public MeteredSyncBackend(SyncBackend delegate, SyncRunStats stats, OnRunFinished onFinished) {
+        this.delegate = delegate;
+        this.stats = stats;
+        this.onFinished = onFinished;
+    }
+
+    public SyncRunStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Marks the end of the run. It is finished as soon as all outstanding operations complete.
+     */
+    public void seal() {
+        synchronized (this) {
+            sealed = true;
+        }
+        finishIfIdle();
+    }
+
+    @Override
+    public void fetchCollection(String collectionPath, Callback<Map<String, Map<String, Object>>> callback) {
+        begin();
+        delegate.fetchCollection(collectionPath, wrap(callback, documents -> {
+            long bytes = 0;
+            for (Map.Entry<String, Map<String, Object>> doc : documents.entrySet()) {
+                bytes += SyncRunStats.estimateSize(doc.getKey(), doc.getValue());
+            }
+            stats.addRead(documents.size(), bytes);
+        }));
+    }
+
+    @Override
+    public void fetchDocument(String collectionPath, String docId, Callback<Map<String, Object>> callback) {
+        begin();
+        delegate.fetchDocument(collectionPath, docId, wrap(callback, doc ->
+                stats.addRead(1, SyncRunStats.estimateSize(docId, doc))));
+    }
+
+    @Override
+    public void writeBatch(String collectionPath, List<WriteOp> ops, Callback<Void> callback) {
+        begin();
+        delegate.writeBatch(collectionPath, ops, wrap(callback, unused -> {
+            int written = 0;
+            int deleted = 0;
+            long bytes = 0;
+            for (WriteOp op : ops) {
+                if (op.isDelete()) {
+                    deleted++;
+                } else {
+                    written++;
+                    bytes += SyncRunStats.estimateSize(op.getDocId(), op.getData());
+                }
+            }
+            stats.addBatch(written, deleted, bytes);
+        }));
+    }
+
+    @Override
+    public void delete(String collectionPath, String docId, Callback<Void> callback) {
+        begin();
+        delegate.delete(collectionPath, docId, wrap(callback, unused -> stats.addBatch(0, 1, 0)));
+    }
+
+    @Override
+    public Registration addChangeListener(String collectionPath, ChangeListener listener) {
+        // Listeners outlive a run, so they are passed through without being counted
+        return delegate.addChangeListener(collectionPath, listener);
+    }
+
+    // Records the outcome of an operation, then forwards it
+    private interface Recorder<T> {
+        void record(T result);
+    }
+
+    private <T> Callback<T> wrap(Callback<T> callback, Recorder<T> recorder) {
+        return new Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                recorder.record(result);
+                try {
+                    callback.onSuccess(result);
+                } finally {
+                    end();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                stats.addFailure(e);
+                // Forward first: a retry started here must be counted before this op ends
+                try {
+                    callback.onFailure(e);
+                } finally {
+                    end();
+                }
+            }
+        };
+    }
+
+    private synchronized void begin() {
+        pending++;
+    }
+
+    private void end() {
+        synchronized (this) {
+            pending--;
+        }
+        finishIfIdle();
+    }
+
+    private void finishIfIdle() {
+        synchronized (this) {
+            if (!sealed || pending > 0 || finished) return;
+            finished = true;
+        }
+        stats.finish();
+        if (onFinished != null) onFinished.onRunFinished(stats);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Comparison of two periods of whole months (A is the period of interest, B the one it is compared with).
+ * Built purely from monthly rollups: per-category totals and deltas, and month-by-month totals
+ * where the i-th month of A is lined up with the i-th month of B.
+ */
+public class PeriodComparison {
+
+    // One line of the comparison: a label and the two periods' totals
+    public static final class Row {
+        public final String label;
+        public final double totalA;
+        public final double totalB;
+
+        Row(String label, double totalA, double totalB) {
+            this.label = label;
+            this.totalA = totalA;
+            this.totalB = totalB;
+        }
+
+        public double getDelta() {
+            return totalA - totalB;
+        }
+
+        // Change relative to B in percent, or NaN when B is zero
+        public double getPercentChange() {
+            return totalB == 0 ? Double.NaN : (totalA - totalB) / totalB * 100;
+        }
+    }
+
+    private final int fromA, toA, fromB, toB;    // Month keys, inclusive
+    private final Row total;
+    private final List<Row> categories;          // Largest absolute change first
+    private final List<Row> months;              // In calendar order of period A
+
+    /**
+     * @param rollups month key -> category -> total, covering at least both periods
+     */
+    PeriodComparison(int fromA, int toA, int fromB, int toB, Map<Integer, Map<String, Double>> rollups,
+                     String[] monthNames) {
+        this.fromA = fromA;
+        this.toA = toA;
+        this.fromB = fromB;
+        this.toB = toB;
+
+        TreeSet<String> names = new TreeSet<>();
+        for (int m = fromA; m <= toA; m++) addNames(rollups.get(m), names);
+        for (int m = fromB; m <= toB; m++) addNames(rollups.get(m), names);
+
+        List<Row> categoryRows = new ArrayList<>();
+        double sumA = 0, sumB = 0;
+        for (String category : names) {
+            double a = sum(rollups, fromA, toA, category);
+            double b = sum(rollups, fromB, toB, category);
+            categoryRows.add(new Row(category, a, b));
+            sumA += a;
+            sumB += b;
+        }
+        categoryRows.sort((x, y) -> Double.compare(Math.abs(y.getDelta()), Math.abs(x.getDelta())));
+        this.categories = Collections.unmodifiableList(categoryRows);
+        this.total = new Row("Total", sumA, sumB);
+
+        List<Row> monthRows = new ArrayList<>();
+        int length = Math.max(toA - fromA, toB - fromB) + 1;
+        for (int i = 0; i < length; i++) {
+            int monthA = fromA + i, monthB = fromB + i;
+            String label = (monthA <= toA ? label(monthA, monthNames) : "–") + " vs "
+                    + (monthB <= toB ? label(monthB, monthNames) : "–");
+            monthRows.add(new Row(label,
+                    monthA <= toA ? sum(rollups, monthA, monthA, null) : 0,
+                    monthB <= toB ? sum(rollups, monthB, monthB, null) : 0));
+        }
+        this.months = Collections.unmodifiableList(monthRows);
+    }
+
+    public int getFromA() {
+        return fromA;
+    }
+
+    public int getToA() {
+        return toA;
+    }
+
+    public int getFromB() {
+        return fromB;
+    }
+
+    public int getToB() {
+        return toB;
+    }
+
+    public Row getTotal() {
+        return total;
+    }
+
+    public List<Row> getCategories() {
+        return categories;
+    }
+
+    public List<Row> getMonths() {
+        return months;
+    }
+
+    // "Oct 2026"
+    static String label(int monthKey, String[] monthNames) {
+        return monthNames[ExpenseDates.monthOfMonthKey(monthKey) - 1] + " " + ExpenseDates.yearOfMonthKey(monthKey);
+    }
+
+    private static void addNames(Map<String, Double> totals, TreeSet<String> names) {
+        if (totals != null) names.addAll(totals.keySet());
+    }
+
+    // Total of one category (or all, if null) over a month range
+    private static double sum(Map<Integer, Map<String, Double>> rollups, int from, int to, String category) {
+        double sum = 0;
+        for (int m = from; m <= to; m++) {
+            Map<String, Double> totals = rollups.get(m);
+            if (totals == null) continue;
+            if (category == null) {
+                for (double value : totals.values()) sum += value;
+            } else {
+                Double value = totals.get(category);
+                if (value != null) sum += value;
+            }
+        }
+        return sum;
+    }
+}
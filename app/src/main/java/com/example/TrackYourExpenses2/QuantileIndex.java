@@ -0,0 +1,150 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Per-month, per-category {@link QuantileSketch}es of expense sizes.
+ * Loaded once in the background from the stored histogram (never from raw expenses), then kept
+ * current by {@link ExpenseDatabase} changes. Any period's distribution is the merge of its months.
+ */
+public class QuantileIndex implements ExpenseDatabase.ExpenseChangeListener {
+
+    // Receives the loaded index on the main thread
+    public interface OnIndexReadyListener {
+        void onIndexReady(QuantileIndex index);
+    }
+
+    private static QuantileIndex instance;
+
+    private final ExpenseDatabase db;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // month key -> category -> sketch, valid only while loaded is true
+    private final Map<Integer, Map<String, QuantileSketch>> sketches = new HashMap<>();
+    private boolean loaded;
+    private boolean loading;
+    private boolean dirty;        // A write arrived while loading, so the load must be redone
+
+    public static synchronized QuantileIndex get(Context context) {
+        if (instance == null) {
+            instance = new QuantileIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private QuantileIndex(Context context) {
+        db = ExpenseDatabase.get(context);
+        ExpenseDatabase.addChangeListener(this);
+    }
+
+    /**
+     * Delivers the index, immediately if already loaded, otherwise after a background load.
+     */
+    public void load(OnIndexReadyListener listener) {
+        synchronized (this) {
+            if (loaded) {
+                listener.onIndexReady(this);
+                return;
+            }
+        }
+        executor.execute(() -> {
+            rebuild();
+            mainHandler.post(() -> listener.onIndexReady(this));
+        });
+    }
+
+    /**
+     * Merged sketch per category over a range of months (inclusive); categories without expenses are left out.
+     */
+    public synchronized Map<String, QuantileSketch> categorySketches(int fromMonth, int toMonth) {
+        Map<String, QuantileSketch> merged = new HashMap<>();
+        for (int month = fromMonth; month <= toMonth; month++) {
+            Map<String, QuantileSketch> categories = sketches.get(month);
+            if (categories == null) continue;
+
+            for (Map.Entry<String, QuantileSketch> entry : categories.entrySet()) {
+                QuantileSketch sketch = merged.get(entry.getKey());
+                if (sketch == null) merged.put(entry.getKey(), sketch = new QuantileSketch());
+                sketch.merge(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    // Runs on the executor: reads the stored buckets and rebuilds the sketches
+    private void rebuild() {
+        while (true) {
+            synchronized (this) {
+                if (loaded) return;
+                loading = true;
+                dirty = false;
+            }
+
+            Map<Integer, Map<String, QuantileSketch>> loadedSketches = new HashMap<>();
+            for (ExpenseDatabase.HistogramBucket row : db.getSpendHistogram()) {
+                sketchFor(loadedSketches, row.monthKey, row.category).addToBucket(row.bucket, row.count);
+            }
+
+            synchronized (this) {
+                loading = false;
+                if (dirty) continue; // A write raced with the query; load again
+
+                sketches.clear();
+                sketches.putAll(loadedSketches);
+                loaded = true;
+                return;
+            }
+        }
+    }
+
+    private static QuantileSketch sketchFor(Map<Integer, Map<String, QuantileSketch>> sketches, int month, String category) {
+        Map<String, QuantileSketch> categories = sketches.get(month);
+        if (categories == null) sketches.put(month, categories = new HashMap<>());
+        QuantileSketch sketch = categories.get(category);
+        if (sketch == null) categories.put(category, sketch = new QuantileSketch());
+        return sketch;
+    }
+
+    // Adds or removes one expense's amount in its month's sketch
+    private synchronized void apply(Expense e, boolean add) {
+        if (loading) {
+            dirty = true;
+            return;
+        }
+        if (!loaded) return;
+
+        int epochDay = ExpenseDates.toEpochDay(e.getDate());
+        if (epochDay == ExpenseDates.INVALID) return;
+
+        QuantileSketch sketch = sketchFor(sketches, ExpenseDates.monthKey(epochDay), e.getCategory());
+        if (add) {
+            sketch.add(e.getAmount());
+        } else {
+            sketch.remove(e.getAmount());
+        }
+    }
+
+    @Override
+    public void onExpenseInserted(Expense expense, long write) {
+        apply(expense, true);
+    }
+
+    @Override
+    public void onExpenseDeleted(Expense expense, long write) {
+        apply(expense, false);
+    }
+
+    @Override
+    public void onExpenseUpdated(Expense oldExpense, Expense newExpense, long write) {
+        apply(oldExpense, false);
+        apply(newExpense, true);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mergeable sketch of a distribution of expense amounts (a DDSketch).
+ * Amounts are counted in logarithmic buckets, so any quantile is estimated within
+ * {@link #RELATIVE_ACCURACY} of the true value. Two sketches merge by adding bucket counts,
+ * and an amount can be removed again, which lets deletes and edits be applied exactly.
+ */
+public class QuantileSketch {
+
+    // Estimates are within 1% of the true quantile
+    static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    // Amounts below a cent share one bucket, reported as 0
+    static final int ZERO_BUCKET = Integer.MIN_VALUE;
+    private static final double MIN_AMOUNT = 0.005;
+
+    private final TreeMap<Integer, Long> counts = new TreeMap<>();
+    private long count;
+
+    /**
+     * Bucket an amount is counted in.
+     */
+    public static int bucketOf(double amount) {
+        if (amount < MIN_AMOUNT) return ZERO_BUCKET;
+        return (int) Math.ceil(Math.log(amount) / LOG_GAMMA);
+    }
+
+    // Representative amount of a bucket (the value with the smallest relative error to its range)
+    static double valueOf(int bucket) {
+        if (bucket == ZERO_BUCKET) return 0;
+        return 2 * Math.pow(GAMMA, bucket) / (GAMMA + 1);
+    }
+
+    public void add(double amount) {
+        addToBucket(bucketOf(amount), 1);
+    }
+
+    public void remove(double amount) {
+        addToBucket(bucketOf(amount), -1);
+    }
+
+    /**
+     * Adjusts one bucket's count; a count that drops to zero removes the bucket.
+     */
+    public void addToBucket(int bucket, long delta) {
+        Long stored = counts.get(bucket);
+        long current = stored == null ? 0 : stored;
+        long updated = Math.max(0, current + delta); // Counts never go below zero
+
+        if (updated == 0) {
+            counts.remove(bucket);
+        } else {
+            counts.put(bucket, updated);
+        }
+        count += updated - current;
+    }
+
+    public void merge(QuantileSketch other) {
+        for (Map.Entry<Integer, Long> entry : other.counts.entrySet()) {
+            addToBucket(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimated amount at quantile q (0 = smallest, 0.5 = median, 1 = largest), or 0 if empty.
+     */
+    public double quantile(double q) {
+        if (count == 0) return 0;
+
+        long rank = (long) Math.floor(Math.max(0, Math.min(1, q)) * (count - 1));
+        long seen = 0;
+        for (Map.Entry<Integer, Long> entry : counts.entrySet()) {
+            seen += entry.getValue();
+            if (seen > rank) return valueOf(entry.getKey());
+        }
+        return valueOf(counts.lastKey());
+    }
+}
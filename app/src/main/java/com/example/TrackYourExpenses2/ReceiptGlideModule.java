@@ -0,0 +1,43 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.module.AppGlideModule;
+
+/**
+ * Glide cache budgets for receipt images.
+ * The history list shows many small thumbnails, so the memory cache holds a few screens of them
+ * and the bitmap pool is sized to recycle them while scrolling. The disk cache keeps downsized
+ * copies of receipts that only exist in the cloud, so they aren't downloaded again.
+ */
+@GlideModule
+public final class ReceiptGlideModule extends AppGlideModule {
+
+    // Downsized cloud receipts kept on disk
+    private static final long DISK_CACHE_BYTES = 100L * 1024 * 1024;
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context)
+                .setMemoryCacheScreens(3)   // Visible rows plus what the preloader fetches ahead
+                .setBitmapPoolScreens(2)
+                .build();
+        builder.setMemoryCache(new LruResourceCache(calculator.getMemoryCacheSize()));
+        builder.setBitmapPool(new LruBitmapPool(calculator.getBitmapPoolSize()));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, "receipt_cache", DISK_CACHE_BYTES));
+    }
+
+    // Modules are declared in code only, so the manifest isn't scanned
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Turns a picked image into a stored receipt off the main thread.
+ * The image is decoded with sampling (never at full resolution when it is much larger than needed),
+ * scaled so its longest edge is at most {@link #getMaxEdge()}, re-encoded as JPEG at
+ * {@link #getQuality()}, and a small thumbnail is written alongside it for lists.
+ * Both are then handed to {@link ReceiptStore}, which files them under their content hash.
+ */
+public class ReceiptIngestor {
+
+    private static final String TAG = "ReceiptIngest";
+
+    // Receives progress and the outcome of an ingestion on the main thread
+    public interface OnIngestListener {
+        void onProgress(int percent);
+
+        void onIngested(String imagePath);
+
+        void onFailed(Exception e);
+    }
+
+    // Reports progress (0-100) on the ingesting thread
+    interface ProgressListener {
+        void onProgress(int percent);
+    }
+
+    static final int DEFAULT_MAX_EDGE = 1600;
+    static final int DEFAULT_QUALITY = 80;
+
+    // Thumbnails are sized for the history list icons
+    static final int THUMBNAIL_EDGE = 192;
+    private static final int THUMBNAIL_QUALITY = 70;
+
+    // Persisted in AppPrefs
+    private static final String PREF_MAX_EDGE = "receipt_max_edge";
+    private static final String PREF_QUALITY = "receipt_quality";
+
+    private static ReceiptIngestor instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Ingestions started by ingest() and not finished yet, so a save can wait for one instead of repeating it
+    private final Map<Uri, Future<String>> inFlight = new ConcurrentHashMap<>();
+
+    public static synchronized ReceiptIngestor get(Context context) {
+        if (instance == null) {
+            instance = new ReceiptIngestor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ReceiptIngestor(Context context) {
+        this.context = context;
+        this.prefs = context.getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
+    }
+
+    public int getMaxEdge() {
+        return prefs.getInt(PREF_MAX_EDGE, DEFAULT_MAX_EDGE);
+    }
+
+    public int getQuality() {
+        return prefs.getInt(PREF_QUALITY, DEFAULT_QUALITY);
+    }
+
+    /**
+     * Sets the longest edge (pixels) and JPEG quality (1-100) used for receipts ingested from now on.
+     */
+    public void setLimits(int maxEdge, int quality) {
+        prefs.edit()
+                .putInt(PREF_MAX_EDGE, Math.max(THUMBNAIL_EDGE, maxEdge))
+                .putInt(PREF_QUALITY, Math.max(1, Math.min(100, quality)))
+                .apply();
+    }
+
+    /**
+     * Ingests an image in the background, reporting progress and the stored path on the main thread.
+     */
+    public void ingest(Uri source, OnIngestListener listener) {
+        FutureTask<String> task = new FutureTask<String>(() -> {
+            try {
+                String path = ingestNow(source, percent -> mainHandler.post(() -> listener.onProgress(percent)));
+                mainHandler.post(() -> listener.onIngested(path));
+                return path;
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Failed to ingest " + source, e);
+                mainHandler.post(() -> listener.onFailed(e));
+                throw e;
+            }
+        }) {
+            @Override
+            protected void done() {
+                inFlight.remove(source, this);
+            }
+        };
+        inFlight.put(source, task);
+        executor.execute(task);
+    }
+
+    /**
+     * Returns the stored path for an image on the calling thread (never the main thread),
+     * waiting for an ingestion of the same image that is already running rather than starting another.
+     */
+    String awaitIngested(Uri source) throws IOException {
+        Future<String> running = inFlight.get(source);
+        if (running == null) return ingestNow(source, null);
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not ingest " + source, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while ingesting " + source, e);
+        }
+    }
+
+    /**
+     * Ingests an image on the calling thread (never the main thread) and returns the stored path.
+     */
+    String ingestNow(Uri source, @Nullable ProgressListener progress) throws IOException {
+        int maxEdge = getMaxEdge();
+
+        // Read only the dimensions first, to pick a sample size
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(source)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) throw new IOException("Not an image: " + source);
+        report(progress, 10);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, maxEdge);
+        Bitmap decoded;
+        try (InputStream in = open(source)) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (decoded == null) throw new IOException("Could not decode " + source);
+        report(progress, 50);
+
+        Bitmap image = orient(scaleDown(decoded, maxEdge), readOrientation(source));
+        report(progress, 70);
+
+        // Encoded under temporary names; the store renames them to the content hash
+        File dir = ReceiptStore.receiptDir(context);
+        String name = "ingest_" + System.nanoTime();
+        File imageFile = new File(dir, name + ".tmp");
+        File thumbnailFile = new File(dir, name + "_thumb.tmp");
+        try {
+            writeJpeg(image, getQuality(), imageFile);
+            report(progress, 80);
+
+            Bitmap thumbnail = scaleDown(image, THUMBNAIL_EDGE);
+            writeJpeg(thumbnail, THUMBNAIL_QUALITY, thumbnailFile);
+            if (thumbnail != image) thumbnail.recycle();
+            report(progress, 90);
+
+            String path = ReceiptStore.get(context).store(imageFile, thumbnailFile);
+            report(progress, 100);
+            return path;
+        } finally {
+            image.recycle();
+            imageFile.delete();      // No-ops once the store has moved them
+            thumbnailFile.delete();
+        }
+    }
+
+    // Largest power of two that keeps the decoded longest edge at or above maxEdge
+    static int sampleSize(int width, int height, int maxEdge) {
+        int longest = Math.max(width, height);
+        int sample = 1;
+        while (longest / (sample * 2) >= maxEdge) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    // Scales a bitmap so its longest edge is at most maxEdge; smaller bitmaps are returned as they are
+    private static Bitmap scaleDown(Bitmap bitmap, int maxEdge) {
+        int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longest <= maxEdge) return bitmap;
+
+        float scale = (float) maxEdge / longest;
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    // Camera photos are often stored sideways with an EXIF rotation; re-encoding would drop it
+    private int readOrientation(Uri source) {
+        try (InputStream in = open(source)) {
+            return new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static Bitmap orient(Bitmap bitmap, int orientation) {
+        int degrees;
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90: degrees = 90; break;
+            case ExifInterface.ORIENTATION_ROTATE_180: degrees = 180; break;
+            case ExifInterface.ORIENTATION_ROTATE_270: degrees = 270; break;
+            default: return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) bitmap.recycle();
+        return rotated;
+    }
+
+    private static void writeJpeg(Bitmap bitmap, int quality, File target) throws IOException {
+        try (OutputStream out = new FileOutputStream(target)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                throw new IOException("Could not encode " + target.getName());
+            }
+        }
+    }
+
+    private InputStream open(Uri source) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(source);
+        if (in == null) throw new IOException("Could not open " + source);
+        return in;
+    }
+
+    private static void report(@Nullable ProgressListener progress, int percent) {
+        if (progress != null) progress.onProgress(percent);
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Content-addressed storage for receipt images.
+ * Each image is stored once as receipts/{sha256}.jpg with its thumbnail under receipts/thumbs,
+ * so saving the same receipt twice shares one file. Expenses reference files through the counts
+ * kept by {@link ExpenseDatabase}; the garbage collector removes files nothing refers to any more,
+ * including the timestamp-named receipts saved before this store existed.
+ * Receipts are also kept within a storage budget: once it is exceeded, the least recently viewed
+ * originals that already have a cloud copy are deleted a few at a time, keeping their thumbnails,
+ * and are shown from the cloud when opened again.
+ */
+public class ReceiptStore {
+
+    private static final String TAG = "ReceiptStore";
+
+    // Receives storage usage on the main thread
+    public interface OnUsageListener {
+        void onUsage(Usage usage);
+    }
+
+    // Receives what to load to show a receipt, on the main thread
+    public interface OnReceiptReadyListener {
+        void onReceiptReady(Object model);
+    }
+
+    // Receives the outcome of a collection on the main thread
+    public interface OnCollectedListener {
+        void onCollected(int removedFiles, long freedBytes);
+    }
+
+    /**
+     * Bytes and files used by receipts on this device.
+     */
+    public static final class Usage {
+        public final int imageCount;
+        public final long imageBytes;
+        public final long thumbnailBytes;
+
+        Usage(int imageCount, long imageBytes, long thumbnailBytes) {
+            this.imageCount = imageCount;
+            this.imageBytes = imageBytes;
+            this.thumbnailBytes = thumbnailBytes;
+        }
+    }
+
+    private static final String RECEIPT_DIR = "receipts";
+    private static final String THUMBNAIL_DIR = "thumbs";
+
+    // Collections run at most this often on their own
+    static final long GC_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+    // Files this recent may belong to an expense that is still being saved, so they are kept
+    static final long GRACE_PERIOD_MS = 60 * 60 * 1000L;
+
+    // Storage budget for originals and thumbnails together; 0 means no limit
+    static final long DEFAULT_BUDGET_BYTES = 250L * 1024 * 1024;
+    public static final long UNLIMITED = 0;
+
+    // Originals evicted per step; other work on the executor runs between steps
+    static final int EVICTION_BATCH = 10;
+
+    // Persisted in AppPrefs
+    private static final String PREF_LAST_GC = "receipt_gc_last_run";
+    private static final String PREF_BUDGET = "receipt_storage_budget";
+
+    private static ReceiptStore instance;
+
+    private final Context context;
+    private final ExpenseDatabase db;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Set while an eviction pass is queued or running, so passes don't pile up
+    private final AtomicBoolean trimming = new AtomicBoolean();
+
+    public static synchronized ReceiptStore get(Context context) {
+        if (instance == null) {
+            instance = new ReceiptStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ReceiptStore(Context context) {
+        this.context = context;
+        this.db = ExpenseDatabase.get(context);
+        this.prefs = context.getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Moves a freshly encoded image and its thumbnail to the image's content address.
+     * If the same image is already stored, the new copies are dropped and the stored one is reused.
+     * @return Absolute path of the stored image
+     */
+    synchronized String store(File image, File thumbnail) throws IOException {
+        String hash = ReceiptUploadQueue.sha256(image);
+        File target = new File(receiptDir(context), hash + ".jpg");
+        File targetThumbnail = thumbnailFile(context, target.getAbsolutePath());
+        moveOrDrop(image, target);
+        moveOrDrop(thumbnail, targetThumbnail);
+
+        // Restart the grace period, in case the stored copy was unreferenced and about to be collected
+        long now = System.currentTimeMillis();
+        target.setLastModified(now);
+        targetThumbnail.setLastModified(now);
+
+        // Saves the upload queue from hashing the file again; a new receipt counts as just viewed
+        db.saveReceiptHash(target.getAbsolutePath(), hash);
+        db.saveReceiptViewed(target.getAbsolutePath(), now);
+        db.saveReceiptEvicted(target.getAbsolutePath(), false);
+
+        trimToBudget();
+        return target.getAbsolutePath();
+    }
+
+    private static void moveOrDrop(File source, File target) throws IOException {
+        if (target.exists()) {
+            source.delete();
+        } else if (!source.renameTo(target)) {
+            source.delete();
+            throw new IOException("Could not store " + target.getName());
+        }
+    }
+
+    /**
+     * Thumbnail of a stored receipt; it may not exist for receipts saved before thumbnails were made.
+     */
+    static File thumbnailFile(Context context, String imagePath) {
+        File dir = new File(receiptDir(context), THUMBNAIL_DIR);
+        if (!dir.exists()) dir.mkdirs();
+        return new File(dir, new File(imagePath).getName());
+    }
+
+    static File receiptDir(Context context) {
+        File dir = new File(context.getFilesDir(), RECEIPT_DIR);
+        if (!dir.exists()) dir.mkdirs();
+        return dir;
+    }
+
+    public long getBudget() {
+        return prefs.getLong(PREF_BUDGET, DEFAULT_BUDGET_BYTES);
+    }
+
+    /**
+     * Sets the receipt storage budget in bytes ({@link #UNLIMITED} for none) and trims to it.
+     */
+    public void setBudget(long bytes) {
+        prefs.edit().putLong(PREF_BUDGET, Math.max(UNLIMITED, bytes)).apply();
+        trimToBudget();
+    }
+
+    /**
+     * Finds what to show for a receipt in the background: the local original, or its cloud copy
+     * if the original was evicted. Opening a receipt also moves it to the back of the eviction order.
+     */
+    public void openReceipt(String imageUrl, OnReceiptReadyListener listener) {
+        if (!ReceiptUploadQueue.isLocalReceipt(imageUrl)) {
+            listener.onReceiptReady(imageUrl);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        executor.execute(() -> {
+            db.saveReceiptViewed(imageUrl, now);
+
+            File file = new File(imageUrl);
+            String remoteUrl = file.exists() ? null : db.getReceiptRemoteUrl(imageUrl);
+            Object model = remoteUrl != null ? remoteUrl : file;
+            mainHandler.post(() -> listener.onReceiptReady(model));
+        });
+    }
+
+    /**
+     * Evicts originals in the background until receipts fit the budget again.
+     */
+    public void trimToBudget() {
+        if (!trimming.compareAndSet(false, true)) return;
+        executor.execute(() -> trimStep(-1));
+    }
+
+    // Runs on the executor: evicts one batch and queues the next while still over budget.
+    // Usage is measured once per pass and then reduced by what each batch freed.
+    private void trimStep(long usedBytes) {
+        long budget = getBudget();
+        if (usedBytes < 0) {
+            Usage usage = measure();
+            usedBytes = usage.imageBytes + usage.thumbnailBytes;
+        }
+        if (budget == UNLIMITED || usedBytes <= budget) {
+            trimming.set(false);
+            return;
+        }
+
+        List<String> candidates = db.getEvictableReceipts(EVICTION_BATCH);
+        if (candidates.isEmpty()) {
+            // The rest is waiting for upload (or is thumbnails); the next pass will retry
+            Log.d(TAG, "Over budget by " + (usedBytes - budget) + " bytes with nothing left to evict");
+            trimming.set(false);
+            return;
+        }
+
+        long remaining = usedBytes - evict(candidates);
+        executor.execute(() -> trimStep(remaining));
+    }
+
+    // Deletes originals that have a cloud copy; holds the lock so store() can't reuse one mid-eviction
+    private synchronized long evict(List<String> paths) {
+        long freed = 0;
+        for (String path : paths) {
+            File file = new File(path);
+            long size = file.length();
+            if (file.delete()) freed += size;
+
+            // Marked even if the delete failed, so the same file isn't picked again
+            db.saveReceiptEvicted(path, true);
+        }
+        Log.d(TAG, "Evicted " + paths.size() + " originals, " + freed + " bytes");
+        return freed;
+    }
+
+    /**
+     * Starts a background collection if the last one was more than {@link #GC_INTERVAL_MS} ago.
+     */
+    public void collectGarbageIfDue() {
+        long lastRun = prefs.getLong(PREF_LAST_GC, 0);
+        if (System.currentTimeMillis() - lastRun < GC_INTERVAL_MS) return;
+        executor.execute(this::collect);
+    }
+
+    /**
+     * Removes every receipt file no expense refers to, in the background.
+     */
+    public void collectGarbage(OnCollectedListener listener) {
+        executor.execute(() -> {
+            long[] result = collect();
+            mainHandler.post(() -> listener.onCollected((int) result[0], result[1]));
+        });
+    }
+
+    /**
+     * Measures receipt storage in the background.
+     */
+    public void getUsage(OnUsageListener listener) {
+        executor.execute(() -> {
+            Usage usage = measure();
+            mainHandler.post(() -> listener.onUsage(usage));
+        });
+    }
+
+    private Usage measure() {
+        int imageCount = 0;
+        long imageBytes = 0;
+        for (File file : imageFiles()) {
+            imageCount++;
+            imageBytes += file.length();
+        }
+        long thumbnailBytes = 0;
+        for (File file : listFiles(new File(receiptDir(context), THUMBNAIL_DIR))) {
+            thumbnailBytes += file.length();
+        }
+        return new Usage(imageCount, imageBytes, thumbnailBytes);
+    }
+
+    // Runs on the executor; returns {files removed, bytes freed}. Holds the lock so a file
+    // can't be reused by store() between the reference check and its deletion.
+    private synchronized long[] collect() {
+        Set<String> referenced = db.getReferencedReceipts();
+        long cutoff = System.currentTimeMillis() - GRACE_PERIOD_MS;
+        int removed = 0;
+        long freed = 0;
+
+        for (File file : imageFiles()) {
+            String path = file.getAbsolutePath();
+            if (referenced.contains(path) || file.lastModified() > cutoff) continue;
+
+            long size = file.length();
+            if (file.delete()) {
+                removed++;
+                freed += size;
+                db.deleteReceiptRecord(path);
+            }
+        }
+
+        // Thumbnails go once their image is no longer referenced (they outlive evicted originals)
+        File receiptDir = receiptDir(context);
+        for (File thumbnail : listFiles(new File(receiptDir, THUMBNAIL_DIR))) {
+            String imagePath = new File(receiptDir, thumbnail.getName()).getAbsolutePath();
+            if (referenced.contains(imagePath) || thumbnail.lastModified() > cutoff) continue;
+
+            long size = thumbnail.length();
+            if (thumbnail.delete()) {
+                removed++;
+                freed += size;
+            }
+        }
+
+        prefs.edit().putLong(PREF_LAST_GC, System.currentTimeMillis()).apply();
+        Log.d(TAG, "Removed " + removed + " unreferenced files, " + freed + " bytes");
+        return new long[]{removed, freed};
+    }
+
+    // Stored images, interrupted ingestions, and receipts saved before content addressing
+    private List<File> imageFiles() {
+        List<File> files = new ArrayList<>(listFiles(receiptDir(context)));
+        for (File file : listFiles(context.getFilesDir())) {
+            if (file.getName().startsWith("expense_") && file.getName().endsWith(".jpg")) files.add(file);
+        }
+        return files;
+    }
+
+    private static List<File> listFiles(File dir) {
+        List<File> files = new ArrayList<>();
+        File[] children = dir.listFiles();
+        if (children == null) return files;
+        for (File child : children) {
+            if (child.isFile()) files.add(child);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background queue that uploads receipt images to Firebase Storage and links them to expense documents.
+ * Objects are stored as receipts/{userEmail}/{sha256}.jpg, so identical images are uploaded only once.
+ * Pending uploads live in {@link ExpenseDatabase} and resume after restarts; interrupted transfers
+ * continue from their saved resumable session and failed ones are retried with exponential backoff.
+ */
+public class ReceiptUploadQueue {
+
+    private static final String TAG = "ReceiptUpload";
+
+    private static final int MAX_CONCURRENT_UPLOADS = 3;     // Parallel transfers
+    private static final int MAX_ATTEMPTS = 6;               // Attempts per app session, counted in memory
+    private static final long BASE_RETRY_DELAY_MS = 5_000;   // Doubled after every failure
+    private static final long MAX_RETRY_DELAY_MS = 10 * 60_000;
+
+    private static ReceiptUploadQueue instance;
+
+    private final ExpenseDatabase db;
+    private final SyncBackend backend;
+    private final SyncMetricsStore metrics;
+    private final FirebaseStorage storage;
+    private final ExecutorService uploadExecutor;
+    private final ScheduledExecutorService retryScheduler;
+
+    // Documents currently being processed, so the same job is never run twice at once
+    private final Set<String> inFlight = Collections.synchronizedSet(new HashSet<>());
+    // One lock per content hash, so two expenses sharing an image don't upload it in parallel
+    private final Map<String, Object> hashLocks = new ConcurrentHashMap<>();
+
+    /**
+     * A receipt waiting to be uploaded and attached to a cloud expense document.
+     */
+    public static class Job {
+        final String docId;
+        final String userEmail;
+        final String localPath;
+        final int attempts;         // Failed attempts this session
+
+        public Job(String docId, String userEmail, String localPath, int attempts) {
+            this.docId = docId;
+            this.userEmail = userEmail;
+            this.localPath = localPath;
+            this.attempts = attempts;
+        }
+    }
+
+    public static synchronized ReceiptUploadQueue get(Context context) {
+        if (instance == null) {
+            instance = new ReceiptUploadQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ReceiptUploadQueue(Context context) {
+        this.db = ExpenseDatabase.get(context);
+        this.backend = new FirestoreSyncBackend();
+        this.metrics = SyncMetricsStore.get(context);
+        this.storage = FirebaseStorage.getInstance();
+        this.uploadExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_UPLOADS);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Returns true if the path refers to a receipt stored on this device rather than in the cloud.
+     */
+    static boolean isLocalReceipt(String imageUrl) {
+        return imageUrl != null && !imageUrl.isEmpty() && !imageUrl.startsWith("http");
+    }
+
+    /**
+     * Queues the receipt at localPath for upload and attachment to the given expense document.
+     */
+    public void enqueue(String docId, String userEmail, String localPath) {
+        db.enqueueReceiptUpload(docId, userEmail, localPath);
+        submit(new Job(docId, userEmail, localPath, 0), 0);
+    }
+
+    /**
+     * Restarts every upload left in the queue, e.g. after the app was killed mid-transfer.
+     */
+    public void resumePending() {
+        uploadExecutor.execute(() -> {
+            for (Job job : db.getPendingReceiptUploads()) {
+                submit(job, 0);
+            }
+        });
+    }
+
+    // Schedules a job on the upload pool, optionally after a delay
+    private void submit(Job job, long delayMillis) {
+        if (delayMillis > 0) {
+            retryScheduler.schedule(() -> submit(job, 0), delayMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (!inFlight.add(job.docId)) return; // Already running
+
+        uploadExecutor.execute(() -> process(job));
+    }
+
+    // Runs on the upload pool: hash, upload (or reuse), then link the object to the document
+    private void process(Job job) {
+        if (!isStillQueued(job)) return;
+
+        File file = new File(job.localPath);
+        if (!file.exists() && (db.getReceiptHash(job.localPath) == null || db.getReceiptRemoteUrl(job.localPath, job.userEmail) == null)) {
+            // Nothing left to upload on this device (an evicted original can still be linked from its cloud copy)
+            db.removeReceiptUpload(job.docId);
+            inFlight.remove(job.docId);
+            return;
+        }
+
+        try {
+            String hash = db.getReceiptHash(job.localPath);
+            if (hash == null) {
+                hash = sha256(file);
+                db.saveReceiptHash(job.localPath, hash);
+            }
+
+            // Only copies under this account's storage prefix are reused; another account's may not be readable
+            String remoteUrl = db.getReceiptRemoteUrl(job.localPath, job.userEmail);
+            if (remoteUrl == null) remoteUrl = db.getRemoteUrlForHash(hash, job.userEmail);
+            if (remoteUrl == null) {
+                synchronized (hashLocks.computeIfAbsent(hash, k -> new Object())) {
+                    // Another worker may have finished the same image while we waited
+                    remoteUrl = db.getRemoteUrlForHash(hash, job.userEmail);
+                    if (remoteUrl == null) remoteUrl = upload(job, file, hash);
+                }
+            }
+            db.saveReceiptRemoteUrl(job.localPath, remoteUrl, job.userEmail);
+
+            attach(job, hash, remoteUrl);
+        } catch (Exception e) {
+            Log.e(TAG, "Upload failed: " + job.docId, e);
+            retry(job);
+        }
+    }
+
+    // Uploads the file unless the object already exists, and returns its download URL
+    private String upload(Job job, File file, String hash) throws Exception {
+        StorageReference ref = storage.getReference().child("receipts/" + job.userEmail + "/" + hash + ".jpg");
+
+        if (!objectExists(ref)) {
+            StorageMetadata metadata = new StorageMetadata.Builder()
+                    .setContentType("image/jpeg")
+                    .setCustomMetadata("sha256", hash)
+                    .build();
+
+            String session = db.getReceiptSessionUri(job.localPath);
+            Uri fileUri = Uri.fromFile(file);
+            UploadTask task = session != null
+                    ? ref.putFile(fileUri, metadata, Uri.parse(session))   // Resume interrupted transfer
+                    : ref.putFile(fileUri, metadata);
+
+            // Remember the session as soon as the server assigns one
+            boolean[] sessionSaved = {session != null};
+            task.addOnProgressListener(snapshot -> {
+                Uri sessionUri = snapshot.getUploadSessionUri();
+                if (sessionUri != null && !sessionSaved[0]) {
+                    sessionSaved[0] = true;
+                    db.saveReceiptSessionUri(job.localPath, sessionUri.toString());
+                }
+            });
+
+            try {
+                Tasks.await(task);
+            } catch (ExecutionException e) {
+                // A stale session can't be resumed; start from scratch on the next attempt
+                db.saveReceiptSessionUri(job.localPath, null);
+                throw e;
+            }
+            Log.d(TAG, "Uploaded receipt " + hash);
+        } else {
+            Log.d(TAG, "Receipt already in storage: " + hash);
+        }
+
+        return Tasks.await(ref.getDownloadUrl()).toString();
+    }
+
+    // Checks for an existing object with the same content hash
+    private boolean objectExists(StorageReference ref) throws InterruptedException, ExecutionException {
+        try {
+            Tasks.await(ref.getMetadata());
+            return true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StorageException
+                    && ((StorageException) e.getCause()).getErrorCode() == StorageException.ERROR_OBJECT_NOT_FOUND) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Whether the job still matches its queue row. Deleting or editing the expense drops the row, and a
+     * new receipt for the document replaces it; a job found stale is ended (and the replacement started)
+     * instead of linking a receipt into a document that is gone or belongs to another receipt.
+     */
+    private boolean isStillQueued(Job job) {
+        Job queued = db.getReceiptUpload(job.docId);
+        if (queued != null && queued.localPath.equals(job.localPath) && queued.userEmail.equals(job.userEmail)) {
+            return true;
+        }
+        Log.d(TAG, "Upload no longer queued: " + job.docId);
+        inFlight.remove(job.docId);
+        if (queued != null) submit(queued, 0);
+        return false;
+    }
+
+    // Merges the cloud reference into the expense document and completes the job
+    private void attach(Job job, String hash, String remoteUrl) {
+        // Checked again just before the write: the expense may have been deleted during the transfer
+        if (!isStillQueued(job)) return;
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("receiptUrl", remoteUrl);
+        fields.put("receiptHash", hash);
+
+        MeteredSyncBackend run = metrics.startSingleWrite(backend, "receipt");
+        run.writeBatch(FirebaseSyncHelper.expensePath(job.userEmail),
+                Collections.singletonList(SyncBackend.WriteOp.merge(job.docId, fields)),
+                new SyncBackend.Callback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                        // A receipt queued for the document meanwhile is left for its own job
+                        uploadExecutor.execute(() -> {
+                            if (isStillQueued(job)) {
+                                db.removeReceiptUpload(job.docId);
+                                inFlight.remove(job.docId);
+                            }
+                        });
+                        Log.d(TAG, "Linked receipt to " + job.docId);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.e(TAG, "Failed to link receipt: " + job.docId, e);
+                        uploadExecutor.execute(() -> retry(job));
+                    }
+                });
+        run.seal();
+    }
+
+    // Schedules another attempt with exponential backoff, up to MAX_ATTEMPTS this session
+    private void retry(Job job) {
+        inFlight.remove(job.docId);
+
+        int attempts = job.attempts + 1;
+        if (attempts >= MAX_ATTEMPTS) {
+            // Left in the queue; resumePending() picks it up on the next app start
+            Log.w(TAG, "Giving up for this session: " + job.docId);
+            return;
+        }
+
+        long delay = Math.min(BASE_RETRY_DELAY_MS << job.attempts, MAX_RETRY_DELAY_MS);
+        submit(new Job(job.docId, job.userEmail, job.localPath, attempts), delay);
+    }
+
+    // Computes the hex SHA-256 digest of a file
+    static String sha256(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+    }
+}
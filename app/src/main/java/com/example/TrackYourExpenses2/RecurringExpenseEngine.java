@@ -0,0 +1,109 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Turns recurring expense templates into expenses in the background.
+ * Occurrences are only written once their date has come: on app start, and when a rule is added
+ * (so a rule starting in the past catches up at once). Each run writes every due occurrence of every rule
+ * in one database transaction and uploads them as one batched cloud push. Future occurrences are never
+ * stored; {@link ExpenseDatabase#getScheduledRecurringTotals(int, int)} computes them for forecasting.
+ */
+public class RecurringExpenseEngine {
+
+    private static final String TAG = "RecurringExpenses";
+
+    // Told on the main thread after occurrences have been written
+    public interface OnOccurrencesAddedListener {
+        void onOccurrencesAdded(int count);
+    }
+
+    // Receives the stored rules on the main thread
+    public interface OnRulesLoadedListener {
+        void onRulesLoaded(List<RecurringRule> rules);
+    }
+
+    private static RecurringExpenseEngine instance;
+
+    private final Context context;
+    private final ExpenseDatabase db;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<OnOccurrencesAddedListener> listeners = new CopyOnWriteArrayList<>();
+
+    public static synchronized RecurringExpenseEngine get(Context context) {
+        if (instance == null) {
+            instance = new RecurringExpenseEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private RecurringExpenseEngine(Context context) {
+        this.context = context;
+        this.db = ExpenseDatabase.get(context);
+    }
+
+    public void addListener(OnOccurrencesAddedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(OnOccurrencesAddedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stores a rule and writes any occurrences already due.
+     */
+    public void addRule(RecurringRule rule) {
+        executor.execute(() -> {
+            if (db.insertRecurringRule(rule) == -1) {
+                Log.e(TAG, "Could not store rule " + rule.getTitle());
+                return;
+            }
+            materialize();
+        });
+    }
+
+    /**
+     * Stops a rule in the background; the expenses it already produced are kept.
+     */
+    public void deleteRule(long id) {
+        executor.execute(() -> db.deleteRecurringRule(id));
+    }
+
+    public void getRules(OnRulesLoadedListener listener) {
+        executor.execute(() -> {
+            List<RecurringRule> rules = db.getRecurringRules();
+            mainHandler.post(() -> listener.onRulesLoaded(rules));
+        });
+    }
+
+    /**
+     * Writes every occurrence due up to today, in the background.
+     */
+    public void materializeDue() {
+        executor.execute(this::materialize);
+    }
+
+    // Runs on the executor
+    private void materialize() {
+        List<Expense> added = db.materializeRecurring(ExpenseDates.today());
+        if (added.isEmpty()) return;
+
+        Log.d(TAG, "Added " + added.size() + " recurring expenses");
+        new FirebaseSyncHelper(context).uploadExpenses(added);
+        mainHandler.post(() -> {
+            for (OnOccurrencesAddedListener listener : listeners) {
+                listener.onOccurrencesAdded(added.size());
+            }
+        });
+    }
+}
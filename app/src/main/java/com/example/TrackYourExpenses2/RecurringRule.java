@@ -0,0 +1,122 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.Locale;
+
+/**
+ * Template for an expense that repeats every {@code every} days, weeks or months from its first date.
+ * Occurrences are numbered from 0 and always computed from the first date, so a monthly rule keeps its
+ * day of the month (moved to the last day in shorter months) instead of drifting. {@link #getGenerated()}
+ * counts the occurrences already written as expenses; the rest are only ever computed.
+ */
+public class RecurringRule {
+
+    public enum Unit { DAY, WEEK, MONTH }
+
+    // Id of a rule that isn't stored yet
+    public static final long NO_ID = -1;
+
+    private final String title;
+    private final double amount;
+    private final String category;
+    private final int startDay;     // Epoch day of occurrence 0
+    private final Unit unit;
+    private final int every;        // Repeat interval in units, at least 1
+    private final int endDay;       // Last epoch day an occurrence may fall on, or ExpenseDates.INVALID
+    private long id = NO_ID;
+    private int generated;          // Occurrences already written as expenses
+
+    public RecurringRule(String title, double amount, String category, int startDay, Unit unit, int every, int endDay) {
+        this.title = title;
+        this.amount = amount;
+        this.category = category;
+        this.startDay = startDay;
+        this.unit = unit;
+        this.every = Math.max(1, every);
+        this.endDay = endDay;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public int getStartDay() {
+        return startDay;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public int getEvery() {
+        return every;
+    }
+
+    public int getEndDay() {
+        return endDay;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    void setId(long id) {
+        this.id = id;
+    }
+
+    public int getGenerated() {
+        return generated;
+    }
+
+    void setGenerated(int generated) {
+        this.generated = generated;
+    }
+
+    /**
+     * Epoch day of occurrence {@code index}, or {@link ExpenseDates#INVALID} if it falls after the end date.
+     */
+    public int occurrence(int index) {
+        int day;
+        switch (unit) {
+            case DAY:
+                day = startDay + index * every;
+                break;
+            case WEEK:
+                day = startDay + index * every * 7;
+                break;
+            default:
+                int[] start = ExpenseDates.toCivil(startDay);
+                int monthKey = ExpenseDates.monthKey(start[0], start[1]) + index * every;
+                int year = ExpenseDates.yearOfMonthKey(monthKey);
+                int month = ExpenseDates.monthOfMonthKey(monthKey);
+                day = ExpenseDates.epochDay(year, month, Math.min(start[2], ExpenseDates.daysInMonth(year, month)));
+                break;
+        }
+        return endDay != ExpenseDates.INVALID && day > endDay ? ExpenseDates.INVALID : day;
+    }
+
+    // First occurrence not yet written as an expense, or ExpenseDates.INVALID once the rule has ended
+    public int nextOccurrence() {
+        return occurrence(generated);
+    }
+
+    // Short description such as "Monthly" or "Every 2 weeks"
+    public String describe() {
+        if (every == 12 && unit == Unit.MONTH) return "Yearly";
+        if (every == 1) {
+            switch (unit) {
+                case DAY: return "Daily";
+                case WEEK: return "Weekly";
+                default: return "Monthly";
+            }
+        }
+        return "Every " + every + " " + unit.name().toLowerCase(Locale.ROOT) + "s";
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.TrackYourExpenses2;
+
+import java.text.DateFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a date range into chart buckets so a bar chart never gets more bars than fit on screen.
+ * The finest granularity (day, week, month, quarter, year) whose bucket count fits is chosen,
+ * and buckets are aligned to calendar boundaries (weeks start on Monday) and clipped to the range.
+ * Each bucket is summed from the {@link SpendingIndex}, so the overall shape is preserved.
+ */
+public final class SeriesDownsampler {
+
+    // Narrowest bar worth drawing, and limits on the number of bars regardless of width
+    static final int MIN_BAR_DP = 16;
+    static final int MIN_BUCKETS = 7;
+    static final int MAX_BUCKETS = 60;
+
+    public enum Granularity {DAY, WEEK, MONTH, QUARTER, YEAR}
+
+    // One bar: an inclusive range of epoch days and its axis label
+    public static final class Bucket {
+        public final int fromDay;
+        public final int toDay;
+        public final String label;
+
+        Bucket(int fromDay, int toDay, String label) {
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.label = label;
+        }
+    }
+
+    private SeriesDownsampler() {
+    }
+
+    /**
+     * How many bars fit in a chart of the given width.
+     * @param widthPx Chart width in pixels
+     * @param density Display density (pixels per dp)
+     */
+    public static int maxBucketsForWidth(int widthPx, float density) {
+        int fit = (int) (widthPx / (MIN_BAR_DP * density));
+        return Math.max(MIN_BUCKETS, Math.min(MAX_BUCKETS, fit));
+    }
+
+    /**
+     * Finest granularity that splits the range into at most maxBuckets buckets (years as a last resort).
+     */
+    public static Granularity chooseGranularity(int fromDay, int toDay, int maxBuckets) {
+        for (Granularity granularity : Granularity.values()) {
+            if (bucketCount(granularity, fromDay, toDay) <= maxBuckets) return granularity;
+        }
+        return Granularity.YEAR;
+    }
+
+    /**
+     * Splits the range into calendar-aligned buckets of the chosen granularity, oldest first.
+     */
+    public static List<Bucket> buckets(int fromDay, int toDay, int maxBuckets) {
+        Granularity granularity = chooseGranularity(fromDay, toDay, maxBuckets);
+        boolean multiYear = ExpenseDates.toCivil(fromDay)[0] != ExpenseDates.toCivil(toDay)[0];
+        String[] months = new DateFormatSymbols().getShortMonths();
+
+        List<Bucket> buckets = new ArrayList<>();
+        int start = fromDay;
+        while (start <= toDay) {
+            int[] civil = ExpenseDates.toCivil(start);
+            int end;
+            String label;
+
+            switch (granularity) {
+                case DAY:
+                    end = start;
+                    label = civil[2] + "/" + civil[1];
+                    break;
+                case WEEK:
+                    end = start - ExpenseDates.dayOfWeek(start) + 6; // Sunday
+                    label = civil[2] + "/" + civil[1];
+                    break;
+                case MONTH:
+                    end = ExpenseDates.monthEnd(ExpenseDates.monthKey(civil[0], civil[1]));
+                    label = months[civil[1] - 1] + (multiYear ? " '" + twoDigitYear(civil[0]) : "");
+                    break;
+                case QUARTER:
+                    int quarter = (civil[1] - 1) / 3;
+                    end = ExpenseDates.monthEnd(ExpenseDates.monthKey(civil[0], quarter * 3 + 3));
+                    label = "Q" + (quarter + 1) + " '" + twoDigitYear(civil[0]);
+                    break;
+                default:
+                    end = ExpenseDates.epochDay(civil[0], 12, 31);
+                    label = String.valueOf(civil[0]);
+                    break;
+            }
+
+            end = Math.min(end, toDay);
+            buckets.add(new Bucket(start, end, label));
+            start = end + 1;
+        }
+        return buckets;
+    }
+
+    // Number of calendar buckets of a granularity that overlap the range
+    static int bucketCount(Granularity granularity, int fromDay, int toDay) {
+        if (toDay < fromDay) return 0;
+        int[] from = ExpenseDates.toCivil(fromDay);
+        int[] to = ExpenseDates.toCivil(toDay);
+
+        switch (granularity) {
+            case DAY:
+                return toDay - fromDay + 1;
+            case WEEK:
+                int firstMonday = fromDay - ExpenseDates.dayOfWeek(fromDay);
+                return (toDay - firstMonday) / 7 + 1;
+            case MONTH:
+                return ExpenseDates.monthKey(to[0], to[1]) - ExpenseDates.monthKey(from[0], from[1]) + 1;
+            case QUARTER:
+                return (to[0] * 4 + (to[1] - 1) / 3) - (from[0] * 4 + (from[1] - 1) / 3) + 1;
+            default:
+                return to[0] - from[0] + 1;
+        }
+    }
+
+    private static String twoDigitYear(int year) {
+        return String.format("%02d", Math.floorMod(year, 100));
+    }
+}
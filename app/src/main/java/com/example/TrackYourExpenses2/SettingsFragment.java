@@ -13,8 +13,11 @@ import android.text.InputType;
 
 import com.google.android.gms.auth.api.identity.*;
 import com.google.android.gms.common.api.ApiException;
-import com.google.firebase.firestore.FirebaseFirestore;
-import java.util.Collections;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Fragment that provides app settings like login/logout,
@@ -22,14 +25,12 @@ import java.util.Collections;
  */
 public class SettingsFragment extends Fragment {
 
-    private static final String PREF_BUDGET = "monthly_budget";
-
     private SignInClient oneTapClient;
     private BeginSignInRequest signInRequest;
-    private SharedPreferences prefs;
+    private UserProfileStore profileStore;
 
     private TextView emailText;
-    private Button btnSetBudget, btnHelp, btnLogin, btnLogout;
+    private Button btnSetBudget, btnCategoryBudgets, btnBudgetAlerts, btnReceiptQuality, btnReceiptStorage, btnRecurring, btnHelp, btnSyncDiagnostics, btnLogin, btnLogout;
 
     @Nullable
     @Override
@@ -41,15 +42,20 @@ public class SettingsFragment extends Fragment {
         // UI references
         emailText = view.findViewById(R.id.emailText);
         btnSetBudget = view.findViewById(R.id.btnSetBudget);
+        btnCategoryBudgets = view.findViewById(R.id.btnCategoryBudgets);
+        btnBudgetAlerts = view.findViewById(R.id.btnBudgetAlerts);
+        btnReceiptQuality = view.findViewById(R.id.btnReceiptQuality);
+        btnReceiptStorage = view.findViewById(R.id.btnReceiptStorage);
+        btnRecurring = view.findViewById(R.id.btnRecurring);
         btnHelp = view.findViewById(R.id.btnHelp);
+        btnSyncDiagnostics = view.findViewById(R.id.btnSyncDiagnostics);
         btnLogin = view.findViewById(R.id.btnLogin);
         btnLogout = view.findViewById(R.id.btnLogout);
 
         // Get shared prefs for app and determine if user is logged in
         SharedPreferences basePrefs = requireContext().getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-        String userEmail = basePrefs.getString("user_email", null);
-        String prefsName = userEmail != null ? "BudgetPrefs_" + userEmail : "GuestPrefs";
-        prefs = requireContext().getSharedPreferences(prefsName, Context.MODE_PRIVATE);
+        profileStore = UserProfileStore.get(requireContext());
+        String userEmail = profileStore.getUserEmail();
 
         // Setup Google One Tap Sign-In client
         oneTapClient = Identity.getSignInClient(requireContext());
@@ -76,7 +82,13 @@ public class SettingsFragment extends Fragment {
 
         // Button handlers
         btnSetBudget.setOnClickListener(v -> showBudgetDialog());
+        btnCategoryBudgets.setOnClickListener(v -> showCategoryBudgetsDialog());
+        btnBudgetAlerts.setOnClickListener(v -> showBudgetAlertsDialog());
+        btnReceiptQuality.setOnClickListener(v -> showReceiptQualityDialog());
+        btnReceiptStorage.setOnClickListener(v -> showReceiptStorageDialog());
+        btnRecurring.setOnClickListener(v -> showRecurringDialog());
         btnHelp.setOnClickListener(v -> showHelpDialog());
+        btnSyncDiagnostics.setOnClickListener(v -> showSyncDiagnosticsDialog());
 
         // Google Sign-In button action
         btnLogin.setOnClickListener(v -> {
@@ -98,6 +110,7 @@ public class SettingsFragment extends Fragment {
         // Logout: clear stored email and refresh app
         btnLogout.setOnClickListener(v -> {
             basePrefs.edit().remove("user_email").apply();
+            profileStore.invalidate();
             Toast.makeText(getContext(), "Logged out", Toast.LENGTH_SHORT).show();
             requireActivity().recreate();
         });
@@ -116,7 +129,7 @@ public class SettingsFragment extends Fragment {
         input.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
         input.setHint("e.g. 1000.00");
 
-        float savedBudget = prefs.getFloat(PREF_BUDGET, 1000f);
+        float savedBudget = profileStore.getMonthlyBudget();
         input.setText(String.valueOf(savedBudget));
         builder.setView(input);
 
@@ -125,22 +138,10 @@ public class SettingsFragment extends Fragment {
             if (!text.isEmpty()) {
                 try {
                     float budget = Float.parseFloat(text);
-                    prefs.edit().putFloat(PREF_BUDGET, budget).apply();
-                    Toast.makeText(getContext(), "Budget saved: $" + budget, Toast.LENGTH_SHORT).show();
-
-                    // Upload to Firestore if user is signed in
-                    SharedPreferences basePrefs = requireContext().getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-                    String userEmail = basePrefs.getString("user_email", null);
-
-                    if (userEmail != null) {
-                        FirebaseFirestore.getInstance()
-                                .collection("users")
-                                .document(userEmail)
-                                .collection("profile")
-                                .document("budget")
-                                .set(Collections.singletonMap("monthly_budget", budget));
-                    }
 
+                    // Saved locally and uploaded to the cloud if the user is signed in
+                    profileStore.setMonthlyBudget(budget);
+                    Toast.makeText(getContext(), "Budget saved: $" + budget, Toast.LENGTH_SHORT).show();
                 } catch (NumberFormatException e) {
                     Toast.makeText(getContext(), "Invalid input", Toast.LENGTH_SHORT).show();
                 }
@@ -153,6 +154,219 @@ public class SettingsFragment extends Fragment {
         builder.show();
     }
 
+    /**
+     * Lists the categories with their current limits; picking one opens an editor for it.
+     */
+    private void showCategoryBudgetsDialog() {
+        String[] categories = HomeFragment.ALL_CATEGORIES;
+        Map<String, Float> limits = profileStore.getCategoryBudgets();
+
+        String[] labels = new String[categories.length];
+        for (int i = 0; i < categories.length; i++) {
+            Float limit = limits.get(categories[i]);
+            labels[i] = categories[i] + ": " + (limit == null ? "no limit" : "$" + String.format("%.2f", limit));
+        }
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Category Budgets")
+                .setItems(labels, (dialog, which) -> showCategoryLimitDialog(categories[which], limits.get(categories[which])))
+                .setNegativeButton("Close", null)
+                .show();
+    }
+
+    /**
+     * Edits one category's monthly limit. Leaving the field empty removes the limit.
+     */
+    private void showCategoryLimitDialog(String category, @Nullable Float current) {
+        final EditText input = new EditText(getContext());
+        input.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        input.setHint("No limit");
+        if (current != null) input.setText(String.valueOf(current));
+
+        new AlertDialog.Builder(getContext())
+                .setTitle(category + " Monthly Limit")
+                .setView(input)
+                .setPositiveButton("Save", (dialog, which) -> {
+                    String text = input.getText().toString();
+                    try {
+                        float limit = text.isEmpty() ? 0 : Float.parseFloat(text);
+
+                        // Saved locally and synced with the profile if the user is signed in
+                        profileStore.setCategoryBudget(category, limit);
+                        Toast.makeText(getContext(), limit > 0 ? category + " limit saved: $" + limit
+                                : category + " limit removed", Toast.LENGTH_SHORT).show();
+                    } catch (NumberFormatException e) {
+                        Toast.makeText(getContext(), "Invalid input", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Lets the user pick which budget usage percentages raise an alert.
+     */
+    private void showBudgetAlertsDialog() {
+        int[] options = UserProfileStore.DEFAULT_ALERT_THRESHOLDS;
+
+        // One item per threshold, plus a last one for unusual expense alerts
+        String[] labels = new String[options.length + 1];
+        boolean[] checked = new boolean[options.length + 1];
+
+        int[] current = profileStore.getAlertThresholds();
+        for (int i = 0; i < options.length; i++) {
+            labels[i] = options[i] + "% of budget";
+            for (int t : current) {
+                if (t == options[i]) checked[i] = true;
+            }
+        }
+        labels[options.length] = "Unusually large expenses";
+        checked[options.length] = AnomalyNotifier.isEnabled(requireContext());
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Alert me at")
+                .setMultiChoiceItems(labels, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton("Save", (dialog, which) -> {
+                    int count = 0;
+                    for (int i = 0; i < options.length; i++) if (checked[i]) count++;
+
+                    int[] selected = new int[count];
+                    int j = 0;
+                    for (int i = 0; i < options.length; i++) {
+                        if (checked[i]) selected[j++] = options[i];
+                    }
+
+                    // Saved locally and synced with the profile; alerts are re-evaluated right away
+                    profileStore.setAlertThresholds(selected);
+                    AnomalyNotifier.setEnabled(requireContext(), checked[options.length]);
+                    Toast.makeText(getContext(), "Budget alerts saved", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Lets the user pick the size and JPEG quality new receipts are stored at.
+     */
+    private void showReceiptQualityDialog() {
+        String[] labels = {"Compact (1024 px, 70%)", "Standard (1600 px, 80%)", "High (2400 px, 90%)"};
+        int[] edges = {1024, ReceiptIngestor.DEFAULT_MAX_EDGE, 2400};
+        int[] qualities = {70, ReceiptIngestor.DEFAULT_QUALITY, 90};
+
+        ReceiptIngestor ingestor = ReceiptIngestor.get(requireContext());
+        int current = 1;
+        for (int i = 0; i < edges.length; i++) {
+            if (edges[i] == ingestor.getMaxEdge() && qualities[i] == ingestor.getQuality()) current = i;
+        }
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Store receipts at")
+                .setSingleChoiceItems(labels, current, (dialog, which) -> {
+                    // Applies to receipts added from now on
+                    ingestor.setLimits(edges[which], qualities[which]);
+                    Toast.makeText(getContext(), "Receipt quality saved", Toast.LENGTH_SHORT).show();
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Shows how much space receipts use, with options to remove the ones no expense uses
+     * and to change the storage limit.
+     */
+    private void showReceiptStorageDialog() {
+        ReceiptStore store = ReceiptStore.get(requireContext());
+        store.getUsage(usage -> {
+            if (!isAdded()) return;
+
+            long budget = store.getBudget();
+            String message = "Receipts: " + usage.imageCount + " files, " + formatBytes(usage.imageBytes) +
+                    "\nThumbnails: " + formatBytes(usage.thumbnailBytes) +
+                    "\nLimit: " + (budget == ReceiptStore.UNLIMITED ? "None" : formatBytes(budget));
+            new AlertDialog.Builder(getContext())
+                    .setTitle("Receipt Storage")
+                    .setMessage(message)
+                    .setPositiveButton("Clean Up Now", (dialog, which) -> store.collectGarbage((removed, freed) -> {
+                        if (!isAdded()) return;
+                        Toast.makeText(getContext(), "Removed " + removed + " unused files (" + formatBytes(freed) + ")",
+                                Toast.LENGTH_SHORT).show();
+                    }))
+                    .setNeutralButton("Storage Limit", (dialog, which) -> showReceiptBudgetDialog())
+                    .setNegativeButton("Close", null)
+                    .show();
+        });
+    }
+
+    /**
+     * Lets the user cap receipt storage. Over the limit, the least recently viewed receipts that are
+     * backed up to the cloud are removed from the device and downloaded again when opened.
+     */
+    private void showReceiptBudgetDialog() {
+        String[] labels = {"100 MB", "250 MB", "500 MB", "1 GB", "No limit"};
+        long mb = 1024L * 1024;
+        long[] budgets = {100 * mb, ReceiptStore.DEFAULT_BUDGET_BYTES, 500 * mb, 1024 * mb, ReceiptStore.UNLIMITED};
+
+        ReceiptStore store = ReceiptStore.get(requireContext());
+        int current = 1;
+        for (int i = 0; i < budgets.length; i++) {
+            if (budgets[i] == store.getBudget()) current = i;
+        }
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Keep receipts on this device up to")
+                .setSingleChoiceItems(labels, current, (dialog, which) -> {
+                    // Trimming to a lower limit starts right away in the background
+                    store.setBudget(budgets[which]);
+                    Toast.makeText(getContext(), "Storage limit saved", Toast.LENGTH_SHORT).show();
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Lists the recurring expenses; tapping one offers to stop it (expenses it already added are kept).
+     */
+    private void showRecurringDialog() {
+        RecurringExpenseEngine engine = RecurringExpenseEngine.get(requireContext());
+        engine.getRules(rules -> {
+            if (!isAdded()) return;
+            if (rules.isEmpty()) {
+                Toast.makeText(getContext(), "No recurring expenses. Choose a repeat option when adding one.",
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            String[] labels = new String[rules.size()];
+            for (int i = 0; i < rules.size(); i++) {
+                RecurringRule rule = rules.get(i);
+                int next = rule.nextOccurrence();
+                labels[i] = rule.getTitle() + " $" + String.format("%.2f", rule.getAmount()) + " – " + rule.describe()
+                        + (next == ExpenseDates.INVALID ? " (ended)" : ", next " + ExpenseDates.format(next));
+            }
+
+            new AlertDialog.Builder(getContext())
+                    .setTitle("Recurring Expenses")
+                    .setItems(labels, (dialog, which) -> new AlertDialog.Builder(getContext())
+                            .setTitle("Stop Recurring Expense")
+                            .setMessage("Stop adding \"" + labels[which] + "\"? Expenses already added are kept.")
+                            .setPositiveButton("Stop", (d, w) -> {
+                                engine.deleteRule(rules.get(which).getId());
+                                Toast.makeText(getContext(), "Recurring expense stopped", Toast.LENGTH_SHORT).show();
+                            })
+                            .setNegativeButton("Cancel", null)
+                            .show())
+                    .setNegativeButton("Close", null)
+                    .show();
+        });
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) return String.format("%.0f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
     /**
      * Displays a basic help message dialog.
      */
@@ -164,6 +378,52 @@ public class SettingsFragment extends Fragment {
                 .show();
     }
 
+    /**
+     * Shows the recent sync runs recorded by SyncMetricsStore, with options to export or clear them.
+     */
+    private void showSyncDiagnosticsDialog() {
+        SyncMetricsStore store = SyncMetricsStore.get(requireContext());
+        List<SyncRunStats> runs = store.getRuns();
+        SimpleDateFormat sdf = new SimpleDateFormat("d MMM HH:mm:ss", Locale.getDefault());
+
+        StringBuilder message = new StringBuilder();
+        if (runs.isEmpty()) {
+            message.append("No sync runs recorded yet.");
+        }
+        for (SyncRunStats run : runs) {
+            // An aggregate sums single-document writes since its start time
+            message.append(run.isAggregate() ? "Since " : "").append(sdf.format(new Date(run.getStartedAt())))
+                    .append("  ").append(run.getKind())
+                    .append(run.isAggregate() ? " x" + run.getRuns() : "")
+                    .append(" (").append(run.getWallMillis()).append(" ms)\n")
+                    .append("  read ").append(run.getDocsRead())
+                    .append(", written ").append(run.getDocsWritten())
+                    .append(", deleted ").append(run.getDocsDeleted()).append("\n")
+                    .append("  ").append(run.getBatches()).append(" batches, ~")
+                    .append(run.getPayloadBytes() / 1024).append(" KB\n")
+                    .append("  failures: ").append(SyncMetricsStore.formatFailures(run.getFailures()))
+                    .append("\n\n");
+        }
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Sync Diagnostics")
+                .setMessage(message.toString().trim())
+                .setPositiveButton("Export", (dialog, which) -> {
+                    // Share the runs as CSV through any app that accepts text
+                    Intent share = new Intent(Intent.ACTION_SEND);
+                    share.setType("text/csv");
+                    share.putExtra(Intent.EXTRA_SUBJECT, "Sync metrics");
+                    share.putExtra(Intent.EXTRA_TEXT, store.exportCsv());
+                    startActivity(Intent.createChooser(share, "Export sync metrics"));
+                })
+                .setNeutralButton("Clear", (dialog, which) -> {
+                    store.clear();
+                    Toast.makeText(getContext(), "Sync metrics cleared", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("Close", null)
+                .show();
+    }
+
     /**
      * Handles Google Sign-In result and updates UI and preferences accordingly.
      */
@@ -184,7 +444,8 @@ public class SettingsFragment extends Fragment {
                 Toast.makeText(getContext(), "Signed in as: " + email, Toast.LENGTH_SHORT).show();
 
                 // Sync budget and expenses from Firebase
-                FirebaseSyncHelper.syncBudgetFromFirebase(requireContext());
+                profileStore.invalidate();
+                profileStore.startListening();
                 FirebaseSyncHelper helper = new FirebaseSyncHelper(requireContext());
                 helper.syncFirebaseToLocal();
 
@@ -0,0 +1,239 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Projects the month-end total and the day the budget runs out with an online Holt-Winters model
+ * (additive, damped trend, weekly seasonality) over daily spending totals.
+ * Each completed day is folded into the model once; the state (level, trend, 7 seasonal terms and
+ * the last folded day) is persisted, so forecasting never refits over the history. On first use the
+ * model is warmed up from the last {@link #WARMUP_DAYS} days only. Recurring expenses due later in the
+ * month are taken from their rules, as a floor under the model's estimate for their day.
+ */
+public class SpendForecaster implements ExpenseDatabase.ExpenseChangeListener {
+
+    // Receives a forecast on the main thread
+    public interface OnForecastReadyListener {
+        void onForecastReady(Forecast forecast);
+    }
+
+    /**
+     * Projected month-end total and the first day the projection exceeds the budget.
+     */
+    public static final class Forecast {
+        public final double projectedTotal;
+        public final int overrunDay;          // Epoch day, or ExpenseDates.INVALID if the budget holds
+        public final boolean alreadyOver;
+
+        Forecast(double projectedTotal, int overrunDay, boolean alreadyOver) {
+            this.projectedTotal = projectedTotal;
+            this.overrunDay = overrunDay;
+            this.alreadyOver = alreadyOver;
+        }
+    }
+
+    /**
+     * The model's state, with one update step per completed day and the forecast it gives.
+     */
+    static final class Model {
+        double level;
+        double trend;
+        final double[] season = new double[7];    // Indexed by ExpenseDates.dayOfWeek
+        int foldedThrough = ExpenseDates.INVALID; // Last day folded into the model
+
+        // One Holt-Winters step for a completed day
+        void fold(int day, double total) {
+            int weekday = ExpenseDates.dayOfWeek(day);
+            double previousLevel = level;
+
+            level = ALPHA * (total - season[weekday]) + (1 - ALPHA) * (level + PHI * trend);
+            trend = BETA * (level - previousLevel) + (1 - BETA) * PHI * trend;
+            season[weekday] = GAMMA * (total - level) + (1 - GAMMA) * season[weekday];
+            foldedThrough = day;
+        }
+
+        // Expected spending h days after the last folded day (never negative)
+        double expected(int h) {
+            double dampedTrend = 0;
+            double factor = 1;
+            for (int i = 1; i <= h; i++) {
+                factor *= PHI;
+                dampedTrend += factor;
+            }
+            int weekday = ExpenseDates.dayOfWeek(foldedThrough + h);
+            return Math.max(0, level + dampedTrend * trend + season[weekday]);
+        }
+    }
+
+    // Smoothing factors for level, trend and season, and the trend damping
+    static final double ALPHA = 0.2;
+    static final double BETA = 0.05;
+    static final double GAMMA = 0.1;
+    static final double PHI = 0.9;
+
+    static final int WARMUP_DAYS = 56;
+
+    // Late edits to days already folded in nudge the level, but only if they are this recent
+    static final int CORRECTION_DAYS = 28;
+
+    private static final String PREFS_NAME = "SpendForecast";
+
+    private static SpendForecaster instance;
+
+    private final ExpenseDatabase db;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Model state, only touched on the executor
+    private boolean stateLoaded;
+    private final Model model = new Model();
+
+    // Today's running total (today isn't folded until it is over)
+    private int todayDay = ExpenseDates.INVALID;
+    private double todayTotal;
+    private long baseWrite;                           // Writes numbered up to this are in todayTotal
+
+    public static synchronized SpendForecaster get(Context context) {
+        if (instance == null) {
+            instance = new SpendForecaster(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SpendForecaster(Context context) {
+        db = ExpenseDatabase.get(context);
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        ExpenseDatabase.addChangeListener(this);
+    }
+
+    /**
+     * Computes the forecast in the background and delivers it on the main thread.
+     * @param monthTotal Spent so far this month (e.g. from {@link DashboardSummary})
+     * @param budget Monthly budget
+     */
+    public void forecast(double monthTotal, double budget, OnForecastReadyListener listener) {
+        executor.execute(() -> {
+            catchUp();
+            Forecast forecast = project(monthTotal, budget);
+            mainHandler.post(() -> listener.onForecastReady(forecast));
+        });
+    }
+
+    // Runs on the executor: folds every day completed since the last call, and tracks today
+    private void catchUp() {
+        loadState();
+        int today = ExpenseDates.today();
+
+        if (model.foldedThrough == ExpenseDates.INVALID) {
+            model.foldedThrough = today - WARMUP_DAYS - 1;
+            model.level = 0;
+            model.trend = 0;
+        }
+        if (model.foldedThrough < today - 1) {
+            Map<Integer, Double> totals = db.getDailyTotals(model.foldedThrough + 1, today - 1);
+            for (int day = model.foldedThrough + 1; day < today; day++) {
+                Double total = totals.get(day);
+                model.fold(day, total == null ? 0 : total);
+            }
+            saveState();
+        }
+
+        if (todayDay != today) {
+            // Read with the write count, so reported writes already in the total aren't added twice
+            ExpenseDatabase.Snapshot<Double> snapshot = db.snapshot(d -> d.getTotalBetween(today, today));
+            baseWrite = snapshot.writeCount;
+            todayTotal = snapshot.value;
+            todayDay = today;
+        }
+    }
+
+    private Forecast project(double monthTotal, double budget) {
+        int today = todayDay;
+        int monthEnd = ExpenseDates.monthEnd(ExpenseDates.monthKey(today));
+
+        // Today counts as whichever is larger: what was spent already, or what the model expects
+        double cumulative = monthTotal - todayTotal;
+        boolean alreadyOver = budget > 0 && monthTotal > budget;
+        int overrunDay = ExpenseDates.INVALID;
+
+        // Recurring expenses still to come are known: a day with one spends at least that much
+        Map<Integer, Double> scheduled = db.getScheduledRecurringTotals(today + 1, monthEnd);
+
+        for (int day = today; day <= monthEnd; day++) {
+            double spend = model.expected(day - model.foldedThrough);
+            if (day == today) spend = Math.max(spend, todayTotal);
+            Double recurring = scheduled.get(day);
+            if (recurring != null) spend = Math.max(spend, recurring);
+            cumulative += spend;
+
+            if (!alreadyOver && overrunDay == ExpenseDates.INVALID && budget > 0 && cumulative > budget) {
+                overrunDay = day;
+            }
+        }
+        return new Forecast(cumulative, overrunDay, alreadyOver);
+    }
+
+    // Runs on the executor: applies a write to today's total, or corrects a recently folded day
+    private void apply(long write, Expense e, int sign) {
+        loadState();
+        int day = ExpenseDates.toEpochDay(e.getDate());
+        if (day == ExpenseDates.INVALID) return;
+
+        if (day == todayDay) {
+            if (write > baseWrite) todayTotal += sign * e.getAmount();
+        } else if (model.foldedThrough != ExpenseDates.INVALID && day <= model.foldedThrough
+                && day > model.foldedThrough - CORRECTION_DAYS) {
+            // The level is what a late change would have moved most; trend and season are left alone
+            model.level += ALPHA * sign * e.getAmount() * Math.pow(1 - ALPHA, model.foldedThrough - day);
+            saveState();
+        }
+    }
+
+    private void loadState() {
+        if (stateLoaded) return;
+        model.level = Double.longBitsToDouble(prefs.getLong("level", 0));
+        model.trend = Double.longBitsToDouble(prefs.getLong("trend", 0));
+        for (int i = 0; i < model.season.length; i++) {
+            model.season[i] = Double.longBitsToDouble(prefs.getLong("season_" + i, 0));
+        }
+        model.foldedThrough = prefs.getInt("folded_through", ExpenseDates.INVALID);
+        stateLoaded = true;
+    }
+
+    private void saveState() {
+        SharedPreferences.Editor editor = prefs.edit()
+                .putLong("level", Double.doubleToLongBits(model.level))
+                .putLong("trend", Double.doubleToLongBits(model.trend))
+                .putInt("folded_through", model.foldedThrough);
+        for (int i = 0; i < model.season.length; i++) {
+            editor.putLong("season_" + i, Double.doubleToLongBits(model.season[i]));
+        }
+        editor.apply();
+    }
+
+    @Override
+    public void onExpenseInserted(Expense expense, long write) {
+        executor.execute(() -> apply(write, expense, 1));
+    }
+
+    @Override
+    public void onExpenseDeleted(Expense expense, long write) {
+        executor.execute(() -> apply(write, expense, -1));
+    }
+
+    @Override
+    public void onExpenseUpdated(Expense oldExpense, Expense newExpense, long write) {
+        executor.execute(() -> {
+            apply(write, oldExpense, -1);
+            apply(write, newExpense, 1);
+        });
+    }
+}
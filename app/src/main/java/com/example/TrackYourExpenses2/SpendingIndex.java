@@ -0,0 +1,204 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Day-granular spending index for analytics.
+ * Keeps one {@link FenwickTree} per category (plus one for all categories) with a slot per epoch day,
+ * so the total for any date range and category is answered in O(log n) without touching the table.
+ * Built once in the background from per-day sums, then updated in O(log n) per expense write.
+ */
+public class SpendingIndex implements ExpenseDatabase.ExpenseChangeListener {
+
+    // Receives the loaded index on the main thread
+    public interface OnIndexReadyListener {
+        void onIndexReady(SpendingIndex index);
+    }
+
+    // Days kept free around the data so new expenses rarely force a resize
+    private static final int SLACK_DAYS = 366;
+
+    private static SpendingIndex instance;
+
+    private final ExpenseDatabase db;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Slot 0 is epoch day "origin"; valid only while loaded is true
+    private int origin;
+    private int size;
+    private FenwickTree allTree;
+    private final Map<String, FenwickTree> categoryTrees = new HashMap<>();
+    private boolean loaded;
+    private boolean loading;
+    private boolean dirty;        // A write arrived while loading, so the load must be redone
+    private long version;         // Bumped on every change, so derived data can tell it is stale
+
+    public static synchronized SpendingIndex get(Context context) {
+        if (instance == null) {
+            instance = new SpendingIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SpendingIndex(Context context) {
+        db = ExpenseDatabase.get(context);
+        ExpenseDatabase.addChangeListener(this);
+    }
+
+    /**
+     * Delivers the index, immediately if already built, otherwise after a background load.
+     */
+    public void load(OnIndexReadyListener listener) {
+        synchronized (this) {
+            if (loaded) {
+                listener.onIndexReady(this);
+                return;
+            }
+        }
+        executor.execute(() -> {
+            rebuild();
+            mainHandler.post(() -> listener.onIndexReady(this));
+        });
+    }
+
+    // Changes whenever any total may have changed
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Total spent between two epoch days (inclusive).
+     * @param category Category to sum, or null for all categories
+     */
+    public synchronized double total(String category, int fromDay, int toDay) {
+        FenwickTree tree = category == null ? allTree : categoryTrees.get(category);
+        if (!loaded || tree == null) return 0;
+        return tree.rangeSum(Math.max(fromDay, origin) - origin, Math.min(toDay, origin + size - 1) - origin);
+    }
+
+    /**
+     * Total per category between two epoch days (inclusive); categories with nothing spent are left out.
+     */
+    public synchronized Map<String, Double> categoryTotals(int fromDay, int toDay) {
+        Map<String, Double> totals = new HashMap<>();
+        for (String category : categoryTrees.keySet()) {
+            double total = total(category, fromDay, toDay);
+            if (Math.abs(total) >= 0.005) totals.put(category, total);
+        }
+        return totals;
+    }
+
+    // Runs on the executor: one grouped query, then O(n) tree builds
+    private void rebuild() {
+        while (true) {
+            synchronized (this) {
+                if (loaded) return;
+                loading = true;
+                dirty = false;
+            }
+
+            int today = ExpenseDates.today();
+            int minDay = today, maxDay = today;
+            List<ExpenseDatabase.DailyTotal> rows = db.getDailyCategoryTotals();
+            for (ExpenseDatabase.DailyTotal row : rows) {
+                minDay = Math.min(minDay, row.epochDay);
+                maxDay = Math.max(maxDay, row.epochDay);
+            }
+
+            int newOrigin = minDay - SLACK_DAYS;
+            int newSize = maxDay + SLACK_DAYS - newOrigin + 1;
+            double[] all = new double[newSize];
+            Map<String, double[]> perCategory = new HashMap<>();
+            for (ExpenseDatabase.DailyTotal row : rows) {
+                double[] values = perCategory.get(row.category);
+                if (values == null) perCategory.put(row.category, values = new double[newSize]);
+                values[row.epochDay - newOrigin] += row.total;
+                all[row.epochDay - newOrigin] += row.total;
+            }
+
+            synchronized (this) {
+                loading = false;
+                if (dirty) continue; // A write raced with the query; load again
+
+                origin = newOrigin;
+                size = newSize;
+                allTree = new FenwickTree(all);
+                categoryTrees.clear();
+                for (Map.Entry<String, double[]> entry : perCategory.entrySet()) {
+                    categoryTrees.put(entry.getKey(), new FenwickTree(entry.getValue()));
+                }
+                loaded = true;
+                version++;
+                return;
+            }
+        }
+    }
+
+    // Applies one expense's amount to its day slot in the category and overall trees
+    private synchronized void apply(Expense e, int sign) {
+        if (loading) {
+            dirty = true;
+            return;
+        }
+        if (!loaded) return;
+
+        int epochDay = ExpenseDates.toEpochDay(e.getDate());
+        if (epochDay == ExpenseDates.INVALID) return;
+        if (epochDay < origin || epochDay >= origin + size) resize(epochDay);
+
+        FenwickTree tree = categoryTrees.get(e.getCategory());
+        if (tree == null) {
+            tree = new FenwickTree(size);
+            categoryTrees.put(e.getCategory(), tree);
+        }
+        tree.add(epochDay - origin, sign * e.getAmount());
+        allTree.add(epochDay - origin, sign * e.getAmount());
+        version++;
+    }
+
+    // Grows the day range to cover epochDay (rare: only for dates far outside the existing data)
+    private void resize(int epochDay) {
+        int newOrigin = Math.min(origin, epochDay - SLACK_DAYS);
+        int newSize = Math.max(origin + size, epochDay + SLACK_DAYS + 1) - newOrigin;
+
+        allTree = copy(allTree, newOrigin, newSize);
+        for (Map.Entry<String, FenwickTree> entry : categoryTrees.entrySet()) {
+            entry.setValue(copy(entry.getValue(), newOrigin, newSize));
+        }
+        origin = newOrigin;
+        size = newSize;
+    }
+
+    private FenwickTree copy(FenwickTree tree, int newOrigin, int newSize) {
+        double[] values = new double[newSize];
+        for (int i = 0; i < size; i++) {
+            values[origin + i - newOrigin] = tree.get(i);
+        }
+        return new FenwickTree(values);
+    }
+
+    @Override
+    public void onExpenseInserted(Expense expense, long write) {
+        apply(expense, 1);
+    }
+
+    @Override
+    public void onExpenseDeleted(Expense expense, long write) {
+        apply(expense, -1);
+    }
+
+    @Override
+    public void onExpenseUpdated(Expense oldExpense, Expense newExpense, long write) {
+        apply(oldExpense, -1);
+        apply(newExpense, 1);
+    }
+}
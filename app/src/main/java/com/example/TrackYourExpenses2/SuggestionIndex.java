@@ -0,0 +1,469 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suggests a category, amounts and titles for the add form from past expenses.
+ * Every entry carries a frequency weighted by recency: an expense dated d adds 2^((d - landmark) / HALF_LIFE_DAYS),
+ * so newer expenses count for more without older scores ever being decayed (scores are rebased now and then to
+ * keep them small). Categories are also scored per day of the week, which is the only time context expenses
+ * record. The index is built from the database once, then updated by every write and saved to a file,
+ * so startup only reads it back. The file records the database's write count it reflects, and is rebuilt
+ * when that no longer matches (writes made after the last save, e.g. by a process killed before saving).
+ * Lookups touch a handful of entries and run on the caller's thread.
+ */
+public class SuggestionIndex implements ExpenseDatabase.ExpenseChangeListener {
+
+    private static final String TAG = "SuggestionIndex";
+
+    /**
+     * A past title with the category and amount it was last saved with.
+     */
+    public static final class TitleSuggestion {
+        public final String title;
+        public final String category;
+        public final double amount;
+
+        TitleSuggestion(String title, String category, double amount) {
+            this.title = title;
+            this.category = category;
+            this.amount = amount;
+        }
+    }
+
+    // Weight of an expense halves for every this many days it is older than another
+    static final double HALF_LIFE_DAYS = 60;
+
+    // How much more a category's score on the same weekday counts than its overall score
+    static final double WEEKDAY_BOOST = 3;
+
+    // Rebase once weights reach 2^REBASE_EXPONENT, well within double range
+    private static final double REBASE_EXPONENT = 256;
+
+    // Entries kept; the lowest scored are dropped beyond these
+    static final int MAX_TITLES = 500;
+    static final int MAX_AMOUNTS_PER_CATEGORY = 20;
+
+    // Scores below this are treated as gone
+    private static final double EPSILON = 1e-9;
+
+    private static final String FILE_NAME = "suggestions.bin";
+    private static final int FILE_VERSION = 2;
+    private static final long SAVE_DELAY_MS = 5_000;
+
+    private static SuggestionIndex instance;
+
+    private final ExpenseDatabase db;
+    private final File file;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    private final Scores scores = new Scores();    // Guarded by this
+
+    // Touched only on the executor
+    private boolean loaded;
+    private ScheduledFuture<?> scheduledSave;
+    private long appliedThrough;                              // Every write numbered up to this is in the index
+    private final TreeSet<Long> appliedAhead = new TreeSet<>(); // Writes applied before an earlier one was reported
+
+    public static synchronized SuggestionIndex get(Context context) {
+        if (instance == null) {
+            instance = new SuggestionIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SuggestionIndex(Context context) {
+        db = ExpenseDatabase.get(context);
+        file = new File(context.getFilesDir(), FILE_NAME);
+        ExpenseDatabase.addChangeListener(this);
+        executor.execute(this::ensureLoaded);
+    }
+
+    // ---- Lookups ----
+
+    /**
+     * The category most likely for an expense on the given day, or null before anything is known.
+     */
+    @Nullable
+    public synchronized String suggestCategory(int epochDay) {
+        return scores.suggestCategory(epochDay);
+    }
+
+    /**
+     * The amounts most often spent in a category, best first.
+     */
+    public synchronized List<Double> suggestAmounts(String category, int limit) {
+        return scores.suggestAmounts(category, limit);
+    }
+
+    /**
+     * Past titles starting with {@code prefix} (ignoring case), best first.
+     */
+    public synchronized List<TitleSuggestion> suggestTitles(String prefix, int limit) {
+        return scores.suggestTitles(prefix, limit);
+    }
+
+    // ---- Updates ----
+
+    @Override
+    public void onExpenseInserted(Expense expense, long write) {
+        executor.execute(() -> apply(write, null, expense));
+    }
+
+    @Override
+    public void onExpenseDeleted(Expense expense, long write) {
+        executor.execute(() -> apply(write, expense, null));
+    }
+
+    @Override
+    public void onExpenseUpdated(Expense oldExpense, Expense newExpense, long write) {
+        executor.execute(() -> apply(write, oldExpense, newExpense));
+    }
+
+    // Runs on the executor
+    private void apply(long write, @Nullable Expense removed, @Nullable Expense added) {
+        ensureLoaded();
+        if (write <= appliedThrough) return; // Already read from the database or the saved index
+        synchronized (this) {
+            if (removed != null) scores.add(removed, -1);
+            if (added != null) scores.add(added, 1);
+        }
+
+        // Writes committed together can be reported out of order by different threads
+        appliedAhead.add(write);
+        while (!appliedAhead.isEmpty() && appliedAhead.first() == appliedThrough + 1) {
+            appliedThrough = appliedAhead.pollFirst();
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Saves the index now if a save is pending, instead of waiting for the delay.
+     * Called when the app leaves the foreground, after which the process may be killed at any time.
+     */
+    public void flush() {
+        executor.execute(() -> {
+            if (scheduledSave == null) return;
+            scheduledSave.cancel(false);
+            save();
+        });
+    }
+
+    // ---- Persistence ----
+
+    // Runs on the executor: reads the saved index, or builds it from the database the first time
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                long watermark;
+                synchronized (this) {
+                    watermark = read(in);
+                }
+                // Writes made since the save show in the count. Any write after this read is reported
+                // to the listener, registered before loading, and applied on top.
+                long writeCount = db.getWriteCount();
+                if (watermark == writeCount) {
+                    appliedThrough = watermark;
+                    return;
+                }
+                Log.w(TAG, "Saved index is behind the database (" + watermark + " of " + writeCount
+                        + " writes), rebuilding");
+            } catch (IOException e) {
+                Log.w(TAG, "Saved index unreadable, rebuilding", e);
+            }
+            synchronized (this) {
+                scores.clear();
+            }
+        }
+
+        // Reports of writes numbered up to the snapshot's count are skipped: the rows already show them
+        ExpenseDatabase.Snapshot<List<Expense>> snapshot = db.snapshot(ExpenseDatabase::getAllExpenses);
+        synchronized (this) {
+            for (Expense e : snapshot.value) scores.add(e, 1);
+        }
+        appliedThrough = snapshot.writeCount;
+        Log.d(TAG, "Built from " + snapshot.value.size() + " expenses");
+        save();
+    }
+
+    private void scheduleSave() {
+        if (scheduledSave != null) return;
+        scheduledSave = executor.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs on the executor; written to a temporary file first so a crash never leaves half an index
+    private void save() {
+        scheduledSave = null;
+
+        // Holding a write past the watermark would be counted twice after a restart; the missing
+        // earlier one is still on its way, and applying it schedules the next save
+        if (!appliedAhead.isEmpty()) return;
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            synchronized (this) {
+                write(out, appliedThrough);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save index", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) temp.delete();
+    }
+
+    private void write(DataOutputStream out, long watermark) throws IOException {
+        out.writeInt(FILE_VERSION);
+        out.writeLong(watermark);
+        scores.write(out);
+    }
+
+    // Returns the write count the saved index reflects
+    private long read(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_VERSION) throw new IOException("Unknown index version");
+        long watermark = in.readLong();
+        scores.read(in);
+        return watermark;
+    }
+
+    /**
+     * The scores behind the suggestions. Not thread-safe: the index guards it with its own lock.
+     */
+    static final class Scores {
+        int landmark = ExpenseDates.INVALID;                    // Epoch day weighing exactly 1
+        final Map<String, double[]> categories = new HashMap<>(); // [overall, Monday .. Sunday]
+        final Map<String, Map<Long, Double>> amounts = new HashMap<>(); // Category -> cents -> score
+        final TreeMap<String, TitleEntry> titles = new TreeMap<>();     // Keyed by lower-case title
+
+        private static final class TitleEntry {
+            String title;
+            String category;
+            double amount;
+            double score;
+        }
+
+        @Nullable
+        String suggestCategory(int epochDay) {
+            int weekday = epochDay == ExpenseDates.INVALID ? -1 : ExpenseDates.dayOfWeek(epochDay);
+            String best = null;
+            double bestScore = 0;
+            for (Map.Entry<String, double[]> entry : categories.entrySet()) {
+                double[] scores = entry.getValue();
+                double score = scores[0] + (weekday < 0 ? 0 : WEEKDAY_BOOST * scores[1 + weekday]);
+                if (score > bestScore) {
+                    best = entry.getKey();
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+
+        List<Double> suggestAmounts(String category, int limit) {
+            Map<Long, Double> scores = amounts.get(category);
+            if (scores == null) return Collections.emptyList();
+
+            List<Map.Entry<Long, Double>> entries = new ArrayList<>(scores.entrySet());
+            Collections.sort(entries, (a, b) -> Double.compare(b.getValue(), a.getValue()));
+            List<Double> result = new ArrayList<>(Math.min(limit, entries.size()));
+            for (int i = 0; i < entries.size() && i < limit; i++) {
+                result.add(entries.get(i).getKey() / 100.0);
+            }
+            return result;
+        }
+
+        List<TitleSuggestion> suggestTitles(String prefix, int limit) {
+            String key = prefix.trim().toLowerCase(Locale.ROOT);
+            Map<String, TitleEntry> matches = key.isEmpty() ? titles : titles.subMap(key, key + Character.MAX_VALUE);
+
+            // Keep the best `limit` in a small sorted list; matches are few for any typed prefix
+            List<TitleEntry> best = new ArrayList<>(limit + 1);
+            for (TitleEntry entry : matches.values()) {
+                int i = best.size();
+                while (i > 0 && best.get(i - 1).score < entry.score) i--;
+                if (i < limit) {
+                    best.add(i, entry);
+                    if (best.size() > limit) best.remove(limit);
+                }
+            }
+
+            List<TitleSuggestion> result = new ArrayList<>(best.size());
+            for (TitleEntry entry : best) {
+                result.add(new TitleSuggestion(entry.title, entry.category, entry.amount));
+            }
+            return result;
+        }
+
+        void clear() {
+            landmark = ExpenseDates.INVALID;
+            categories.clear();
+            amounts.clear();
+            titles.clear();
+        }
+
+        // Adds (sign 1) or removes (sign -1) one expense's weight
+        void add(Expense e, int sign) {
+            int day = ExpenseDates.toEpochDay(e.getDate());
+            if (day == ExpenseDates.INVALID) day = ExpenseDates.today();
+            if (landmark == ExpenseDates.INVALID) landmark = day;
+            if ((day - landmark) / HALF_LIFE_DAYS > REBASE_EXPONENT) rebase(day);
+            double weight = sign * Math.pow(2, (day - landmark) / HALF_LIFE_DAYS);
+
+            double[] categoryScores = categories.get(e.getCategory());
+            if (categoryScores == null) {
+                if (sign < 0) return;
+                categories.put(e.getCategory(), categoryScores = new double[8]);
+            }
+            categoryScores[0] = Math.max(0, categoryScores[0] + weight);
+            categoryScores[1 + ExpenseDates.dayOfWeek(day)] = Math.max(0, categoryScores[1 + ExpenseDates.dayOfWeek(day)] + weight);
+            if (categoryScores[0] < EPSILON) categories.remove(e.getCategory());
+
+            Map<Long, Double> amountScores = amounts.get(e.getCategory());
+            if (amountScores == null) amounts.put(e.getCategory(), amountScores = new HashMap<>());
+            long cents = Math.round(e.getAmount() * 100);
+            Double amountScore = amountScores.get(cents);
+            double newAmountScore = (amountScore == null ? 0 : amountScore) + weight;
+            if (newAmountScore < EPSILON) {
+                amountScores.remove(cents);
+            } else {
+                amountScores.put(cents, newAmountScore);
+                if (amountScores.size() > MAX_AMOUNTS_PER_CATEGORY) dropLowest(amountScores);
+            }
+
+            String key = e.getTitle().trim().toLowerCase(Locale.ROOT);
+            if (key.isEmpty()) return;
+            TitleEntry title = titles.get(key);
+            if (title == null) {
+                if (sign < 0) return;
+                title = new TitleEntry();
+                titles.put(key, title);
+            }
+            title.score += weight;
+            if (title.score < EPSILON) {
+                titles.remove(key);
+                return;
+            }
+            if (sign > 0) {
+                title.title = e.getTitle().trim();
+                title.category = e.getCategory();
+                title.amount = e.getAmount();
+            }
+            if (titles.size() > MAX_TITLES) dropLowestTitle();
+        }
+
+        // Moves the landmark to `day`, scaling every score so they keep their ratios
+        void rebase(int day) {
+            double factor = Math.pow(2, -(day - landmark) / HALF_LIFE_DAYS);
+            for (double[] scores : categories.values()) {
+                for (int i = 0; i < scores.length; i++) scores[i] *= factor;
+            }
+            for (Map<Long, Double> scores : amounts.values()) {
+                for (Map.Entry<Long, Double> entry : scores.entrySet()) entry.setValue(entry.getValue() * factor);
+            }
+            for (TitleEntry entry : titles.values()) entry.score *= factor;
+            landmark = day;
+        }
+
+        private static void dropLowest(Map<Long, Double> scores) {
+            Long lowest = null;
+            for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+                if (lowest == null || entry.getValue() < scores.get(lowest)) lowest = entry.getKey();
+            }
+            scores.remove(lowest);
+        }
+
+        void dropLowestTitle() {
+            String lowest = null;
+            for (Map.Entry<String, TitleEntry> entry : titles.entrySet()) {
+                if (lowest == null || entry.getValue().score < titles.get(lowest).score) lowest = entry.getKey();
+            }
+            titles.remove(lowest);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(landmark);
+
+            out.writeInt(categories.size());
+            for (Map.Entry<String, double[]> entry : categories.entrySet()) {
+                out.writeUTF(entry.getKey());
+                for (double score : entry.getValue()) out.writeDouble(score);
+            }
+
+            out.writeInt(amounts.size());
+            for (Map.Entry<String, Map<Long, Double>> entry : amounts.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<Long, Double> amount : entry.getValue().entrySet()) {
+                    out.writeLong(amount.getKey());
+                    out.writeDouble(amount.getValue());
+                }
+            }
+
+            out.writeInt(titles.size());
+            for (Map.Entry<String, TitleEntry> entry : titles.entrySet()) {
+                TitleEntry title = entry.getValue();
+                out.writeUTF(title.title);
+                out.writeUTF(title.category);
+                out.writeDouble(title.amount);
+                out.writeDouble(title.score);
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            landmark = in.readInt();
+
+            int categoryCount = in.readInt();
+            for (int i = 0; i < categoryCount; i++) {
+                String category = in.readUTF();
+                double[] scores = new double[8];
+                for (int j = 0; j < scores.length; j++) scores[j] = in.readDouble();
+                categories.put(category, scores);
+            }
+
+            int amountCategories = in.readInt();
+            for (int i = 0; i < amountCategories; i++) {
+                String category = in.readUTF();
+                int count = in.readInt();
+                Map<Long, Double> scores = new HashMap<>();
+                for (int j = 0; j < count; j++) scores.put(in.readLong(), in.readDouble());
+                amounts.put(category, scores);
+            }
+
+            int titleCount = in.readInt();
+            for (int i = 0; i < titleCount; i++) {
+                TitleEntry title = new TitleEntry();
+                title.title = in.readUTF();
+                title.category = in.readUTF();
+                title.amount = in.readDouble();
+                title.score = in.readDouble();
+                titles.put(title.title.toLowerCase(Locale.ROOT), title);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.TrackYourExpenses2;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Abstraction over the cloud document store used for syncing expenses.
+ * Collections are addressed by slash-separated paths (e.g. "users/{email}/expenses")
+ * and documents are plain maps, so implementations do not leak Firestore types.
+ * {@link FirestoreSyncBackend} talks to Firebase, {@link InMemorySyncBackend} is a local fake.
+ */
+public interface SyncBackend {
+
+    // Maximum number of writes allowed in a single batch (Firestore limit)
+    int MAX_BATCH_SIZE = 500;
+
+    // Receives the result of an asynchronous backend operation
+    interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Exception e);
+    }
+
+    // Receives a full snapshot of a collection every time it changes
+    interface ChangeListener {
+        void onChanged(Map<String, Map<String, Object>> documents);
+
+        void onError(Exception e);
+    }
+
+    // Handle returned when registering a listener, used to stop listening
+    interface Registration {
+        void remove();
+    }
+
+    /**
+     * A single write inside a batch: a full document set, a field merge, or a delete.
+     */
+    final class WriteOp {
+        private final String docId;
+        private final Map<String, Object> data; // null means delete
+        private final boolean merge;            // true keeps fields not present in data
+
+        private WriteOp(String docId, Map<String, Object> data, boolean merge) {
+            this.docId = docId;
+            this.data = data;
+            this.merge = merge;
+        }
+
+        public static WriteOp set(String docId, Map<String, Object> data) {
+            return new WriteOp(docId, data, false);
+        }
+
+        public static WriteOp merge(String docId, Map<String, Object> data) {
+            return new WriteOp(docId, data, true);
+        }
+
+        public static WriteOp delete(String docId) {
+            return new WriteOp(docId, null, false);
+        }
+
+        public String getDocId() {
+            return docId;
+        }
+
+        public Map<String, Object> getData() {
+            return data;
+        }
+
+        public boolean isDelete() {
+            return data == null;
+        }
+
+        public boolean isMerge() {
+            return merge;
+        }
+    }
+
+    /**
+     * Reads every document in a collection, keyed by document ID.
+     */
+    void fetchCollection(String collectionPath, Callback<Map<String, Map<String, Object>>> callback);
+
+    /**
+     * Reads a single document. The callback receives null if the document does not exist.
+     */
+    void fetchDocument(String collectionPath, String docId, Callback<Map<String, Object>> callback);
+
+    /**
+     * Applies up to {@link #MAX_BATCH_SIZE} writes atomically.
+     */
+    void writeBatch(String collectionPath, List<WriteOp> ops, Callback<Void> callback);
+
+    /**
+     * Deletes a single document.
+     */
+    void delete(String collectionPath, String docId, Callback<Void> callback);
+
+    /**
+     * Registers a listener that is notified whenever the collection changes.
+     */
+    Registration addChangeListener(String collectionPath, ChangeListener listener);
+}
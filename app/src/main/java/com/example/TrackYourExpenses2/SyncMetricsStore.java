@@ -0,0 +1,161 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the most recent sync runs in a small ring buffer persisted to SharedPreferences.
+ * Single-document writes (saves, receipt links, profile updates) are summed into one aggregate
+ * per kind instead, so a burst of them can't push the full sync runs out of the buffer.
+ * Shown on the sync diagnostics dialog in {@link SettingsFragment} and exportable as CSV.
+ */
+public class SyncMetricsStore {
+
+    private static final String PREFS_NAME = "SyncMetrics";
+    private static final String KEY_RUNS = "runs";
+    private static final int CAPACITY = 50; // Oldest runs are dropped beyond this
+
+    private static SyncMetricsStore instance;
+
+    private final SharedPreferences prefs;
+    private final ArrayDeque<SyncRunStats> runs = new ArrayDeque<>();
+
+    public static synchronized SyncMetricsStore get(Context context) {
+        if (instance == null) {
+            instance = new SyncMetricsStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SyncMetricsStore(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    /**
+     * Wraps a backend so that everything done through it is recorded as one run of the given kind.
+     * Call {@link MeteredSyncBackend#seal()} after the last operation has been started.
+     */
+    public MeteredSyncBackend startRun(SyncBackend backend, String kind) {
+        return new MeteredSyncBackend(backend, new SyncRunStats(kind), this::record);
+    }
+
+    /**
+     * Like {@link #startRun}, for a single-document write: when finished, its counters are added
+     * to the aggregate of its kind, which then moves to the newest position.
+     */
+    public MeteredSyncBackend startSingleWrite(SyncBackend backend, String kind) {
+        return new MeteredSyncBackend(backend, new SyncRunStats(kind), this::accumulate);
+    }
+
+    // Adds a finished single-document write to the aggregate of its kind
+    synchronized void accumulate(SyncRunStats stats) {
+        SyncRunStats total = null;
+        for (Iterator<SyncRunStats> it = runs.iterator(); it.hasNext(); ) {
+            SyncRunStats run = it.next();
+            if (run.isAggregate() && run.getKind().equals(stats.getKind())) {
+                total = run;
+                it.remove();
+                break;
+            }
+        }
+        if (total == null) total = SyncRunStats.aggregateOf(stats.getKind(), stats.getStartedAt());
+        total.merge(stats);
+        record(total);
+    }
+
+    // Adds a finished run, evicting the oldest one when full
+    public synchronized void record(SyncRunStats stats) {
+        if (runs.size() == CAPACITY) runs.removeFirst();
+        runs.addLast(stats);
+        save();
+    }
+
+    // Returns the recorded runs, newest first
+    public synchronized List<SyncRunStats> getRuns() {
+        List<SyncRunStats> list = new ArrayList<>(runs);
+        Collections.reverse(list);
+        return list;
+    }
+
+    public synchronized void clear() {
+        runs.clear();
+        save();
+    }
+
+    /**
+     * Renders all runs as CSV, oldest first, for sharing from the diagnostics dialog.
+     */
+    public synchronized String exportCsv() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        StringBuilder csv = new StringBuilder("started,kind,wall_ms,read,written,deleted,bytes,batches,failures,runs\n");
+
+        for (SyncRunStats run : runs) {
+            csv.append(sdf.format(new Date(run.getStartedAt()))).append(',')
+                    .append(run.getKind()).append(',')
+                    .append(run.getWallMillis()).append(',')
+                    .append(run.getDocsRead()).append(',')
+                    .append(run.getDocsWritten()).append(',')
+                    .append(run.getDocsDeleted()).append(',')
+                    .append(run.getPayloadBytes()).append(',')
+                    .append(run.getBatches()).append(',')
+                    .append(formatFailures(run.getFailures()).replace(',', ';')).append(',')
+                    .append(run.getRuns())
+                    .append('\n');
+        }
+        return csv.toString();
+    }
+
+    // Formats a failure breakdown like "IOException x2, TimeoutException x1"
+    static String formatFailures(Map<String, Integer> failures) {
+        if (failures.isEmpty()) return "none";
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : failures.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(entry.getKey()).append(" x").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private void load() {
+        String raw = prefs.getString(KEY_RUNS, null);
+        if (raw == null) return;
+
+        try {
+            JSONArray array = new JSONArray(raw);
+            for (int i = 0; i < array.length(); i++) {
+                runs.addLast(SyncRunStats.fromJson(array.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            Log.e("SyncMetrics", "Discarding unreadable sync metrics", e);
+            runs.clear();
+        }
+    }
+
+    private void save() {
+        try {
+            JSONArray array = new JSONArray();
+            for (SyncRunStats run : runs) {
+                array.put(run.toJson());
+            }
+            prefs.edit().putString(KEY_RUNS, array.toString()).apply();
+        } catch (JSONException e) {
+            Log.e("SyncMetrics", "Failed to save sync metrics", e);
+        }
+    }
+}
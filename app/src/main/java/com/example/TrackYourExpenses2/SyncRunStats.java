@@ -0,0 +1,202 @@
+package com.example.TrackYourExpenses2;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters collected during a single sync run: documents read, written and deleted,
+ * approximate payload size, number of batches, wall time and failures grouped by cause.
+ * Updated concurrently by {@link MeteredSyncBackend} callbacks, so all mutators are synchronized.
+ * An aggregate holds the sum of many single-document writes of one kind (see {@link SyncMetricsStore}).
+ */
+public class SyncRunStats {
+
+    private final String kind;          // What triggered the run, e.g. "push", "pull", "receipt"
+    private final long startedAt;       // Wall clock start (epoch millis)
+    private long wallMillis = -1;       // Duration once finished, -1 while running; summed for an aggregate
+    private boolean aggregate;          // Sum of single-document writes rather than one run
+    private int runs = 1;               // Runs summed into this one
+
+    private long docsRead;
+    private long docsWritten;
+    private long docsDeleted;
+    private long payloadBytes;
+    private int batches;
+    private final Map<String, Integer> failures = new TreeMap<>(); // Exception type -> count
+
+    public SyncRunStats(String kind) {
+        this(kind, System.currentTimeMillis());
+    }
+
+    private SyncRunStats(String kind, long startedAt) {
+        this.kind = kind;
+        this.startedAt = startedAt;
+    }
+
+    synchronized void addRead(int docs, long bytes) {
+        docsRead += docs;
+        payloadBytes += bytes;
+    }
+
+    synchronized void addBatch(int written, int deleted, long bytes) {
+        batches++;
+        docsWritten += written;
+        docsDeleted += deleted;
+        payloadBytes += bytes;
+    }
+
+    synchronized void addFailure(Exception e) {
+        String cause = e == null ? "Unknown" : e.getClass().getSimpleName();
+        Integer count = failures.get(cause);
+        failures.put(cause, count == null ? 1 : count + 1);
+    }
+
+    synchronized void finish() {
+        if (wallMillis < 0) wallMillis = System.currentTimeMillis() - startedAt;
+    }
+
+    // An empty aggregate of the given kind, counting from startedAt
+    static SyncRunStats aggregateOf(String kind, long startedAt) {
+        SyncRunStats stats = new SyncRunStats(kind, startedAt);
+        stats.aggregate = true;
+        stats.runs = 0;
+        stats.wallMillis = 0;
+        return stats;
+    }
+
+    // Adds a finished run's counters to this aggregate
+    synchronized void merge(SyncRunStats run) {
+        runs += run.getRuns();
+        wallMillis += Math.max(0, run.getWallMillis());
+        docsRead += run.getDocsRead();
+        docsWritten += run.getDocsWritten();
+        docsDeleted += run.getDocsDeleted();
+        payloadBytes += run.getPayloadBytes();
+        batches += run.getBatches();
+        for (Map.Entry<String, Integer> entry : run.getFailures().entrySet()) {
+            Integer count = failures.get(entry.getKey());
+            failures.put(entry.getKey(), (count == null ? 0 : count) + entry.getValue());
+        }
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public boolean isAggregate() {
+        return aggregate;
+    }
+
+    public synchronized int getRuns() {
+        return runs;
+    }
+
+    public synchronized long getWallMillis() {
+        return wallMillis;
+    }
+
+    public synchronized long getDocsRead() {
+        return docsRead;
+    }
+
+    public synchronized long getDocsWritten() {
+        return docsWritten;
+    }
+
+    public synchronized long getDocsDeleted() {
+        return docsDeleted;
+    }
+
+    public synchronized long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public synchronized int getBatches() {
+        return batches;
+    }
+
+    public synchronized int getFailureCount() {
+        int total = 0;
+        for (int count : failures.values()) total += count;
+        return total;
+    }
+
+    public synchronized Map<String, Integer> getFailures() {
+        return new TreeMap<>(failures);
+    }
+
+    /**
+     * Approximate stored size of a document, following Firestore's sizing rules:
+     * strings are their length + 1, numbers 8, booleans and nulls 1, plus 32 bytes per document.
+     */
+    static long estimateSize(String docId, Map<String, Object> data) {
+        long size = 32 + docId.length() + 1;
+        if (data == null) return size;
+
+        for (Map.Entry<String, Object> field : data.entrySet()) {
+            size += field.getKey().length() + 1;
+            Object value = field.getValue();
+            if (value instanceof String) {
+                size += ((String) value).length() + 1;
+            } else if (value instanceof Number) {
+                size += 8;
+            } else {
+                size += 1;
+            }
+        }
+        return size;
+    }
+
+    // Serializes the run for SyncMetricsStore
+    synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("kind", kind);
+        json.put("startedAt", startedAt);
+        json.put("wallMillis", wallMillis);
+        json.put("read", docsRead);
+        json.put("written", docsWritten);
+        json.put("deleted", docsDeleted);
+        json.put("bytes", payloadBytes);
+        json.put("batches", batches);
+        json.put("aggregate", aggregate);
+        json.put("runs", runs);
+
+        JSONObject failureJson = new JSONObject();
+        for (Map.Entry<String, Integer> entry : failures.entrySet()) {
+            failureJson.put(entry.getKey(), entry.getValue());
+        }
+        json.put("failures", failureJson);
+        return json;
+    }
+
+    // Restores a run saved by toJson()
+    static SyncRunStats fromJson(JSONObject json) throws JSONException {
+        SyncRunStats stats = new SyncRunStats(json.getString("kind"), json.getLong("startedAt"));
+        stats.wallMillis = json.getLong("wallMillis");
+        stats.docsRead = json.getLong("read");
+        stats.docsWritten = json.getLong("written");
+        stats.docsDeleted = json.getLong("deleted");
+        stats.payloadBytes = json.getLong("bytes");
+        stats.batches = json.getInt("batches");
+        stats.aggregate = json.optBoolean("aggregate", false);
+        stats.runs = json.optInt("runs", 1);
+
+        JSONObject failureJson = json.optJSONObject("failures");
+        if (failureJson != null) {
+            Iterator<String> keys = failureJson.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                stats.failures.put(key, failureJson.getInt(key));
+            }
+        }
+        return stats;
+    }
+}
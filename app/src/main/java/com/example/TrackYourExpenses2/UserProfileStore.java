@@ -0,0 +1,436 @@
+package com.example.TrackYourExpenses2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory store for the signed-in user's profile (monthly budget, per-category limits and alert settings).
+ * Values are loaded from SharedPreferences once and written through to SharedPreferences and the cloud.
+ * While signed in, {@link #startListening()} keeps a live listener on the cloud profile, so a change made
+ * on another device arrives as soon as it is written. Otherwise the cache is revalidated only when it is
+ * older than {@link #TTL_MILLIS} or after {@link #invalidate()} is called (e.g. when the account changes),
+ * which also removes the listener.
+ */
+public class UserProfileStore {
+
+    private static final String TAG = "UserProfile";
+
+    // How long a cloud-validated profile is trusted before it is fetched again
+    static final long TTL_MILLIS = 6 * 60 * 60 * 1000L;
+
+    static final float DEFAULT_BUDGET = 1000f;
+    static final int[] DEFAULT_ALERT_THRESHOLDS = {50, 75, 90, 100};
+
+    private static final String PREF_BUDGET = "monthly_budget";
+    private static final String PREF_ALERT_THRESHOLDS = "alert_thresholds";
+    private static final String PREF_CATEGORY_BUDGETS = "category_budgets";
+    private static final String PREF_VALIDATED_AT = "profile_validated_at";
+
+    private static UserProfileStore instance;
+
+    // Notified whenever a profile value changes, locally or from the cloud
+    public interface OnProfileChangedListener {
+        void onProfileChanged(UserProfileStore store);
+    }
+
+    private final Context context;
+    private final SyncBackend backend;
+    private final List<OnProfileChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Cached state for the current account
+    private boolean loaded;
+    private String userEmail;
+    private SharedPreferences userPrefs;
+    private float monthlyBudget;
+    private int[] alertThresholds;    // Budget usage percentages that raise an alert, ascending
+    private Map<String, Float> categoryBudgets;    // Monthly limit per category; absent means no limit
+    private long validatedAt;
+
+    // Live cloud listener and the account it listens to, or null while not listening
+    private SyncBackend.Registration registration;
+    private String listeningFor;
+
+    public static synchronized UserProfileStore get(Context context) {
+        if (instance == null) {
+            instance = new UserProfileStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private UserProfileStore(Context context) {
+        this.context = context;
+        this.backend = new FirestoreSyncBackend();
+    }
+
+    public void addListener(OnProfileChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(OnProfileChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Returns the signed-in user's email, or null for guests
+    public synchronized String getUserEmail() {
+        ensureLoaded();
+        return userEmail;
+    }
+
+    // Preferences file holding this account's settings ("BudgetPrefs_<email>" or "GuestPrefs")
+    public synchronized SharedPreferences userPrefs() {
+        ensureLoaded();
+        return userPrefs;
+    }
+
+    public synchronized float getMonthlyBudget() {
+        ensureLoaded();
+        return monthlyBudget;
+    }
+
+    /**
+     * Updates the monthly budget in memory, in SharedPreferences and (when signed in) in the cloud.
+     */
+    public void setMonthlyBudget(float budget) {
+        String email;
+        synchronized (this) {
+            ensureLoaded();
+            if (budget == monthlyBudget) return;
+
+            monthlyBudget = budget;
+            userPrefs.edit().putFloat(PREF_BUDGET, budget).apply();
+            email = userEmail;
+        }
+
+        if (email != null) {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(PREF_BUDGET, budget);
+            writeProfile(email, fields);
+        }
+        notifyListeners();
+    }
+
+    // Returns the monthly limit of every category that has one
+    public synchronized Map<String, Float> getCategoryBudgets() {
+        ensureLoaded();
+        return Collections.unmodifiableMap(new HashMap<>(categoryBudgets));
+    }
+
+    /**
+     * Sets one category's monthly limit locally and (when signed in) in the cloud.
+     * A limit of zero or less removes it.
+     */
+    public void setCategoryBudget(String category, float limit) {
+        String email;
+        Map<String, Float> budgets;
+        synchronized (this) {
+            ensureLoaded();
+            Float current = categoryBudgets.get(category);
+            if (limit <= 0 ? current == null : current != null && current == limit) return;
+
+            if (limit <= 0) {
+                categoryBudgets.remove(category);
+            } else {
+                categoryBudgets.put(category, limit);
+            }
+            userPrefs.edit().putString(PREF_CATEGORY_BUDGETS, toJson(categoryBudgets)).apply();
+            email = userEmail;
+            budgets = new HashMap<>(categoryBudgets);
+        }
+
+        if (email != null) {
+            // A merge write keeps nested keys it isn't given, so a removed limit is sent as 0
+            if (limit <= 0) budgets.put(category, 0f);
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(PREF_CATEGORY_BUDGETS, budgets);
+            writeProfile(email, fields);
+        }
+        notifyListeners();
+    }
+
+    // Returns the budget usage percentages that trigger an alert, in ascending order
+    public synchronized int[] getAlertThresholds() {
+        ensureLoaded();
+        return alertThresholds.clone();
+    }
+
+    /**
+     * Updates the alert thresholds locally and (when signed in) in the cloud.
+     */
+    public void setAlertThresholds(int[] thresholds) {
+        int[] sorted = thresholds.clone();
+        Arrays.sort(sorted);
+
+        String email;
+        synchronized (this) {
+            ensureLoaded();
+            if (Arrays.equals(sorted, alertThresholds)) return;
+
+            alertThresholds = sorted;
+            userPrefs.edit().putString(PREF_ALERT_THRESHOLDS, joinThresholds(sorted)).apply();
+            email = userEmail;
+        }
+
+        if (email != null) {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(PREF_ALERT_THRESHOLDS, toList(sorted));
+            writeProfile(email, fields);
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Forces the next {@link #revalidateIfStale()} to go to the cloud and reloads the account from prefs.
+     * Called when the signed-in account changes; also removes the live listener of the previous account.
+     */
+    public synchronized void invalidate() {
+        stopListening();
+        loaded = false;
+        validatedAt = 0;
+        if (userPrefs != null) userPrefs.edit().remove(PREF_VALIDATED_AT).apply();
+    }
+
+    /**
+     * Listens to the signed-in account's cloud profile and feeds every snapshot into the cache.
+     * The first snapshot revalidates the cache straight away. Does nothing for guests or if already
+     * listening to this account; a listener left over from another account is replaced.
+     */
+    public synchronized void startListening() {
+        ensureLoaded();
+        if (userEmail == null) {
+            stopListening();
+            return;
+        }
+        if (userEmail.equals(listeningFor)) return;
+
+        stopListening();
+        String email = userEmail;
+        listeningFor = email;
+        registration = backend.addChangeListener(profilePath(email), new SyncBackend.ChangeListener() {
+            @Override
+            public void onChanged(Map<String, Map<String, Object>> documents) {
+                applyRemote(email, documents.get("budget"));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // Firestore ends a listener after an error; the TTL revalidation takes over
+                Log.e(TAG, "Profile listener failed", e);
+                synchronized (UserProfileStore.this) {
+                    if (email.equals(listeningFor)) {
+                        registration = null;
+                        listeningFor = null;
+                    }
+                }
+            }
+        });
+    }
+
+    // Removes the live listener, if any
+    public synchronized void stopListening() {
+        if (registration != null) registration.remove();
+        registration = null;
+        listeningFor = null;
+    }
+
+    /**
+     * Fetches the profile from the cloud if the cached copy is older than the TTL.
+     * Skipped while a live listener already keeps it current.
+     */
+    public void revalidateIfStale() {
+        String email;
+        synchronized (this) {
+            ensureLoaded();
+            if (userEmail == null || System.currentTimeMillis() - validatedAt < TTL_MILLIS) return;
+            if (userEmail.equals(listeningFor)) return;
+            email = userEmail;
+        }
+
+        MeteredSyncBackend run = SyncMetricsStore.get(context).startSingleWrite(backend, "profile");
+        run.fetchDocument(profilePath(email), "budget", new SyncBackend.Callback<Map<String, Object>>() {
+            @Override
+            public void onSuccess(Map<String, Object> doc) {
+                applyRemote(email, doc);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.e(TAG, "Failed to revalidate profile", e);
+            }
+        });
+        run.seal();
+    }
+
+    // Takes the cloud values for the given account, if it is still the current one
+    private void applyRemote(String email, Map<String, Object> doc) {
+        boolean changed = false;
+        synchronized (this) {
+            if (!email.equals(userEmail)) return; // Account switched while fetching
+
+            validatedAt = System.currentTimeMillis();
+            SharedPreferences.Editor editor = userPrefs.edit().putLong(PREF_VALIDATED_AT, validatedAt);
+
+            Object budget = doc == null ? null : doc.get(PREF_BUDGET);
+            if (budget instanceof Number && ((Number) budget).floatValue() != monthlyBudget) {
+                monthlyBudget = ((Number) budget).floatValue();
+                editor.putFloat(PREF_BUDGET, monthlyBudget);
+                changed = true;
+            }
+
+            Object thresholds = doc == null ? null : doc.get(PREF_ALERT_THRESHOLDS);
+            if (thresholds instanceof List) {
+                int[] remote = fromList((List<?>) thresholds);
+                if (!Arrays.equals(remote, alertThresholds)) {
+                    alertThresholds = remote;
+                    editor.putString(PREF_ALERT_THRESHOLDS, joinThresholds(remote));
+                    changed = true;
+                }
+            }
+
+            Object categories = doc == null ? null : doc.get(PREF_CATEGORY_BUDGETS);
+            if (categories instanceof Map) {
+                Map<String, Float> remote = new HashMap<>();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) categories).entrySet()) {
+                    if (entry.getValue() instanceof Number && ((Number) entry.getValue()).floatValue() > 0) {
+                        remote.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).floatValue());
+                    }
+                }
+                if (!remote.equals(categoryBudgets)) {
+                    categoryBudgets = remote;
+                    editor.putString(PREF_CATEGORY_BUDGETS, toJson(remote));
+                    changed = true;
+                }
+            }
+            editor.apply();
+        }
+        if (changed) notifyListeners();
+    }
+
+    // Merges profile fields into users/{email}/profile/budget
+    private void writeProfile(String email, Map<String, Object> fields) {
+        MeteredSyncBackend run = SyncMetricsStore.get(context).startSingleWrite(backend, "profile");
+        run.writeBatch(profilePath(email),
+                Collections.singletonList(SyncBackend.WriteOp.merge("budget", fields)),
+                new SyncBackend.Callback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                        Log.d(TAG, "Profile saved");
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.e(TAG, "Failed to save profile", e);
+                    }
+                });
+        run.seal();
+    }
+
+    // Loads the cached profile for whichever account is signed in now
+    private void ensureLoaded() {
+        String email = context.getSharedPreferences("AppPrefs", Context.MODE_PRIVATE)
+                .getString("user_email", null);
+        if (loaded && (email == null ? userEmail == null : email.equals(userEmail))) return;
+
+        userEmail = email;
+        String prefsName = email != null ? "BudgetPrefs_" + email : "GuestPrefs";
+        userPrefs = context.getSharedPreferences(prefsName, Context.MODE_PRIVATE);
+        monthlyBudget = userPrefs.getFloat(PREF_BUDGET, DEFAULT_BUDGET);
+        alertThresholds = parseThresholds(userPrefs.getString(PREF_ALERT_THRESHOLDS, null));
+        categoryBudgets = parseCategoryBudgets(userPrefs.getString(PREF_CATEGORY_BUDGETS, null));
+        validatedAt = userPrefs.getLong(PREF_VALIDATED_AT, 0);
+        loaded = true;
+    }
+
+    // Thresholds are stored in prefs as "50,75,90,100"
+    static String joinThresholds(int[] thresholds) {
+        StringBuilder sb = new StringBuilder();
+        for (int t : thresholds) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+
+    static int[] parseThresholds(String raw) {
+        if (raw == null) return DEFAULT_ALERT_THRESHOLDS.clone();
+        if (raw.isEmpty()) return new int[0];
+
+        String[] parts = raw.split(",");
+        int[] thresholds = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) thresholds[i] = Integer.parseInt(parts[i].trim());
+        } catch (NumberFormatException e) {
+            return DEFAULT_ALERT_THRESHOLDS.clone();
+        }
+        Arrays.sort(thresholds);
+        return thresholds;
+    }
+
+    // Category limits are stored in prefs as a JSON object, e.g. {"Food":300}
+    static String toJson(Map<String, Float> budgets) {
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, Float> entry : budgets.entrySet()) {
+                json.put(entry.getKey(), (double) entry.getValue());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode category budgets", e);
+        }
+        return json.toString();
+    }
+
+    static Map<String, Float> parseCategoryBudgets(String raw) {
+        Map<String, Float> budgets = new HashMap<>();
+        if (raw == null) return budgets;
+        try {
+            JSONObject json = new JSONObject(raw);
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String category = keys.next();
+                budgets.put(category, (float) json.getDouble(category));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Corrupt category budgets, ignoring", e);
+        }
+        return budgets;
+    }
+
+    private static List<Long> toList(int[] values) {
+        List<Long> list = new ArrayList<>();
+        for (int v : values) list.add((long) v);
+        return list;
+    }
+
+    private static int[] fromList(List<?> list) {
+        List<Integer> values = new ArrayList<>();
+        for (Object o : list) {
+            if (o instanceof Number) values.add(((Number) o).intValue());
+        }
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) result[i] = values.get(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static String profilePath(String email) {
+        return "users/" + email + "/profile";
+    }
+
+    private void notifyListeners() {
+        for (OnProfileChangedListener listener : listeners) {
+            listener.onProfileChanged(this);
+        }
+    }
+}
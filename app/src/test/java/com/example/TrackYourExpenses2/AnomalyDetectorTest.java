@@ -0,0 +1,92 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Running statistics of {@link AnomalyDetector} against their closed forms, and the scores they give.
+ */
+public class AnomalyDetectorTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void first_update_starts_from_the_amount() {
+        AnomalyDetector.Stats stats = new AnomalyDetector.Stats(0, 0, 0);
+        AnomalyDetector.update(stats, 20);
+
+        assertEquals(Math.log1p(20), stats.mean, DELTA);
+        assertEquals(0, stats.variance, DELTA);
+        assertEquals(1, stats.count);
+    }
+
+    @Test
+    public void two_updates_give_the_weighted_variance() {
+        AnomalyDetector.Stats stats = new AnomalyDetector.Stats(0, 0, 0);
+        AnomalyDetector.update(stats, 10);
+        AnomalyDetector.update(stats, 100);
+
+        // Weights 1 - ALPHA and ALPHA: the variance of two points is ALPHA (1 - ALPHA) d^2
+        double a = AnomalyDetector.ALPHA;
+        double diff = Math.log1p(100) - Math.log1p(10);
+        assertEquals(Math.log1p(10) + a * diff, stats.mean, DELTA);
+        assertEquals(a * (1 - a) * diff * diff, stats.variance, DELTA);
+    }
+
+    @Test
+    public void mean_decays_towards_a_new_level() {
+        AnomalyDetector.Stats stats = new AnomalyDetector.Stats(0, 0, 0);
+        AnomalyDetector.update(stats, 5);
+        for (int i = 0; i < 30; i++) AnomalyDetector.update(stats, 50);
+
+        // The old level's weight shrinks by 1 - ALPHA with every newer expense
+        double oldLevel = Math.log1p(5);
+        double newLevel = Math.log1p(50);
+        double expected = newLevel + (oldLevel - newLevel) * Math.pow(1 - AnomalyDetector.ALPHA, 30);
+        assertEquals(expected, stats.mean, DELTA);
+        assertEquals(31, stats.count);
+    }
+
+    @Test
+    public void score_is_zero_until_there_is_enough_history() {
+        AnomalyDetector.Stats stats = new AnomalyDetector.Stats(0, 0, 0);
+        for (int i = 0; i < AnomalyDetector.MIN_SAMPLES - 1; i++) {
+            AnomalyDetector.update(stats, 10);
+            assertEquals(0, AnomalyDetector.score(stats, 10_000), DELTA);
+        }
+        AnomalyDetector.update(stats, 10);
+        assertTrue(AnomalyDetector.score(stats, 10_000) > 0);
+    }
+
+    @Test
+    public void score_counts_standard_deviations_above_the_mean() {
+        AnomalyDetector.Stats stats = new AnomalyDetector.Stats(Math.log(50), 0.25, 20);
+
+        // Standard deviation 0.5 in log space
+        assertEquals(2, AnomalyDetector.score(stats, Math.exp(Math.log(50) + 1) - 1), DELTA);
+        assertEquals(-1, AnomalyDetector.score(stats, Math.exp(Math.log(50) - 0.5) - 1), DELTA);
+        assertFalse(AnomalyDetector.isAnomaly(2));
+        assertTrue(AnomalyDetector.isAnomaly(AnomalyDetector.THRESHOLD));
+    }
+
+    @Test
+    public void constant_history_uses_the_minimum_deviation() {
+        AnomalyDetector.Stats stats = new AnomalyDetector.Stats(0, 0, 0);
+        for (int i = 0; i < 10; i++) AnomalyDetector.update(stats, 12);
+
+        assertEquals(0, stats.variance, DELTA);
+        assertEquals(0, AnomalyDetector.score(stats, 12), DELTA);
+        // The deviation is taken as 0.05, so 0.15 above the mean in log space scores 3
+        double amount = Math.exp(Math.log1p(12) + 0.15) - 1;
+        assertEquals(3, AnomalyDetector.score(stats, amount), 1e-6);
+    }
+
+    @Test
+    public void negative_amounts_count_as_zero() {
+        AnomalyDetector.Stats stats = new AnomalyDetector.Stats(0, 0, 0);
+        AnomalyDetector.update(stats, -40);
+
+        assertEquals(0, stats.mean, DELTA);
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.TrackYourExpenses2;
+
+/**
+ * JUnit category of host benchmarks. Excluded from the unit tests unless Gradle is run with -Pbenchmark.
+ */
+public interface Benchmark {
+}
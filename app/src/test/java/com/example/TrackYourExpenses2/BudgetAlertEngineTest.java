@@ -0,0 +1,61 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Threshold crossing in {@link BudgetAlertEngine}: each threshold alerts once as usage rises,
+ * and is re-armed when usage falls back below it.
+ */
+public class BudgetAlertEngineTest {
+
+    private static final int[] THRESHOLDS = {50, 75, 90, 100};
+
+    @Test
+    public void highest_threshold_reached_is_crossed() {
+        assertEquals(0, BudgetAlertEngine.crossedThreshold(49.9, THRESHOLDS));
+        assertEquals(50, BudgetAlertEngine.crossedThreshold(50, THRESHOLDS));
+        assertEquals(75, BudgetAlertEngine.crossedThreshold(89.99, THRESHOLDS));
+        assertEquals(100, BudgetAlertEngine.crossedThreshold(250, THRESHOLDS));
+        assertEquals(0, BudgetAlertEngine.crossedThreshold(80, new int[0]));
+    }
+
+    @Test
+    public void usage_is_zero_without_a_budget() {
+        assertEquals(45, BudgetAlertEngine.usagePercent(450, 1000f), 1e-9);
+        assertEquals(0, BudgetAlertEngine.usagePercent(450, 0f), 0);
+        assertEquals(0, BudgetAlertEngine.usagePercent(450, -5f), 0);
+    }
+
+    @Test
+    public void each_threshold_alerts_once_while_usage_rises() {
+        // A jump past several thresholds alerts only for the highest
+        assertEquals(Arrays.asList(50, 90, 100), alertsFor(10, 52, 60, 74, 95, 96, 120, 130));
+    }
+
+    @Test
+    public void falling_usage_rearms_without_alerting() {
+        // A delete drops usage under 75; rising past it again alerts again, but 50 stays alerted
+        assertEquals(Arrays.asList(50, 75, 75), alertsFor(55, 80, 60, 78));
+
+        // A higher budget drops usage under every threshold
+        assertEquals(Arrays.asList(90, 50), alertsFor(92, 20, 51));
+    }
+
+    // Replays usage levels the way BudgetAlertEngine.checkThresholds records them, returning the alerts raised
+    private static List<Integer> alertsFor(double... usages) {
+        List<Integer> alerts = new ArrayList<>();
+        int alerted = 0;
+        for (double usage : usages) {
+            int crossed = BudgetAlertEngine.crossedThreshold(usage, THRESHOLDS);
+            if (crossed > alerted) alerts.add(crossed);
+            alerted = crossed;
+        }
+        return alerts;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Results of {@link ExpenseAggregator} against a plain sequential loop, on inputs large enough
+ * to be split across the fork/join pool and on ones aggregated on the calling thread.
+ */
+public class ExpenseAggregatorTest {
+
+    // Amounts are multiples of 0.25, so sums are exact whatever order they are added in
+    private static final double DELTA = 0;
+
+    private static final String[] CATEGORIES = {"Food", "Transport", "Utilities", "Entertainment", "Other"};
+
+    @Test
+    public void split_aggregation_matches_sequential_sum() {
+        List<Expense> expenses = generate(ExpenseAggregator.SEQUENTIAL_THRESHOLD * 12 + 17);
+
+        ExpenseAggregator.Stats stats = ExpenseAggregator.aggregate(expenses);
+        ExpenseAggregator.Stats expected = sequential(expenses, e -> "").get("");
+        assertStats("all", expected, stats);
+        assertEquals(expenses.size(), stats.getCount());
+    }
+
+    @Test
+    public void split_grouping_matches_sequential_grouping() {
+        List<Expense> expenses = generate(ExpenseAggregator.SEQUENTIAL_THRESHOLD * 5 + 3);
+        ExpenseAggregator.KeyFunction key = ExpenseAggregator.both(ExpenseAggregator.BY_YEAR, ExpenseAggregator.BY_CATEGORY);
+
+        Map<String, ExpenseAggregator.Stats> groups = ExpenseAggregator.groupBy(expenses, key);
+        Map<String, ExpenseAggregator.Stats> expected = sequential(expenses, key);
+
+        assertEquals(expected.keySet(), groups.keySet());
+        for (Map.Entry<String, ExpenseAggregator.Stats> entry : expected.entrySet()) {
+            assertStats(entry.getKey(), entry.getValue(), groups.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void small_and_linked_inputs_match_sequential_grouping() {
+        List<Expense> small = generate(ExpenseAggregator.SEQUENTIAL_THRESHOLD / 3);
+        List<Expense> linked = new LinkedList<>(generate(ExpenseAggregator.SEQUENTIAL_THRESHOLD * 2 + 1));
+
+        for (List<Expense> expenses : Arrays.asList(small, linked)) {
+            Map<String, ExpenseAggregator.Stats> groups = ExpenseAggregator.groupBy(expenses, ExpenseAggregator.BY_MONTH);
+            Map<String, ExpenseAggregator.Stats> expected = sequential(expenses, ExpenseAggregator.BY_MONTH);
+            assertEquals(expected.keySet(), groups.keySet());
+            for (Map.Entry<String, ExpenseAggregator.Stats> entry : expected.entrySet()) {
+                assertStats(entry.getKey(), entry.getValue(), groups.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void undated_expenses_are_left_out_of_time_groups() {
+        List<Expense> expenses = new ArrayList<>();
+        expenses.add(new Expense("Lunch", 12, "3/2/2025", "Food", null));
+        expenses.add(new Expense("Bus", 2.5, "not a date", "Transport", null));
+
+        Map<String, ExpenseAggregator.Stats> groups = ExpenseAggregator.groupBy(expenses, ExpenseAggregator.BY_YEAR);
+        assertEquals(1, groups.size());
+        assertEquals(12, groups.get("2025").getSum(), DELTA);
+    }
+
+    @Test
+    public void empty_input_gives_empty_stats() {
+        ExpenseAggregator.Stats stats = ExpenseAggregator.aggregate(new ArrayList<>());
+
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getSum(), DELTA);
+        assertEquals(0, stats.getMin(), DELTA);
+        assertEquals(0, stats.getMax(), DELTA);
+        assertEquals(0, stats.getAverage(), DELTA);
+    }
+
+    private static List<Expense> generate(int count) {
+        List<Expense> expenses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String date = (i % 28 + 1) + "/" + (i % 12 + 1) + "/" + (2015 + i % 11);
+            double amount = (i * 7919 % 4000) * 0.25;
+            expenses.add(new Expense("Item " + i, amount, date, CATEGORIES[i % CATEGORIES.length], null));
+        }
+        return expenses;
+    }
+
+    // The reference: one pass in list order
+    private static Map<String, ExpenseAggregator.Stats> sequential(List<Expense> expenses, ExpenseAggregator.KeyFunction key) {
+        Map<String, ExpenseAggregator.Stats> groups = new HashMap<>();
+        for (Expense e : expenses) {
+            String group = key.keyOf(e);
+            if (group == null) continue;
+            ExpenseAggregator.Stats stats = groups.get(group);
+            if (stats == null) groups.put(group, stats = new ExpenseAggregator.Stats());
+            stats.add(e.getAmount());
+        }
+        return groups;
+    }
+
+    private static void assertStats(String group, ExpenseAggregator.Stats expected, ExpenseAggregator.Stats actual) {
+        assertNotNull(group, actual);
+        assertEquals(group, expected.getCount(), actual.getCount());
+        assertEquals(group, expected.getSum(), actual.getSum(), DELTA);
+        assertEquals(group, expected.getMin(), actual.getMin(), DELTA);
+        assertEquals(group, expected.getMax(), actual.getMax(), DELTA);
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Range sums of {@link FenwickTree} against a plain array, including the first and last slots
+ * and a tree copied into a larger range the way {@link SpendingIndex} resizes.
+ */
+public class FenwickTreeTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void rangeSum_matches_array_for_every_range() {
+        double[] values = values(37);
+        FenwickTree tree = new FenwickTree(values);
+
+        for (int from = 0; from < values.length; from++) {
+            for (int to = from; to < values.length; to++) {
+                assertEquals(from + ".." + to, sum(values, from, to), tree.rangeSum(from, to), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void rangeSum_at_the_edges() {
+        double[] values = values(16);
+        FenwickTree tree = new FenwickTree(values);
+
+        assertEquals(values[0], tree.rangeSum(0, 0), DELTA);
+        assertEquals(values[15], tree.rangeSum(15, 15), DELTA);
+        assertEquals(sum(values, 0, 15), tree.rangeSum(0, 15), DELTA);
+
+        // Out of range bounds are clamped; an empty range sums to zero
+        assertEquals(sum(values, 0, 15), tree.rangeSum(-5, 100), DELTA);
+        assertEquals(0, tree.rangeSum(8, 7), DELTA);
+        assertEquals(0, tree.prefixSum(-1), DELTA);
+    }
+
+    @Test
+    public void add_matches_built_tree() {
+        double[] values = values(20);
+        FenwickTree tree = new FenwickTree(values.length);
+        for (int i = 0; i < values.length; i++) tree.add(i, values[i]);
+
+        tree.add(0, 2.5);
+        tree.add(19, -1.25);
+        values[0] += 2.5;
+        values[19] -= 1.25;
+
+        for (int i = 0; i < values.length; i++) assertEquals(values[i], tree.get(i), DELTA);
+        assertEquals(sum(values, 0, 19), tree.rangeSum(0, 19), DELTA);
+    }
+
+    @Test
+    public void rangeSum_after_resize() {
+        double[] values = values(10);
+        FenwickTree tree = new FenwickTree(values);
+
+        // Grow by 5 slots on the left and 7 on the right, as SpendingIndex.resize does
+        int shift = 5;
+        double[] grown = new double[values.length + shift + 7];
+        for (int i = 0; i < tree.size(); i++) grown[i + shift] = tree.get(i);
+        FenwickTree resized = new FenwickTree(grown);
+
+        assertEquals(grown.length, resized.size());
+        assertEquals(0, resized.rangeSum(0, shift - 1), DELTA);
+        assertEquals(0, resized.rangeSum(shift + values.length, grown.length - 1), DELTA);
+        assertEquals(sum(values, 0, 9), resized.rangeSum(0, grown.length - 1), DELTA);
+        assertEquals(values[0], resized.get(shift), DELTA);
+        assertEquals(values[9], resized.get(shift + 9), DELTA);
+        assertEquals(sum(values, 2, 6), resized.rangeSum(shift + 2, shift + 6), DELTA);
+
+        // The new slots take writes like any other
+        resized.add(grown.length - 1, 4);
+        assertEquals(sum(values, 0, 9) + 4, resized.rangeSum(0, grown.length - 1), DELTA);
+    }
+
+    private static double[] values(int size) {
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) values[i] = (i * 7 % 11) + 0.25 * i;
+        return values;
+    }
+
+    private static double sum(double[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i <= to; i++) sum += values[i];
+        return sum;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Category and month rows of {@link PeriodComparison} built from hand-made rollups, including
+ * categories found in only one period, missing months and periods of different lengths.
+ */
+public class PeriodComparisonTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun",
+            "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    @Test
+    public void categories_sum_each_period_and_sort_by_change() {
+        Map<Integer, Map<String, Double>> rollups = new HashMap<>();
+        put(rollups, 2025, 1, "Food", 100);
+        put(rollups, 2025, 2, "Food", 50);
+        put(rollups, 2025, 2, "Transport", 30);
+        put(rollups, 2024, 1, "Food", 120);
+        put(rollups, 2024, 2, "Utilities", 80);
+
+        PeriodComparison comparison = new PeriodComparison(ExpenseDates.monthKey(2025, 1), ExpenseDates.monthKey(2025, 2),
+                ExpenseDates.monthKey(2024, 1), ExpenseDates.monthKey(2024, 2), rollups, MONTHS);
+
+        List<PeriodComparison.Row> categories = comparison.getCategories();
+        assertEquals(3, categories.size());
+        // Utilities -80, Transport +30, Food +30: ties keep name order
+        assertRow(categories.get(0), "Utilities", 0, 80);
+        assertRow(categories.get(1), "Food", 150, 120);
+        assertRow(categories.get(2), "Transport", 30, 0);
+
+        assertRow(comparison.getTotal(), "Total", 180, 200);
+        assertEquals(-10, comparison.getTotal().getPercentChange(), DELTA);
+        assertTrue(Double.isNaN(categories.get(2).getPercentChange()));
+    }
+
+    @Test
+    public void months_line_up_by_position() {
+        Map<Integer, Map<String, Double>> rollups = new HashMap<>();
+        put(rollups, 2025, 11, "Food", 10);
+        put(rollups, 2025, 11, "Other", 5);
+        put(rollups, 2026, 1, "Food", 40);
+        put(rollups, 2025, 8, "Food", 7);
+
+        // Nov 2025 .. Jan 2026 against Aug .. Oct 2025; Dec and Sep/Oct have no rollups
+        PeriodComparison comparison = new PeriodComparison(ExpenseDates.monthKey(2025, 11), ExpenseDates.monthKey(2026, 1),
+                ExpenseDates.monthKey(2025, 8), ExpenseDates.monthKey(2025, 10), rollups, MONTHS);
+
+        List<PeriodComparison.Row> months = comparison.getMonths();
+        assertEquals(3, months.size());
+        assertRow(months.get(0), "Nov 2025 vs Aug 2025", 15, 7);
+        assertRow(months.get(1), "Dec 2025 vs Sep 2025", 0, 0);
+        assertRow(months.get(2), "Jan 2026 vs Oct 2025", 40, 0);
+    }
+
+    @Test
+    public void shorter_period_is_padded() {
+        Map<Integer, Map<String, Double>> rollups = new HashMap<>();
+        put(rollups, 2025, 3, "Food", 20);
+        put(rollups, 2024, 3, "Food", 10);
+        put(rollups, 2024, 4, "Food", 15);
+
+        PeriodComparison comparison = new PeriodComparison(ExpenseDates.monthKey(2025, 3), ExpenseDates.monthKey(2025, 3),
+                ExpenseDates.monthKey(2024, 3), ExpenseDates.monthKey(2024, 4), rollups, MONTHS);
+
+        List<PeriodComparison.Row> months = comparison.getMonths();
+        assertEquals(2, months.size());
+        assertRow(months.get(0), "Mar 2025 vs Mar 2024", 20, 10);
+        assertRow(months.get(1), "– vs Apr 2024", 0, 15);
+        assertRow(comparison.getTotal(), "Total", 20, 25);
+    }
+
+    @Test
+    public void rollups_outside_both_periods_are_ignored() {
+        Map<Integer, Map<String, Double>> rollups = new HashMap<>();
+        put(rollups, 2025, 6, "Food", 20);
+        put(rollups, 2025, 7, "Travel", 900);
+
+        PeriodComparison comparison = new PeriodComparison(ExpenseDates.monthKey(2025, 6), ExpenseDates.monthKey(2025, 6),
+                ExpenseDates.monthKey(2025, 5), ExpenseDates.monthKey(2025, 5), rollups, MONTHS);
+
+        assertEquals(1, comparison.getCategories().size());
+        assertRow(comparison.getTotal(), "Total", 20, 0);
+    }
+
+    private static void put(Map<Integer, Map<String, Double>> rollups, int year, int month, String category, double total) {
+        Map<String, Double> totals = rollups.get(ExpenseDates.monthKey(year, month));
+        if (totals == null) rollups.put(ExpenseDates.monthKey(year, month), totals = new HashMap<>());
+        totals.put(category, total);
+    }
+
+    private static void assertRow(PeriodComparison.Row row, String label, double totalA, double totalB) {
+        assertEquals(label, row.label);
+        assertEquals(label, totalA, row.totalA, DELTA);
+        assertEquals(label, totalB, row.totalB, DELTA);
+    }
+}
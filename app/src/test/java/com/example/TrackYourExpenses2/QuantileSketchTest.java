@@ -0,0 +1,75 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Accuracy of {@link QuantileSketch} against exact quantiles of the same amounts.
+ */
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 1};
+
+    @Test
+    public void quantiles_within_relative_accuracy() {
+        double[] amounts = amounts(10_000, 1L);
+        QuantileSketch sketch = new QuantileSketch();
+        for (double amount : amounts) sketch.add(amount);
+
+        assertEquals(amounts.length, sketch.getCount());
+        assertAccurate(sketch, amounts);
+    }
+
+    @Test
+    public void merged_and_removed_amounts_stay_accurate() {
+        double[] first = amounts(5_000, 2L);
+        double[] second = amounts(5_000, 3L);
+        QuantileSketch a = new QuantileSketch();
+        QuantileSketch b = new QuantileSketch();
+        for (double amount : first) a.add(amount);
+        for (double amount : second) b.add(amount);
+
+        a.merge(b);
+        double[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        assertAccurate(a, all);
+
+        for (double amount : second) a.remove(amount);
+        assertEquals(first.length, a.getCount());
+        assertAccurate(a, first);
+    }
+
+    @Test
+    public void empty_and_tiny_amounts_report_zero() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertEquals(0, sketch.quantile(0.5), 0);
+
+        sketch.add(0.001);
+        assertEquals(0, sketch.quantile(0.5), 0);
+    }
+
+    private static void assertAccurate(QuantileSketch sketch, double[] amounts) {
+        double[] sorted = amounts.clone();
+        Arrays.sort(sorted);
+        for (double q : QUANTILES) {
+            double exact = sorted[(int) Math.floor(q * (sorted.length - 1))];
+            double estimate = sketch.quantile(q);
+            assertTrue("q=" + q + ": " + estimate + " vs " + exact,
+                    Math.abs(estimate - exact) <= QuantileSketch.RELATIVE_ACCURACY * exact);
+        }
+    }
+
+    // Log-normal amounts from a few cents to a few thousand, like real spending
+    private static double[] amounts(int count, long seed) {
+        Random random = new Random(seed);
+        double[] amounts = new double[count];
+        for (int i = 0; i < count; i++) {
+            amounts[i] = Math.max(0.01, Math.round(Math.exp(3 + 1.5 * random.nextGaussian()) * 100) / 100.0);
+        }
+        return amounts;
+    }
+}
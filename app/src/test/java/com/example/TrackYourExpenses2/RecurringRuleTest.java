@@ -0,0 +1,53 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Occurrence dates of {@link RecurringRule}, in particular monthly rules starting on a day
+ * that some months don't have.
+ */
+public class RecurringRuleTest {
+
+    @Test
+    public void monthly_from_31st_clamps_to_month_end_and_recovers() {
+        RecurringRule rule = monthly(ExpenseDates.epochDay(2023, 1, 31));
+
+        assertEquals(ExpenseDates.epochDay(2023, 1, 31), rule.occurrence(0));
+        assertEquals(ExpenseDates.epochDay(2023, 2, 28), rule.occurrence(1));
+        assertEquals(ExpenseDates.epochDay(2023, 3, 31), rule.occurrence(2));
+        assertEquals(ExpenseDates.epochDay(2023, 4, 30), rule.occurrence(3));
+    }
+
+    @Test
+    public void monthly_from_31st_uses_29th_in_leap_february() {
+        RecurringRule rule = monthly(ExpenseDates.epochDay(2024, 1, 31));
+
+        assertEquals(ExpenseDates.epochDay(2024, 2, 29), rule.occurrence(1));
+        assertEquals(ExpenseDates.epochDay(2024, 3, 31), rule.occurrence(2));
+    }
+
+    @Test
+    public void monthly_crosses_year_end() {
+        RecurringRule rule = monthly(ExpenseDates.epochDay(2023, 12, 31));
+
+        assertEquals(ExpenseDates.epochDay(2024, 1, 31), rule.occurrence(1));
+        assertEquals(ExpenseDates.epochDay(2024, 2, 29), rule.occurrence(2));
+    }
+
+    @Test
+    public void occurrences_after_end_day_are_invalid() {
+        int start = ExpenseDates.epochDay(2024, 1, 1);
+        RecurringRule rule = new RecurringRule("Gym", 30, "Other", start, RecurringRule.Unit.WEEK, 2,
+                ExpenseDates.epochDay(2024, 1, 29));
+
+        assertEquals(start + 14, rule.occurrence(1));
+        assertEquals(start + 28, rule.occurrence(2));
+        assertEquals(ExpenseDates.INVALID, rule.occurrence(3));
+    }
+
+    private static RecurringRule monthly(int startDay) {
+        return new RecurringRule("Rent", 1000, "Utilities", startDay, RecurringRule.Unit.MONTH, 1, ExpenseDates.INVALID);
+    }
+}
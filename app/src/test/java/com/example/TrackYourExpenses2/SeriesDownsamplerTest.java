@@ -0,0 +1,96 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bucketing of date ranges by {@link SeriesDownsampler}: the granularity chosen, and buckets that
+ * cover the range exactly, align to calendar boundaries and never exceed the limit.
+ */
+public class SeriesDownsamplerTest {
+
+    @Test
+    public void short_range_gets_one_bucket_per_day() {
+        int from = ExpenseDates.epochDay(2024, 3, 1);
+        List<SeriesDownsampler.Bucket> buckets = SeriesDownsampler.buckets(from, from + 9, 30);
+
+        assertEquals(10, buckets.size());
+        assertCovers(buckets, from, from + 9);
+        for (SeriesDownsampler.Bucket bucket : buckets) assertEquals(bucket.fromDay, bucket.toDay);
+    }
+
+    @Test
+    public void year_in_weeks_starts_each_inner_bucket_on_monday() {
+        int from = ExpenseDates.epochDay(2024, 1, 1);
+        int to = ExpenseDates.epochDay(2024, 12, 31);
+
+        assertEquals(SeriesDownsampler.Granularity.WEEK, SeriesDownsampler.chooseGranularity(from, to, 60));
+        List<SeriesDownsampler.Bucket> buckets = SeriesDownsampler.buckets(from, to, 60);
+
+        assertTrue(buckets.size() <= 60);
+        assertCovers(buckets, from, to);
+        for (int i = 1; i < buckets.size(); i++) assertEquals(0, ExpenseDates.dayOfWeek(buckets.get(i).fromDay));
+        for (int i = 0; i < buckets.size() - 1; i++) assertEquals(6, ExpenseDates.dayOfWeek(buckets.get(i).toDay));
+    }
+
+    @Test
+    public void year_in_months_follows_month_lengths() {
+        int from = ExpenseDates.epochDay(2024, 1, 1);
+        int to = ExpenseDates.epochDay(2024, 12, 31);
+
+        List<SeriesDownsampler.Bucket> buckets = SeriesDownsampler.buckets(from, to, 12);
+
+        assertEquals(12, buckets.size());
+        assertCovers(buckets, from, to);
+        SeriesDownsampler.Bucket february = buckets.get(1);
+        assertEquals(ExpenseDates.epochDay(2024, 2, 1), february.fromDay);
+        assertEquals(ExpenseDates.epochDay(2024, 2, 29), february.toDay);
+    }
+
+    @Test
+    public void partial_quarters_are_clipped_to_the_range() {
+        int from = ExpenseDates.epochDay(2023, 2, 15);
+        int to = ExpenseDates.epochDay(2024, 11, 3);
+
+        List<SeriesDownsampler.Bucket> buckets = SeriesDownsampler.buckets(from, to, 8);
+
+        assertEquals(SeriesDownsampler.Granularity.QUARTER, SeriesDownsampler.chooseGranularity(from, to, 8));
+        assertEquals(8, buckets.size());
+        assertCovers(buckets, from, to);
+        assertEquals("Q1 '23", buckets.get(0).label);
+        assertEquals(ExpenseDates.epochDay(2023, 3, 31), buckets.get(0).toDay);
+        assertEquals("Q4 '24", buckets.get(7).label);
+    }
+
+    @Test
+    public void long_range_falls_back_to_years() {
+        int from = ExpenseDates.epochDay(1990, 6, 1);
+        int to = ExpenseDates.epochDay(2024, 6, 1);
+
+        assertEquals(SeriesDownsampler.Granularity.YEAR, SeriesDownsampler.chooseGranularity(from, to, 7));
+        List<SeriesDownsampler.Bucket> buckets = SeriesDownsampler.buckets(from, to, 7);
+        assertEquals(35, buckets.size()); // Years are never merged further
+        assertCovers(buckets, from, to);
+    }
+
+    @Test
+    public void bucket_limit_follows_width_within_bounds() {
+        assertEquals(SeriesDownsampler.MIN_BUCKETS, SeriesDownsampler.maxBucketsForWidth(10, 2f));
+        assertEquals(20, SeriesDownsampler.maxBucketsForWidth(640, 2f));
+        assertEquals(SeriesDownsampler.MAX_BUCKETS, SeriesDownsampler.maxBucketsForWidth(100_000, 1f));
+    }
+
+    // Buckets are contiguous, in order, and span exactly from..to
+    private static void assertCovers(List<SeriesDownsampler.Bucket> buckets, int from, int to) {
+        assertEquals(from, buckets.get(0).fromDay);
+        assertEquals(to, buckets.get(buckets.size() - 1).toDay);
+        for (int i = 0; i < buckets.size(); i++) {
+            SeriesDownsampler.Bucket bucket = buckets.get(i);
+            assertTrue(bucket.fromDay <= bucket.toDay);
+            if (i > 0) assertEquals(buckets.get(i - 1).toDay + 1, bucket.fromDay);
+        }
+    }
+}
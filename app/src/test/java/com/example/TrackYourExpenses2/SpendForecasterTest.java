@@ -0,0 +1,84 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * One-step updates and forecasts of the {@link SpendForecaster} model, and what it converges to
+ * on flat and weekly spending.
+ */
+public class SpendForecasterTest {
+
+    private static final double DELTA = 1e-9;
+
+    // A Monday, so day START + i falls on weekday i % 7
+    private static final int START = ExpenseDates.epochDay(2024, 1, 1);
+
+    @Test
+    public void fold_from_an_empty_model() {
+        SpendForecaster.Model model = new SpendForecaster.Model();
+        model.foldedThrough = START - 1;
+        model.fold(START, 100);
+
+        double level = SpendForecaster.ALPHA * 100;
+        assertEquals(level, model.level, DELTA);
+        assertEquals(SpendForecaster.BETA * level, model.trend, DELTA);
+        assertEquals(SpendForecaster.GAMMA * (100 - level), model.season[ExpenseDates.dayOfWeek(START)], DELTA);
+        assertEquals(START, model.foldedThrough);
+    }
+
+    @Test
+    public void expected_damps_the_trend() {
+        SpendForecaster.Model model = new SpendForecaster.Model();
+        model.foldedThrough = START;
+        model.level = 10;
+        model.trend = 2;
+
+        double phi = SpendForecaster.PHI;
+        assertEquals(10 + 2 * phi, model.expected(1), DELTA);
+        assertEquals(10 + 2 * (phi + phi * phi + phi * phi * phi), model.expected(3), DELTA);
+        // The trend adds at most trend * PHI / (1 - PHI), however far ahead
+        assertEquals(10 + 2 * phi / (1 - phi), model.expected(1000), 1e-6);
+    }
+
+    @Test
+    public void expected_never_goes_negative() {
+        SpendForecaster.Model model = new SpendForecaster.Model();
+        model.foldedThrough = START;
+        model.level = 5;
+        model.trend = -4;
+
+        assertEquals(0, model.expected(30), DELTA);
+    }
+
+    @Test
+    public void flat_spending_is_forecast_flat() {
+        SpendForecaster.Model model = foldDays(new double[]{25, 25, 25, 25, 25, 25, 25}, 2000);
+
+        for (int h = 1; h <= 14; h++) {
+            assertEquals("h=" + h, 25, model.expected(h), 1e-3);
+        }
+    }
+
+    @Test
+    public void weekly_spending_is_forecast_by_weekday() {
+        double[] week = {70, 10, 10, 10, 10, 40, 0};
+        SpendForecaster.Model model = foldDays(week, 2000);
+
+        for (int h = 1; h <= 7; h++) {
+            int weekday = ExpenseDates.dayOfWeek(model.foldedThrough + h);
+            assertEquals("h=" + h, week[weekday], model.expected(h), 1e-3);
+        }
+    }
+
+    // Folds `days` days from START, spending week[weekday] on each
+    private static SpendForecaster.Model foldDays(double[] week, int days) {
+        SpendForecaster.Model model = new SpendForecaster.Model();
+        model.foldedThrough = START - 1;
+        for (int day = START; day < START + days; day++) {
+            model.fold(day, week[ExpenseDates.dayOfWeek(day)]);
+        }
+        return model;
+    }
+}
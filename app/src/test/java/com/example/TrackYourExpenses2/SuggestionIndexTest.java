@@ -0,0 +1,160 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recency-weighted scores of {@link SuggestionIndex.Scores}: newer expenses outweigh older ones by the
+ * half-life, the weekday boost, removals undoing additions, rebasing and the saved form.
+ */
+public class SuggestionIndexTest {
+
+    // A Monday
+    private static final int DAY = ExpenseDates.epochDay(2025, 3, 3);
+    private static final int HALF_LIFE = (int) SuggestionIndex.HALF_LIFE_DAYS;
+
+    @Test
+    public void newer_expenses_outweigh_older_ones_by_the_half_life() {
+        SuggestionIndex.Scores scores = new SuggestionIndex.Scores();
+        for (int i = 0; i < 3; i++) scores.add(expense("Rent", 900, DAY, "Utilities"), 1);
+
+        // One expense two half-lives later weighs 4, more than the three older ones together
+        scores.add(expense("Flight", 300, DAY + 2 * HALF_LIFE, "Travel"), 1);
+        assertEquals("Travel", scores.suggestCategory(ExpenseDates.INVALID));
+
+        // One half-life later it would only have weighed 2
+        SuggestionIndex.Scores closer = new SuggestionIndex.Scores();
+        for (int i = 0; i < 3; i++) closer.add(expense("Rent", 900, DAY, "Utilities"), 1);
+        closer.add(expense("Flight", 300, DAY + HALF_LIFE, "Travel"), 1);
+        assertEquals("Utilities", closer.suggestCategory(ExpenseDates.INVALID));
+    }
+
+    @Test
+    public void weekday_scores_are_boosted() {
+        SuggestionIndex.Scores scores = new SuggestionIndex.Scores();
+        // Food: twice on a Tuesday; Transport: once on the Monday before
+        scores.add(expense("Bus", 2, DAY, "Transport"), 1);
+        scores.add(expense("Lunch", 10, DAY + 1, "Food"), 1);
+        scores.add(expense("Lunch", 10, DAY + 1, "Food"), 1);
+
+        assertEquals("Food", scores.suggestCategory(ExpenseDates.INVALID));
+        assertEquals("Food", scores.suggestCategory(DAY + 1));
+        // On a Monday, Transport's single expense counts 1 + WEEKDAY_BOOST times
+        assertEquals("Transport", scores.suggestCategory(DAY + 7));
+    }
+
+    @Test
+    public void removing_undoes_adding() {
+        SuggestionIndex.Scores scores = new SuggestionIndex.Scores();
+        Expense lunch = expense("Lunch", 12.5, DAY, "Food");
+        Expense bus = expense("Bus", 2, DAY + 3, "Transport");
+        scores.add(lunch, 1);
+        scores.add(bus, 1);
+        scores.add(lunch, -1);
+
+        assertEquals("Transport", scores.suggestCategory(DAY));
+        assertTrue(scores.suggestAmounts("Food", 5).isEmpty());
+        assertTrue(scores.suggestTitles("lu", 5).isEmpty());
+
+        scores.add(bus, -1);
+        assertNull(scores.suggestCategory(DAY));
+        assertTrue(scores.suggestTitles("", 5).isEmpty());
+    }
+
+    @Test
+    public void amounts_are_ranked_by_weighted_frequency() {
+        SuggestionIndex.Scores scores = new SuggestionIndex.Scores();
+        scores.add(expense("Coffee", 3.5, DAY, "Food"), 1);
+        scores.add(expense("Coffee", 3.5, DAY, "Food"), 1);
+        scores.add(expense("Lunch", 12, DAY + 2 * HALF_LIFE, "Food"), 1);
+        scores.add(expense("Snack", 1.25, DAY, "Food"), 1);
+
+        // 12 weighs 4, 3.5 twice 1 and 1.25 once 1
+        assertEquals(Arrays.asList(12.0, 3.5, 1.25), scores.suggestAmounts("Food", 5));
+        assertEquals(Arrays.asList(12.0, 3.5), scores.suggestAmounts("Food", 2));
+        assertTrue(scores.suggestAmounts("Travel", 3).isEmpty());
+    }
+
+    @Test
+    public void amounts_per_category_are_capped() {
+        SuggestionIndex.Scores scores = new SuggestionIndex.Scores();
+        for (int i = 0; i <= SuggestionIndex.MAX_AMOUNTS_PER_CATEGORY; i++) {
+            // Later days weigh more, so the first amount is the lowest scored
+            scores.add(expense("Item", i + 1, DAY + i, "Other"), 1);
+        }
+
+        List<Double> amounts = scores.suggestAmounts("Other", 100);
+        assertEquals(SuggestionIndex.MAX_AMOUNTS_PER_CATEGORY, amounts.size());
+        assertFalse(amounts.contains(1.0));
+        assertEquals(SuggestionIndex.MAX_AMOUNTS_PER_CATEGORY + 1.0, amounts.get(0), 0);
+    }
+
+    @Test
+    public void titles_match_prefix_ignoring_case_best_first() {
+        SuggestionIndex.Scores scores = new SuggestionIndex.Scores();
+        scores.add(expense("Coffee", 3.5, DAY, "Food"), 1);
+        scores.add(expense("Cinema", 11, DAY + HALF_LIFE, "Entertainment"), 1);
+        scores.add(expense("coffee", 4, DAY + 1, "Food"), 1);
+        scores.add(expense("Bus", 2, DAY, "Transport"), 1);
+
+        List<SuggestionIndex.TitleSuggestion> titles = scores.suggestTitles("C", 5);
+        assertEquals(2, titles.size());
+        // Cinema weighs 2; the two coffees together a little more
+        assertEquals("coffee", titles.get(0).title);
+        assertEquals(4, titles.get(0).amount, 0);
+        assertEquals("Cinema", titles.get(1).title);
+
+        assertEquals(1, scores.suggestTitles("  CO", 5).size());
+        assertEquals(1, scores.suggestTitles("c", 1).size());
+        assertTrue(scores.suggestTitles("x", 5).isEmpty());
+    }
+
+    @Test
+    public void rebase_keeps_the_ranking() {
+        SuggestionIndex.Scores scores = new SuggestionIndex.Scores();
+        scores.add(expense("Rent", 900, DAY, "Utilities"), 1);
+        scores.add(expense("Rent", 900, DAY, "Utilities"), 1);
+        scores.add(expense("Bus", 2, DAY + 30, "Transport"), 1);
+
+        scores.rebase(DAY + 400);
+        assertEquals(DAY + 400, scores.landmark);
+        assertEquals("Utilities", scores.suggestCategory(ExpenseDates.INVALID));
+
+        // A later expense still adds its own weight against the rebased scores
+        scores.add(expense("Bus", 2, DAY + 2 * HALF_LIFE, "Transport"), 1);
+        assertEquals("Transport", scores.suggestCategory(ExpenseDates.INVALID));
+    }
+
+    @Test
+    public void written_scores_read_back_the_same() throws Exception {
+        SuggestionIndex.Scores scores = new SuggestionIndex.Scores();
+        scores.add(expense("Coffee", 3.5, DAY, "Food"), 1);
+        scores.add(expense("Bus", 2, DAY + 10, "Transport"), 1);
+        scores.add(expense("Cinema", 11, DAY + 20, "Entertainment"), 1);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        scores.write(new DataOutputStream(bytes));
+        SuggestionIndex.Scores copy = new SuggestionIndex.Scores();
+        copy.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(scores.landmark, copy.landmark);
+        for (int day = DAY; day < DAY + 7; day++) {
+            assertEquals(scores.suggestCategory(day), copy.suggestCategory(day));
+        }
+        assertEquals(scores.suggestAmounts("Food", 5), copy.suggestAmounts("Food", 5));
+        assertEquals(scores.suggestTitles("", 5).size(), copy.suggestTitles("", 5).size());
+        assertEquals(scores.suggestTitles("", 5).get(0).title, copy.suggestTitles("", 5).get(0).title);
+    }
+
+    private static Expense expense(String title, double amount, int day, String category) {
+        return new Expense(title, amount, ExpenseDates.format(day), category, null);
+    }
+}
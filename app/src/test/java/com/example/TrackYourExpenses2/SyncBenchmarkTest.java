@@ -0,0 +1,125 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Offline sync benchmark that pushes and pulls a large ledger through {@link InMemorySyncBackend}.
+ * Runs on the host JVM, checks that every document, batch and byte is accounted for and prints
+ * the timings. Left out of the unit tests; run with {@code ./gradlew testDebugUnitTest -Pbenchmark}.
+ */
+@Category(Benchmark.class)
+public class SyncBenchmarkTest {
+
+    private static final String PATH = FirebaseSyncHelper.expensePath("bench@example.com");
+    private static final int EXPENSE_COUNT = 100_000;
+
+    @Test
+    public void push_and_pull_100k_expenses() throws Exception {
+        InMemorySyncBackend backend = new InMemorySyncBackend(0, 0.0, 42L, 4);
+        List<Expense> expenses = generateExpenses(EXPENSE_COUNT);
+
+        SyncRunStats stats = new SyncRunStats("push");
+        CountDownLatch finished = new CountDownLatch(1);
+        MeteredSyncBackend metered = new MeteredSyncBackend(backend, stats, run -> finished.countDown());
+
+        int[] result = push(metered, FirebaseSyncHelper.toWriteOps(expenses));
+        metered.seal();
+        // The push reports back before its last batch is closed, which finishes the run
+        assertTrue("run never finished", finished.await(10, TimeUnit.SECONDS));
+        report("push", stats.getDocsWritten(), stats.getWallMillis());
+
+        assertEquals(EXPENSE_COUNT, result[0]);
+        assertEquals(0, result[1]);
+        assertEquals(EXPENSE_COUNT, backend.size(PATH));
+        assertEquals(EXPENSE_COUNT, stats.getDocsWritten());
+        assertEquals(EXPENSE_COUNT / SyncBackend.MAX_BATCH_SIZE, stats.getBatches());
+        assertTrue(stats.getPayloadBytes() > 0);
+
+        long pullStart = System.nanoTime();
+        Map<String, Map<String, Object>> remote = fetch(backend);
+        List<Expense> missing = FirebaseSyncHelper.selectMissing(remote.values(), new ArrayList<>());
+        report("pull", missing.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pullStart));
+
+        assertEquals(EXPENSE_COUNT, missing.size());
+        assertEquals(0, FirebaseSyncHelper.selectMissing(remote.values(), expenses).size());
+        backend.shutdown();
+    }
+
+    @Test
+    public void push_with_injected_failures_accounts_for_every_write() throws Exception {
+        InMemorySyncBackend backend = new InMemorySyncBackend(1, 0.3, 7L, 4);
+        List<Expense> expenses = generateExpenses(10_000);
+
+        int[] result = push(backend, FirebaseSyncHelper.toWriteOps(expenses));
+
+        // Every write is either committed or reported failed after retries, never lost
+        assertEquals(expenses.size(), result[0] + result[1]);
+        assertEquals(result[0], backend.size(PATH));
+        backend.shutdown();
+    }
+
+    // Timings are reported, not asserted: they depend on the machine running the build
+    private static void report(String kind, long docs, long wallMillis) {
+        System.out.println(String.format(Locale.ROOT, "%s: %d docs in %d ms (%.0f docs/s)",
+                kind, docs, wallMillis, docs * 1000.0 / Math.max(1, wallMillis)));
+    }
+
+    private static List<Expense> generateExpenses(int count) {
+        String[] categories = {"Food", "Transport", "Utilities", "Entertainment", "Other"};
+        List<Expense> expenses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String date = (i % 28 + 1) + "/" + (i % 12 + 1) + "/" + (2000 + i % 25);
+            expenses.add(new Expense("Item " + i, i + 0.5, date, categories[i % categories.length], null));
+        }
+        return expenses;
+    }
+
+    private static int[] push(SyncBackend backend, List<SyncBackend.WriteOp> ops) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        FirebaseSyncHelper.pushInBatches(backend, PATH, ops, (w, f) -> {
+            written.set(w);
+            failed.set(f);
+            latch.countDown();
+        });
+
+        assertTrue("push timed out", latch.await(60, TimeUnit.SECONDS));
+        return new int[]{written.get(), failed.get()};
+    }
+
+    private static Map<String, Map<String, Object>> fetch(SyncBackend backend) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Map<String, Map<String, Object>>> result = new AtomicReference<>();
+
+        backend.fetchCollection(PATH, new SyncBackend.Callback<Map<String, Map<String, Object>>>() {
+            @Override
+            public void onSuccess(Map<String, Map<String, Object>> documents) {
+                result.set(documents);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                latch.countDown();
+            }
+        });
+
+        assertTrue("fetch timed out", latch.await(60, TimeUnit.SECONDS));
+        assertNotNull(result.get());
+        return result.get();
+    }
+}
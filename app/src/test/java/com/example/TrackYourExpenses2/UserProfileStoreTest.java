@@ -0,0 +1,59 @@
+package com.example.TrackYourExpenses2;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * How {@link UserProfileStore} stores category budgets and alert thresholds in its prefs strings.
+ */
+public class UserProfileStoreTest {
+
+    @Test
+    public void category_budgets_round_trip_through_json() {
+        Map<String, Float> budgets = new HashMap<>();
+        budgets.put("Food", 300f);
+        budgets.put("Transport", 45.5f);
+        budgets.put("Other", 0.1f);
+        budgets.put("Eating out & bars", 120f);
+
+        assertEquals(budgets, UserProfileStore.parseCategoryBudgets(UserProfileStore.toJson(budgets)));
+    }
+
+    @Test
+    public void missing_or_empty_category_budgets_parse_as_none() {
+        assertTrue(UserProfileStore.parseCategoryBudgets(null).isEmpty());
+        assertTrue(UserProfileStore.parseCategoryBudgets("{}").isEmpty());
+        assertTrue(UserProfileStore.parseCategoryBudgets(UserProfileStore.toJson(new HashMap<>())).isEmpty());
+    }
+
+    @Test
+    public void integer_budgets_parse_as_floats() {
+        Map<String, Float> budgets = UserProfileStore.parseCategoryBudgets("{\"Food\":300,\"Rent\":950.25}");
+
+        assertEquals(2, budgets.size());
+        assertEquals(300f, budgets.get("Food"), 0);
+        assertEquals(950.25f, budgets.get("Rent"), 0);
+    }
+
+    @Test
+    public void thresholds_round_trip_sorted() {
+        int[] thresholds = UserProfileStore.parseThresholds(UserProfileStore.joinThresholds(new int[]{90, 50, 100}));
+
+        assertEquals("50,90,100", UserProfileStore.joinThresholds(thresholds));
+        assertEquals("50,90,100", UserProfileStore.joinThresholds(UserProfileStore.parseThresholds(" 90, 50 ,100")));
+    }
+
+    @Test
+    public void unset_or_unreadable_thresholds_fall_back_to_defaults() {
+        String defaults = UserProfileStore.joinThresholds(UserProfileStore.DEFAULT_ALERT_THRESHOLDS);
+
+        assertEquals(defaults, UserProfileStore.joinThresholds(UserProfileStore.parseThresholds(null)));
+        assertEquals(defaults, UserProfileStore.joinThresholds(UserProfileStore.parseThresholds("50,lots")));
+        // No thresholds at all are stored as an empty string
+        assertEquals(0, UserProfileStore.parseThresholds("").length);
+    }
+}